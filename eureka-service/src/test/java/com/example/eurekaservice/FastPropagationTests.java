@@ -0,0 +1,39 @@
+package com.example.eurekaservice;
+
+import com.netflix.appinfo.EurekaAccept;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.eureka.Version;
+import com.netflix.eureka.registry.Key;
+import com.netflix.eureka.registry.PeerAwareInstanceRegistry;
+import com.netflix.eureka.registry.ResponseCacheImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("fast-propagation")
+class FastPropagationTests {
+
+	@Autowired
+	private PeerAwareInstanceRegistry registry;
+
+	@Test
+	void registrationShowsUpInTheNextRegistryRead() {
+		Key allApps = new Key(Key.EntityType.Application, ResponseCacheImpl.ALL_APPS, Key.KeyType.JSON, Version.V2,
+				EurekaAccept.full);
+		assertThat(this.registry.getResponseCache().get(allApps)).doesNotContain("scale-out-0");
+
+		this.registry.register(InstanceInfo.Builder
+				.newBuilder()
+				.setInstanceId("scale-out-0")
+				.setAppName("RESERVATION-SERVICE")
+				.setHostName("localhost")
+				.build(), false);
+
+		assertThat(this.registry.getResponseCache().get(allApps)).contains("scale-out-0");
+	}
+
+}
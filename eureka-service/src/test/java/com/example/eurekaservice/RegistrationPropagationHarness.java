@@ -0,0 +1,138 @@
+package com.example.eurekaservice;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Starts eureka-service with the given profile, registers a fleet of reservation-service instances
+ * and then scales out one instance at a time. A simulated client fetches the registry delta every
+ * fetch interval, as a Eureka client does, and routes to an instance as soon as it shows up there;
+ * the harness reports the time from each registration to that first routed request. Arguments:
+ * [profile, or default] [instances] [scale-outs] [client fetch interval ms].
+ */
+class RegistrationPropagationHarness {
+
+	private static final String APP = "RESERVATION-SERVICE";
+
+	public static void main(String[] args) throws Exception {
+		String profile = args.length > 0 ? args[0] : "fast-propagation";
+		int instances = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		int scaleOuts = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		long fetchIntervalMillis = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(EurekaServiceApplication.class)
+				.profiles(profile)
+				.run("--server.port=0", "--eureka.client.fetch-registry=false", "--logging.level.root=WARN");
+		String apps = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/eureka/apps";
+
+		for (int i = 0; i < instances; i++) {
+			register(apps, "fleet-" + i);
+		}
+
+		Map<String, Long> registered = new ConcurrentHashMap<>();
+		List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+		Thread client = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					String delta = get(apps + "/delta");
+					long now = System.nanoTime();
+					registered.entrySet().removeIf(instance -> {
+						if (delta.contains("\"" + instance.getKey() + "\"")) {
+							latencies.add(TimeUnit.NANOSECONDS.toMillis(now - instance.getValue()));
+							return true;
+						}
+						return false;
+					});
+					Thread.sleep(fetchIntervalMillis);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		client.setDaemon(true);
+		client.start();
+
+		for (int i = 0; i < scaleOuts; i++) {
+			String instanceId = "scale-out-" + i;
+			register(apps, instanceId);
+			registered.put(instanceId, System.nanoTime());
+			Thread.sleep(500);
+		}
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+		while (latencies.size() < scaleOuts && System.nanoTime() < deadline) {
+			Thread.sleep(100);
+		}
+		client.interrupt();
+		context.close();
+
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		System.out.printf("profile %s, %d instances, client fetch every %d ms: %d/%d scale-outs routed, "
+						+ "registration to first request p50 %d ms, p90 %d ms, max %d ms%n",
+				profile, instances, fetchIntervalMillis, sorted.size(), scaleOuts,
+				percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 1.0));
+	}
+
+	private static void register(String apps, String instanceId) throws IOException {
+		String instance = "{\"instance\":{"
+				+ "\"instanceId\":\"" + instanceId + "\","
+				+ "\"hostName\":\"localhost\","
+				+ "\"app\":\"" + APP + "\","
+				+ "\"ipAddr\":\"127.0.0.1\","
+				+ "\"vipAddress\":\"reservation-service\","
+				+ "\"status\":\"UP\","
+				+ "\"port\":{\"$\":8080,\"@enabled\":\"true\"},"
+				+ "\"dataCenterInfo\":{\"@class\":\"com.netflix.appinfo.InstanceInfo$DefaultDataCenterInfo\",\"name\":\"MyOwn\"}"
+				+ "}}";
+		HttpURLConnection connection = (HttpURLConnection) new URL(apps + "/" + APP).openConnection();
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", "application/json");
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(instance.getBytes(StandardCharsets.UTF_8));
+		}
+		if (connection.getResponseCode() != 204) {
+			throw new IllegalStateException("registering " + instanceId + " failed with " + connection.getResponseCode());
+		}
+	}
+
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestProperty("Accept", "application/json");
+		try (InputStream in = connection.getInputStream()) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) != -1; ) {
+				body.write(buffer, 0, read);
+			}
+			return new String(body.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static long percentile(List<Long> sorted, double percentile) {
+		if (sorted.isEmpty()) {
+			return -1;
+		}
+		int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index));
+	}
+
+}
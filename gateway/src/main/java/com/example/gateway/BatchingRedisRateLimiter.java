@@ -0,0 +1,319 @@
+package com.example.gateway;
+
+import io.lettuce.core.cluster.SlotHash;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.gateway.filter.ratelimit.AbstractRateLimiter;
+import org.springframework.cloud.gateway.filter.ratelimit.RedisRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/*
+ * A token-bucket rate limiter with the same semantics as {@link RedisRateLimiter}, except that
+ *
+ *  - decisions arriving within the same batch window are sent to Redis as one script call per
+ *    cluster slot, instead of one call per request, and
+ *  - every key is split into a number of sub-buckets so that a single hot principal is spread over
+ *    several Redis keys and slots. Their rates and burst capacities add up to those configured. A
+ *    request its random sub-bucket has no token for tries the next one once, in a later batch, and
+ *    is denied if that one has none either, so a denial costs at most two round trips however many
+ *    sub-buckets there are. A key can therefore deny a little before an unsplit bucket would, while
+ *    some of its tokens sit in sub-buckets its requests didn't land on.
+ *
+ * Batches are only formed as fast as Redis answers them. Decisions that arrive while pending-limit
+ * of them are already waiting, and those of a batch Redis hasn't answered within timeout, are
+ * allowed, as RedisRateLimiter allows requests when Redis fails, so a stalled Redis slows nothing
+ * down and the limiter picks up again once it answers.
+ *
+ * The Redis round-trip time of the batch that carried a decision is returned in a response header
+ * and recorded in the {@code gateway.ratelimiter.redis} timer.
+ */
+@Log4j2
+class BatchingRedisRateLimiter extends AbstractRateLimiter<RedisRateLimiter.Config> implements DisposableBean {
+
+  static final String CONFIGURATION_PROPERTY_NAME = "batching-redis-rate-limiter";
+  static final String REDIS_RTT_HEADER = "X-RateLimit-Redis-Rtt-Micros";
+
+  private final ReactiveStringRedisTemplate redisTemplate;
+  private final RedisScript<List<Long>> script = batchScript();
+  private final RedisRateLimiter.Config defaultConfig;
+  private final int shards;
+  private final Duration timeout;
+  private final Timer roundTrips;
+  private final FluxSink<Decision> decisions;
+  private final Disposable batches;
+
+  BatchingRedisRateLimiter(ReactiveStringRedisTemplate redisTemplate, MeterRegistry meterRegistry,
+                           int replenishRate, int burstCapacity, int shards, int maxBatchSize, Duration batchWindow,
+                           int pendingLimit, Duration timeout) {
+    super(RedisRateLimiter.Config.class, CONFIGURATION_PROPERTY_NAME, (ConfigurationService) null);
+    this.redisTemplate = redisTemplate;
+    this.defaultConfig = new RedisRateLimiter.Config()
+        .setReplenishRate(replenishRate)
+        .setBurstCapacity(burstCapacity);
+    this.shards = Math.max(1, Math.min(shards, burstCapacity));
+    this.timeout = timeout;
+    this.roundTrips = Timer
+        .builder("gateway.ratelimiter.redis")
+        .description("Redis round-trip time of a batch of rate limiter decisions")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+
+    var processor = UnicastProcessor.<Decision>create();
+    this.decisions = processor.sink();
+    var pending = processor
+        .onBackpressureBuffer(pendingLimit, Decision::allow, BufferOverflowStrategy.DROP_LATEST);
+    this.batches = Batches
+        .of(pending, maxBatchSize, batchWindow)
+        .flatMap(this::execute)
+        .subscribe(null, e -> log.error("the rate limiter stopped, allowing every request from now on", e));
+  }
+
+  @Override
+  public Mono<Response> isAllowed(String routeId, String id) {
+    var config = getConfig().getOrDefault(routeId, this.defaultConfig);
+    var shard = this.shards == 1 ? 0 : ThreadLocalRandom.current().nextInt(this.shards);
+    return Mono.create(sink -> {
+      var decision = new Decision(id, shard, 1, config, sink);
+      if (this.batches.isDisposed()) {
+        decision.allow();
+      }
+      else {
+        this.decisions.next(decision);
+      }
+    });
+  }
+
+  @Override
+  public void destroy() {
+    this.decisions.complete();
+    this.batches.dispose();
+  }
+
+  private Flux<Void> execute(List<Decision> batch) {
+    Map<Integer, List<Decision>> bySlot = batch
+        .stream()
+        .collect(Collectors.groupingBy(decision -> SlotHash.getSlot(decision.bucket())));
+    return Flux
+        .fromIterable(bySlot.values())
+        .flatMap(this::executeInSlot)
+        .onErrorResume(throwable -> {
+          log.error("Error batching rate limiter decisions", throwable);
+          batch.forEach(Decision::allow);
+          return Mono.empty();
+        });
+  }
+
+  private Mono<Void> executeInSlot(Collection<Decision> decisions) {
+    var now = Long.toString(Instant.now().getEpochSecond());
+    var keys = new ArrayList<String>(decisions.size() * 2);
+    var args = new ArrayList<String>(decisions.size() * 4);
+    for (var decision : decisions) {
+      var bucket = decision.bucket();
+      keys.add("request_rate_limiter." + bucket + ".tokens");
+      keys.add("request_rate_limiter." + bucket + ".timestamp");
+      args.add(Double.toString((double) decision.config.getReplenishRate() / this.shards));
+      args.add(Integer.toString(shareOf(decision.config.getBurstCapacity(), decision.shard)));
+      args.add(now);
+      args.add("1");
+    }
+    return Mono
+        .defer(() -> {
+          var start = System.nanoTime();
+          return this.redisTemplate
+              .execute(this.script, keys, args)
+              .next()
+              .timeout(this.timeout)
+              .map(results -> {
+                var rtt = System.nanoTime() - start;
+                this.roundTrips.record(rtt, TimeUnit.NANOSECONDS);
+                complete(decisions, results, TimeUnit.NANOSECONDS.toMicros(rtt));
+                return results;
+              });
+        })
+        .onErrorResume(throwable -> {
+          log.error("Error determining if user allowed from redis", throwable);
+          decisions.forEach(Decision::allow);
+          return Mono.empty();
+        })
+        .then();
+  }
+
+  private void complete(Collection<Decision> decisions, List<Long> results, long rttMicros) {
+    var i = 0;
+    for (var decision : decisions) {
+      var allowed = results.get(i) == 1L;
+      var tokensLeft = results.get(i + 1) * this.shards;
+      if (!allowed && decision.attempts == 1 && this.shards > 1) {
+        this.decisions.next(decision.nextShard(this.shards));
+      }
+      else {
+        decision.sink.success(new Response(allowed, decision.headers(tokensLeft, rttMicros)));
+      }
+      i += 2;
+    }
+  }
+
+  // the burst capacity of one sub-bucket: the shares of all of them add up to capacity
+  private int shareOf(int capacity, int shard) {
+    return capacity / this.shards + (shard < capacity % this.shards ? 1 : 0);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static RedisScript<List<Long>> batchScript() {
+    var script = new DefaultRedisScript();
+    script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/batch_request_rate_limiter.lua")));
+    script.setResultType(List.class);
+    return script;
+  }
+
+  @RequiredArgsConstructor
+  private static class Decision {
+
+    private final String id;
+    private final int shard;
+    private final int attempts;
+    private final RedisRateLimiter.Config config;
+    private final MonoSink<Response> sink;
+
+    void allow() {
+      this.sink.success(new Response(true, headers(-1L, -1L)));
+    }
+
+    Decision nextShard(int shards) {
+      return new Decision(this.id, (this.shard + 1) % shards, this.attempts + 1, this.config, this.sink);
+    }
+
+    // the hash tag keeps the tokens and timestamp keys of one sub-bucket in the same slot
+    String bucket() {
+      return "{" + this.id + "#" + this.shard + "}";
+    }
+
+    Map<String, String> headers(long tokensLeft, long rttMicros) {
+      return Map.of(
+          RedisRateLimiter.REMAINING_HEADER, Long.toString(tokensLeft),
+          RedisRateLimiter.REPLENISH_RATE_HEADER, Integer.toString(this.config.getReplenishRate()),
+          RedisRateLimiter.BURST_CAPACITY_HEADER, Integer.toString(this.config.getBurstCapacity()),
+          REDIS_RTT_HEADER, Long.toString(rttMicros));
+    }
+  }
+}
+
+/*
+ * Batches of up to size items, each emitted once full or window after its first item arrived,
+ * whichever comes first, but only as downstream asks for them. bufferTimeout fails when a batch
+ * times out while downstream is busy; here a batch that is due waits for the next request, and no
+ * more items are requested from upstream than fit in the batch being filled. Copied from
+ * reservation-service's ReservationIngestion, as shared code is copied between these modules.
+ */
+class Batches<T> extends BaseSubscriber<T> {
+
+  private final FluxSink<List<T>> sink;
+  private final int size;
+  private final Duration window;
+  private List<T> batch;
+  private boolean due;
+  private boolean done;
+  private Disposable timeout = Disposables.disposed();
+
+  private Batches(FluxSink<List<T>> sink, int size, Duration window) {
+    this.sink = sink;
+    this.size = size;
+    this.window = window;
+    this.batch = new ArrayList<>(size);
+  }
+
+  static <T> Flux<List<T>> of(Flux<T> items, int size, Duration window) {
+    return Flux.create(sink -> {
+      var batches = new Batches<T>(sink, size, window);
+      sink.onRequest(n -> batches.drain());
+      sink.onDispose(batches);
+      items.subscribe(batches);
+    }, FluxSink.OverflowStrategy.ERROR);
+  }
+
+  @Override
+  protected void hookOnSubscribe(Subscription subscription) {
+    request(this.size);
+  }
+
+  @Override
+  protected synchronized void hookOnNext(T item) {
+    this.batch.add(item);
+    if (this.batch.size() == 1) {
+      this.timeout = Schedulers.parallel().schedule(this::expire, this.window.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    if (this.batch.size() == this.size) {
+      this.due = true;
+    }
+    drain();
+  }
+
+  @Override
+  protected synchronized void hookOnComplete() {
+    this.done = true;
+    this.due = true;
+    drain();
+  }
+
+  @Override
+  protected void hookOnError(Throwable error) {
+    this.sink.error(error);
+  }
+
+  @Override
+  protected void hookFinally(SignalType type) {
+    this.timeout.dispose();
+  }
+
+  private synchronized void expire() {
+    this.due = !this.batch.isEmpty();
+    drain();
+  }
+
+  // reentrant: emitting a batch or requesting more can call back in here on the same thread
+  private synchronized void drain() {
+    if (this.due && !this.batch.isEmpty() && this.sink.requestedFromDownstream() > 0) {
+      var full = this.batch;
+      this.batch = new ArrayList<>(this.size);
+      this.due = this.done;
+      this.timeout.dispose();
+      this.sink.next(full);
+      if (!this.done) {
+        request(full.size());
+      }
+    }
+    if (this.done && this.batch.isEmpty()) {
+      this.sink.complete();
+    }
+  }
+}
@@ -1,38 +1,95 @@
 package com.example.gateway;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
 import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
 import org.springframework.cloud.gateway.filter.ratelimit.PrincipalNameKeyResolver;
+import org.springframework.cloud.gateway.filter.ratelimit.RateLimiter;
 import org.springframework.cloud.gateway.filter.ratelimit.RedisRateLimiter;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
 import org.springframework.cloud.gateway.route.RouteLocator;
 import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
+import org.springframework.cloud.gateway.rsocket.routing.RoutingTable;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.core.userdetails.MapReactiveUserDetailsService;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.util.matcher.NegatedServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
 
 @SpringBootApplication
 public class GatewayApplication {
 
   @Bean
+  @ConditionalOnProperty(name = "gateway.rate-limiter.mode", havingValue = "default", matchIfMissing = true)
   RedisRateLimiter redisRateLimiter() {
     return new RedisRateLimiter(5, 7);
   }
 
+  @Bean
+  @ConditionalOnProperty(name = "gateway.rate-limiter.mode", havingValue = "batching")
+  BatchingRedisRateLimiter batchingRedisRateLimiter(
+      ReactiveStringRedisTemplate redisTemplate,
+      MeterRegistry meterRegistry,
+      @Value("${gateway.rate-limiter.batching.shards:4}") int shards,
+      @Value("${gateway.rate-limiter.batching.max-batch-size:256}") int maxBatchSize,
+      @Value("${gateway.rate-limiter.batching.window:1ms}") Duration window,
+      @Value("${gateway.rate-limiter.batching.pending-limit:10000}") int pendingLimit,
+      @Value("${gateway.rate-limiter.batching.timeout:1s}") Duration timeout) {
+    return new BatchingRedisRateLimiter(redisTemplate, meterRegistry, 5, 7, shards, maxBatchSize, window, pendingLimit,
+        timeout);
+  }
+
+  @Bean
+  @Primary
+  @ConditionalOnProperty(name = "gateway.rsocket.load-balancer.mode", havingValue = "weighted")
+  WeightedLoadBalancerFactory weightedLoadBalancerFactory(
+      RoutingTable routingTable,
+      MeterRegistry meterRegistry,
+      @Value("${gateway.rsocket.load-balancer.smoothing:0.2}") double smoothing,
+      @Value("${gateway.rsocket.load-balancer.error-penalty:1s}") Duration errorPenalty) {
+    return new WeightedLoadBalancerFactory(routingTable,
+        new WeightedLeastLoadedBalancer(meterRegistry, smoothing, errorPenalty));
+  }
+
   @Bean
   MapReactiveUserDetailsService authentication() {
     return new MapReactiveUserDetailsService(
         User.withDefaultPasswordEncoder().username("jlong").password("pw").roles("USER").build());
   }
 
+  @Bean
+  SimpleUrlHandlerMapping webSocketProxyMapping(
+      @Value("${gateway.websocket.greetings-uri:ws://localhost:8081/ws/greetings}") URI greetings,
+      @Value("${gateway.websocket.max-frame-payload-length:65536}") int maxFramePayloadLength) {
+    var proxy = new WebSocketFrameProxy(HttpClient.create(), greetings, maxFramePayloadLength);
+    // ahead of the gateway's own routes
+    return new SimpleUrlHandlerMapping(Map.of("/ws/greetings", proxy), -1);
+  }
+
+  // WebSocket backends authenticate the credentials the gateway passes on, so those skip the filter chain
   @Bean
   SecurityWebFilterChain authorization(ServerHttpSecurity http) {
     return http
+        .securityMatcher(new NegatedServerWebExchangeMatcher(ServerWebExchangeMatchers.pathMatchers("/ws/**")))
         .csrf(ServerHttpSecurity.CsrfSpec::disable)
         .httpBasic(Customizer.withDefaults())
         .authorizeExchange(x -> x
@@ -42,18 +99,27 @@ public class GatewayApplication {
   }
 
   @Bean
-  RouteLocator gateway(RouteLocatorBuilder rlb) {
+  @ConditionalOnProperty(name = "gateway.route-matching.mode", havingValue = "indexed")
+  static IndexedRouteMatchingPostProcessor indexedRouteMatching(
+      ObjectProvider<FilteringWebHandler> webHandler,
+      ObjectProvider<RouteLocator> routeLocator,
+      ObjectProvider<GlobalCorsProperties> globalCorsProperties,
+      Environment environment) {
+    return new IndexedRouteMatchingPostProcessor(webHandler, routeLocator, globalCorsProperties, environment);
+  }
+
+  @Bean
+  RouteLocator gateway(RouteLocatorBuilder rlb, RateLimiter<?> rateLimiter) {
     return rlb
         .routes()
-        .route(rSpec -> rSpec
-            .path("/proxy").and().host("*.spring.io")
+        .route(RouteIndex.pathAndHost("/proxy", "*.spring.io", rSpec -> rSpec
             .filters(fSpec -> fSpec
                 .setPath("/reservations")
                 .requestRateLimiter(rlSpec -> rlSpec
-                    .setRateLimiter(this.redisRateLimiter())
+                    .setRateLimiter(rateLimiter)
                     .setKeyResolver(new PrincipalNameKeyResolver()))
             )
-            .uri("http://localhost:8080"))
+            .uri("http://localhost:8080")))
         .build();
   }
 
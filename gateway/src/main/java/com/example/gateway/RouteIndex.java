@@ -0,0 +1,444 @@
+package com.example.gateway;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.cloud.gateway.route.builder.BooleanSpec;
+import org.springframework.cloud.gateway.route.builder.PredicateSpec;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_PREDICATE_ROUTE_ATTR;
+
+/*
+ * The gateway's routes compiled into two tries, one over path segments and one over the labels of
+ * the Host header, last label first, so that *.spring.io and **.spring.io hang below io, spring.
+ * Looking a request up in each gives the routes whose path and host patterns could match it, in
+ * route order, without evaluating any predicate.
+ *
+ * Route predicates are opaque functions, so the patterns are read from the route's metadata,
+ * PATHS and HOSTS, each a pattern or a list of them; pathAndHost sets both together with the
+ * predicates. A route without them may match any path or host. The index only narrows: every
+ * candidate's full predicate is still evaluated, so metadata that is broader than the predicate
+ * costs time but never changes which route matches. Metadata narrower than the predicate does.
+ *
+ * Wildcard segments and labels (*, ?, {var}) match any one segment or label, ** and {*var} the
+ * rest, whatever the pattern says after them. A trailing slash is optional, as it is to the Path
+ * predicate.
+ */
+class RouteIndex {
+
+  static final String PATHS = "route-index.paths";
+  static final String HOSTS = "route-index.hosts";
+
+  // a {var:regex} whose regex contains the label separator can't be split into labels
+  private static final Pattern DOTTED_HOST_VARIABLE = Pattern.compile("\\{[^}]*\\.[^}]*}");
+
+  private final List<Route> routes;
+  private final LabelTrie paths;
+  private final LabelTrie hosts;
+
+  RouteIndex(List<Route> routes) {
+    this.routes = List.copyOf(routes);
+    this.paths = new LabelTrie(routes.size());
+    this.hosts = new LabelTrie(routes.size());
+    for (var route = 0; route < routes.size(); route++) {
+      var metadata = routes.get(route).getMetadata();
+      var pathPatterns = patterns(metadata.get(PATHS));
+      if (pathPatterns.isEmpty()) {
+        this.paths.rest(this.paths.root(), route);
+      }
+      for (var pattern : pathPatterns) {
+        addPath(pattern, route);
+      }
+      var hostPatterns = patterns(metadata.get(HOSTS));
+      if (hostPatterns.isEmpty()) {
+        this.hosts.rest(this.hosts.root(), route);
+      }
+      for (var pattern : hostPatterns) {
+        addHost(pattern, route);
+      }
+    }
+    this.paths.freeze();
+    this.hosts.freeze();
+  }
+
+  // the path and host predicates of a route, with the metadata that indexes it by them
+  static Function<PredicateSpec, Route.AsyncBuilder> pathAndHost(
+      String path, String host, Function<BooleanSpec, Route.AsyncBuilder> route) {
+    return spec -> route
+        .apply(spec.path(path).and().host(host))
+        .metadata(PATHS, List.of(path))
+        .metadata(HOSTS, List.of(host));
+  }
+
+  // the routes that may match, in route order; host is the Host header as sent, port included
+  List<Route> candidates(String rawPath, String host) {
+    var pathLabels = pathLabels(rawPath);
+    var pathSlots = this.paths.match(pathLabels);
+    if (!pathLabels.isEmpty() && pathLabels.get(pathLabels.size() - 1).isEmpty()) {
+      this.paths.match(pathLabels.subList(0, pathLabels.size() - 1), pathSlots);
+    }
+    var hostSlots = this.hosts.match(hostLabels(host));
+
+    // start from whichever side reached fewer routes, keep those the other side reached too
+    var fromPaths = this.paths.routes(pathSlots) <= this.hosts.routes(hostSlots);
+    var ordinals = fromPaths ? this.paths.ordinals(pathSlots) : this.hosts.ordinals(hostSlots);
+    var candidates = new ArrayList<Route>(ordinals.size);
+    for (var i = 0; i < ordinals.size; i++) {
+      var route = ordinals.values[i];
+      if (fromPaths ? this.hosts.reaches(route, hostSlots) : this.paths.reaches(route, pathSlots)) {
+        candidates.add(this.routes.get(route));
+      }
+    }
+    return candidates;
+  }
+
+  private void addPath(String pattern, int route) {
+    var node = this.paths.root();
+    var segments = (pattern.startsWith("/") ? pattern.substring(1) : pattern).split("/", -1);
+    for (var segment : segments) {
+      if (segment.equals("**") || segment.startsWith("{*")) {
+        this.paths.rest(node, route);
+        return;
+      }
+      node = wildcard(segment) ? node.one() : node.literal(segment);
+    }
+    this.paths.exact(node, route);
+  }
+
+  private void addHost(String pattern, int route) {
+    var node = this.hosts.root();
+    if (DOTTED_HOST_VARIABLE.matcher(pattern).find()) {
+      this.hosts.rest(node, route);
+      return;
+    }
+    var labels = hostLabels(pattern);
+    for (var label : labels) {
+      if (label.equals("**")) {
+        this.hosts.rest(node, route);
+        return;
+      }
+      node = wildcard(label) ? node.one() : node.literal(label);
+    }
+    this.hosts.exact(node, route);
+  }
+
+  private static boolean wildcard(String label) {
+    return label.indexOf('*') >= 0 || label.indexOf('?') >= 0 || label.indexOf('{') >= 0;
+  }
+
+  // one label per separator, the segment after it or "" if there is none, as the Path predicate parses it
+  private static List<String> pathLabels(String rawPath) {
+    var elements = PathContainer.parsePath(rawPath).elements();
+    var labels = new ArrayList<String>(elements.size() / 2 + 1);
+    for (var i = 0; i < elements.size(); i++) {
+      if (elements.get(i) instanceof PathContainer.Separator) {
+        var next = i + 1 < elements.size() ? elements.get(i + 1) : null;
+        labels.add(next instanceof PathContainer.PathSegment ? ((PathContainer.PathSegment) next).valueToMatch() : "");
+      }
+    }
+    return labels;
+  }
+
+  // last label first, empty labels dropped, as AntPathMatcher tokenizes
+  private static List<String> hostLabels(String host) {
+    if (host == null) {
+      return List.of();
+    }
+    var labels = new ArrayList<String>(4);
+    var end = host.length();
+    for (var i = host.length() - 1; i >= -1; i--) {
+      if (i == -1 || host.charAt(i) == '.') {
+        if (end > i + 1) {
+          labels.add(host.substring(i + 1, end));
+        }
+        end = i;
+      }
+    }
+    return labels;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Collection<String> patterns(Object metadata) {
+    if (metadata == null) {
+      return List.of();
+    }
+    return metadata instanceof Collection ? (Collection<String>) metadata : List.of(metadata.toString());
+  }
+}
+
+/*
+ * A trie over labels whose nodes hold routes in two slots: routes whose pattern ends at the node,
+ * and routes whose pattern goes on with a wildcard for the rest. Matching collects the ids of the
+ * slots the labels reach, a handful however many routes there are; which routes those are, and
+ * whether a given route is among them, is answered from the slots afterwards.
+ */
+class LabelTrie {
+
+  private final Node root = new Node();
+  private final List<Ints> slotRoutes = new ArrayList<>();
+  private final Ints[] routeSlots;
+  private int[][] routesBySlot;
+  private int[][] slotsByRoute;
+
+  LabelTrie(int routes) {
+    this.routeSlots = new Ints[routes];
+    for (var route = 0; route < routes; route++) {
+      this.routeSlots[route] = new Ints(1);
+    }
+  }
+
+  Node root() {
+    return this.root;
+  }
+
+  void exact(Node node, int route) {
+    if (node.exact < 0) {
+      node.exact = newSlot();
+    }
+    add(node.exact, route);
+  }
+
+  void rest(Node node, int route) {
+    if (node.rest < 0) {
+      node.rest = newSlot();
+    }
+    add(node.rest, route);
+  }
+
+  void freeze() {
+    this.routesBySlot = this.slotRoutes.stream().map(Ints::toArray).toArray(int[][]::new);
+    this.slotsByRoute = Arrays.stream(this.routeSlots).map(Ints::toArray).toArray(int[][]::new);
+  }
+
+  Ints match(List<String> labels) {
+    var slots = new Ints(4);
+    match(labels, slots);
+    return slots;
+  }
+
+  void match(List<String> labels, Ints slots) {
+    match(this.root, labels, 0, slots);
+  }
+
+  private void match(Node node, List<String> labels, int index, Ints slots) {
+    if (node.rest >= 0) {
+      slots.add(node.rest);
+    }
+    if (index == labels.size()) {
+      if (node.exact >= 0) {
+        slots.add(node.exact);
+      }
+      return;
+    }
+    var literal = node.literals.get(labels.get(index));
+    if (literal != null) {
+      match(literal, labels, index + 1, slots);
+    }
+    if (node.one != null) {
+      match(node.one, labels, index + 1, slots);
+    }
+  }
+
+  int routes(Ints slots) {
+    var routes = 0;
+    for (var i = 0; i < slots.size; i++) {
+      routes += this.routesBySlot[slots.values[i]].length;
+    }
+    return routes;
+  }
+
+  // the routes in the slots, ascending and without duplicates
+  Ints ordinals(Ints slots) {
+    var ordinals = new Ints(routes(slots));
+    for (var i = 0; i < slots.size; i++) {
+      for (var route : this.routesBySlot[slots.values[i]]) {
+        ordinals.add(route);
+      }
+    }
+    if (slots.size > 1) {
+      ordinals.sortDistinct();
+    }
+    return ordinals;
+  }
+
+  boolean reaches(int route, Ints slots) {
+    for (var slot : this.slotsByRoute[route]) {
+      for (var i = 0; i < slots.size; i++) {
+        if (slots.values[i] == slot) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private int newSlot() {
+    this.slotRoutes.add(new Ints(1));
+    return this.slotRoutes.size() - 1;
+  }
+
+  // routes are added in ascending order, one route's patterns may lead to the same slot twice
+  private void add(int slot, int route) {
+    var routes = this.slotRoutes.get(slot);
+    if (routes.size == 0 || routes.values[routes.size - 1] != route) {
+      routes.add(route);
+      this.routeSlots[route].add(slot);
+    }
+  }
+
+  static class Node {
+
+    private final Map<String, Node> literals = new HashMap<>(2);
+    private Node one;
+    private int exact = -1;
+    private int rest = -1;
+
+    Node literal(String label) {
+      return this.literals.computeIfAbsent(label, l -> new Node());
+    }
+
+    Node one() {
+      if (this.one == null) {
+        this.one = new Node();
+      }
+      return this.one;
+    }
+  }
+
+  static class Ints {
+
+    int[] values;
+    int size;
+
+    Ints(int capacity) {
+      this.values = new int[Math.max(capacity, 1)];
+    }
+
+    void add(int value) {
+      if (this.size == this.values.length) {
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      this.values[this.size++] = value;
+    }
+
+    void sortDistinct() {
+      Arrays.sort(this.values, 0, this.size);
+      var distinct = 0;
+      for (var i = 0; i < this.size; i++) {
+        if (distinct == 0 || this.values[distinct - 1] != this.values[i]) {
+          this.values[distinct++] = this.values[i];
+        }
+      }
+      this.size = distinct;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(this.values, this.size);
+    }
+  }
+}
+
+/*
+ * The gateway's RoutePredicateHandlerMapping, evaluating only the candidates a RouteIndex gives for
+ * the request instead of every route in turn. The index is compiled from the routes on the first
+ * request and again on the first after a RefreshRoutesEvent.
+ */
+class IndexedRoutePredicateHandlerMapping extends RoutePredicateHandlerMapping
+    implements ApplicationListener<RefreshRoutesEvent> {
+
+  private final RouteLocator routeLocator;
+  private volatile Mono<RouteIndex> index;
+
+  IndexedRoutePredicateHandlerMapping(
+      FilteringWebHandler webHandler,
+      RouteLocator routeLocator,
+      GlobalCorsProperties globalCorsProperties,
+      Environment environment) {
+    super(webHandler, routeLocator, globalCorsProperties, environment);
+    this.routeLocator = routeLocator;
+    this.index = compile();
+  }
+
+  @Override
+  public void onApplicationEvent(RefreshRoutesEvent event) {
+    this.index = compile();
+  }
+
+  // as RoutePredicateHandlerMapping does it, over the candidates only
+  @Override
+  protected Mono<Route> lookupRoute(ServerWebExchange exchange) {
+    var request = exchange.getRequest();
+    return this.index
+        .flatMapMany(index -> Flux.fromIterable(index.candidates(request.getURI().getRawPath(), request.getHeaders().getFirst("Host"))))
+        .concatMap(route -> Mono
+            .just(route)
+            .filterWhen(r -> {
+              exchange.getAttributes().put(GATEWAY_PREDICATE_ROUTE_ATTR, r.getId());
+              return r.getPredicate().apply(exchange);
+            })
+            .doOnError(e -> logger.error("Error applying predicate for route: " + route.getId(), e))
+            .onErrorResume(e -> Mono.empty()))
+        .next()
+        .map(route -> {
+          validateRoute(route, exchange);
+          return route;
+        });
+  }
+
+  // subscribed to on the first lookup, after the route locator has refreshed its own cache
+  private Mono<RouteIndex> compile() {
+    return this.routeLocator.getRoutes().collectList().map(RouteIndex::new).cache();
+  }
+}
+
+/*
+ * The gateway auto-configuration's RoutePredicateHandlerMapping can't be backed off from, so it is
+ * swapped for an IndexedRoutePredicateHandlerMapping built from the same beans.
+ */
+class IndexedRouteMatchingPostProcessor implements BeanPostProcessor {
+
+  private final ObjectProvider<FilteringWebHandler> webHandler;
+  private final ObjectProvider<RouteLocator> routeLocator;
+  private final ObjectProvider<GlobalCorsProperties> globalCorsProperties;
+  private final Environment environment;
+
+  IndexedRouteMatchingPostProcessor(
+      ObjectProvider<FilteringWebHandler> webHandler,
+      ObjectProvider<RouteLocator> routeLocator,
+      ObjectProvider<GlobalCorsProperties> globalCorsProperties,
+      Environment environment) {
+    this.webHandler = webHandler;
+    this.routeLocator = routeLocator;
+    this.globalCorsProperties = globalCorsProperties;
+    this.environment = environment;
+  }
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    if (bean instanceof RoutePredicateHandlerMapping && !(bean instanceof IndexedRoutePredicateHandlerMapping)) {
+      return new IndexedRoutePredicateHandlerMapping(this.webHandler.getObject(), this.routeLocator.getObject(),
+          this.globalCorsProperties.getObject(), this.environment);
+    }
+    return bean;
+  }
+}
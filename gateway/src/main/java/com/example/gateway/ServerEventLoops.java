@@ -0,0 +1,210 @@
+package com.example.gateway;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.rsocket.netty.NettyRSocketServerFactory;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.NonBlocking;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Event loops of its own for each of the servers in this process, the HTTP server and the RSocket
+ * server, which otherwise both run on reactor-netty's global loops: a burst of SSE writes then
+ * queues ahead of RSocket requests on the same threads. ServerEventLoopsBenchmark in
+ * greeting-service shows the difference in request-response latency.
+ *
+ * Each server gets threads loops, half the cores by default, on epoll when it's available and
+ * server.event-loops.epoll is true, NIO otherwise. Listing cpus instead gives one loop per core
+ * listed, named after it. The JVM can't pin a thread to a core, so a loop logs the thread id to
+ * pin it by (taskset -p -c <cpu> <tid>) when it starts.
+ *
+ * Active when server.event-loops.dedicated is true.
+ */
+@Configuration
+@ConditionalOnProperty(name = "server.event-loops.dedicated", havingValue = "true")
+class ServerEventLoopsConfiguration {
+
+  @Bean(destroyMethod = "dispose")
+  ServerEventLoops httpServerEventLoops(ObjectProvider<EventLoopDiagnostics> diagnostics,
+                                        @Value("${server.event-loops.http.threads:0}") int threads,
+                                        @Value("${server.event-loops.http.cpus:}") int[] cpus,
+                                        @Value("${server.event-loops.epoll:true}") boolean epoll) {
+    var loops = new ServerEventLoops("reactor-http-server", threads, cpus, epoll);
+    diagnostics.ifAvailable(d -> d.watch("http-server", loops.group()));
+    return loops;
+  }
+
+  @Bean(destroyMethod = "dispose")
+  ServerEventLoops rsocketServerEventLoops(ObjectProvider<EventLoopDiagnostics> diagnostics,
+                                           @Value("${server.event-loops.rsocket.threads:0}") int threads,
+                                           @Value("${server.event-loops.rsocket.cpus:}") int[] cpus,
+                                           @Value("${server.event-loops.epoll:true}") boolean epoll) {
+    var loops = new ServerEventLoops("reactor-rsocket-server", threads, cpus, epoll);
+    diagnostics.ifAvailable(d -> d.watch("rsocket-server", loops.group()));
+    return loops;
+  }
+
+  // Spring Boot runs both servers on its one ReactorResourceFactory, so each gets one of its own
+  @Bean
+  static BeanPostProcessor serverEventLoopsPostProcessor(BeanFactory beanFactory) {
+    return new BeanPostProcessor() {
+
+      @Override
+      public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof NettyReactiveWebServerFactory) {
+          ((NettyReactiveWebServerFactory) bean).setResourceFactory(resources(beanFactory, "httpServerEventLoops"));
+        }
+        if (bean instanceof NettyRSocketServerFactory) {
+          ((NettyRSocketServerFactory) bean).setResourceFactory(resources(beanFactory, "rsocketServerEventLoops"));
+        }
+        return bean;
+      }
+    };
+  }
+
+  private static ReactorResourceFactory resources(BeanFactory beanFactory, String loops) {
+    var resources = new ReactorResourceFactory();
+    resources.setUseGlobalResources(false);
+    resources.setLoopResources(beanFactory.getBean(loops, ServerEventLoops.class));
+    // servers don't pool connections, this only keeps the factory from building a pool of its own
+    resources.setConnectionProvider(ConnectionProvider.newConnection());
+    resources.afterPropertiesSet();
+    return resources;
+  }
+}
+
+/*
+ * One group of event loops on the transport chosen here, whatever the server asks for.
+ */
+@Log4j2
+class ServerEventLoops implements LoopResources {
+
+  private final String name;
+  private final boolean epoll;
+  private final EventLoopGroup group;
+
+  ServerEventLoops(String name, int threads, int[] cpus, boolean epoll) {
+    this.name = name;
+    this.epoll = epoll && Epoll.isAvailable();
+    var size = cpus.length > 0 ? cpus.length : threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    var factory = new LoopThreadFactory(name + (this.epoll ? "-epoll-" : "-nio-"), cpus);
+    this.group = this.epoll ? new EpollEventLoopGroup(size, factory) : new NioEventLoopGroup(size, factory);
+    log.info(name + " runs on " + size + (this.epoll ? " epoll" : " NIO") + " event loops");
+  }
+
+  EventLoopGroup group() {
+    return this.group;
+  }
+
+  @Override
+  public EventLoopGroup onServer(boolean useNative) {
+    return this.group;
+  }
+
+  @Override
+  public Class<? extends ServerChannel> onServerChannel(EventLoopGroup group) {
+    return this.epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+  }
+
+  @Override
+  public Class<? extends Channel> onChannel(EventLoopGroup group) {
+    return this.epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+  }
+
+  @Override
+  public boolean preferNative() {
+    return this.epoll;
+  }
+
+  @Override
+  public boolean daemon() {
+    return true;
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return this.group.isShuttingDown();
+  }
+
+  @Override
+  public Mono<Void> disposeLater() {
+    return Mono.defer(() -> {
+      log.info("shutting down the " + this.name + " event loops");
+      return Mono.create(sink -> this.group.shutdownGracefully().addListener(future -> sink.success()));
+    });
+  }
+
+  /*
+   * Names each loop after its number, and the core it's meant for when there are cpus. Loop threads
+   * are NonBlocking, like reactor-netty's own, so Reactor refuses to block() on them.
+   */
+  private static class LoopThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final int[] cpus;
+    private final AtomicInteger loops = new AtomicInteger();
+
+    LoopThreadFactory(String prefix, int[] cpus) {
+      this.prefix = prefix;
+      this.cpus = cpus;
+    }
+
+    @Override
+    public Thread newThread(Runnable loop) {
+      var n = this.loops.getAndIncrement();
+      if (this.cpus.length == 0) {
+        return new LoopThread(loop, this.prefix + (n + 1));
+      }
+      var cpu = this.cpus[n % this.cpus.length];
+      var name = this.prefix + (n + 1) + "-cpu" + cpu;
+      return new LoopThread(() -> {
+        log.info(name + " is meant for cpu " + cpu + ", pin it with taskset -p -c " + cpu + " " + threadId());
+        loop.run();
+      }, name);
+    }
+
+    // the kernel's id of the current thread, as ps -T and taskset know it
+    private static String threadId() {
+      try {
+        return Files.readSymbolicLink(Paths.get("/proc/thread-self")).getFileName().toString();
+      }
+      catch (IOException | UnsupportedOperationException e) {
+        return "<tid>";
+      }
+    }
+  }
+
+  private static class LoopThread extends FastThreadLocalThread implements NonBlocking {
+
+    LoopThread(Runnable loop, String name) {
+      super(loop, name);
+      setDaemon(true);
+    }
+  }
+}
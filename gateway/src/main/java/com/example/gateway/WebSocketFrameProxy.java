@@ -0,0 +1,96 @@
+package com.example.gateway;
+
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.AbstractServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebHandler;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.http.websocket.WebsocketInbound;
+import reactor.netty.http.websocket.WebsocketOutbound;
+
+import java.net.URI;
+import java.util.List;
+
+/*
+ * Proxies a WebSocket to a backend WebSocket frame by frame. The Netty frames read from one side
+ * are retained and written as they are to the other, so payloads are neither decoded nor copied
+ * and fragmented messages pass through fragment by fragment. Two copies remain, both inside
+ * Netty's encoder: frames to the backend are masked, as every client frame has to be, and
+ * payloads under 1 KB are merged into the frame header buffer, which is cheaper than a gathering
+ * write.
+ *
+ * Each direction is one sendObject of the other side's receiveFrames, so backpressure is TCP's:
+ * a side whose socket isn't writable stops requesting frames, and the side that has no demand
+ * stops reading. A close, with its status, is passed on to the other side, and either side
+ * closing ends both.
+ *
+ * Spring's WebSocketSession would wrap every frame into a WebSocketMessage and back, so this
+ * is a plain WebHandler that upgrades the connection with reactor-netty itself. The backend does
+ * its own authentication, the handshake's credentials are passed on.
+ */
+class WebSocketFrameProxy implements WebHandler {
+
+  private static final List<String> FORWARDED_HEADERS = List.of(HttpHeaders.AUTHORIZATION, HttpHeaders.COOKIE);
+
+  private final HttpClient client;
+  private final URI backend;
+  private final int maxFramePayloadLength;
+
+  WebSocketFrameProxy(HttpClient client, URI backend, int maxFramePayloadLength) {
+    this.client = client;
+    this.backend = backend;
+    this.maxFramePayloadLength = maxFramePayloadLength;
+  }
+
+  @Override
+  public Mono<Void> handle(ServerWebExchange exchange) {
+    var request = exchange.getRequest();
+    if (!"websocket".equalsIgnoreCase(request.getHeaders().getUpgrade())) {
+      exchange.getResponse().setStatusCode(HttpStatus.BAD_REQUEST);
+      return exchange.getResponse().setComplete();
+    }
+    var headers = request.getHeaders();
+    return nativeResponse(exchange.getResponse())
+        .sendWebsocket(null, this.maxFramePayloadLength, (in, out) -> proxy(in, out, headers));
+  }
+
+  Mono<Void> proxy(WebsocketInbound in, WebsocketOutbound out, HttpHeaders headers) {
+    return this.client
+        .headers(backendHeaders -> FORWARDED_HEADERS
+            .stream()
+            .filter(headers::containsKey)
+            .forEach(name -> backendHeaders.set(name, headers.get(name))))
+        .websocket(this.maxFramePayloadLength)
+        .uri(this.backend.toString())
+        .handle((backendIn, backendOut) -> Mono.first(forward(in, backendOut), forward(backendIn, out)))
+        .then();
+  }
+
+  // under Spring Security the response is decorated
+  private static HttpServerResponse nativeResponse(ServerHttpResponse response) {
+    if (response instanceof AbstractServerHttpResponse) {
+      return ((AbstractServerHttpResponse) response).getNativeResponse();
+    }
+    if (response instanceof ServerHttpResponseDecorator) {
+      return nativeResponse(((ServerHttpResponseDecorator) response).getDelegate());
+    }
+    throw new IllegalStateException("not a reactor-netty response: " + response.getClass().getName());
+  }
+
+  // the inbound releases each frame once it has been passed on, the write to the other side releases it
+  // again. A close frame without a status reads as -1
+  private static Mono<Void> forward(WebsocketInbound from, WebsocketOutbound to) {
+    return to
+        .sendObject(from.receiveFrames().map(WebSocketFrame::retain))
+        .then()
+        .then(from.receiveCloseStatus().flatMap(status -> status.code() == -1
+            ? to.sendClose()
+            : to.sendClose(status.code(), status.reasonText())));
+  }
+}
@@ -0,0 +1,228 @@
+package com.example.gateway;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.RSocketProxy;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.rsocket.common.metadata.TagsMetadata;
+import org.springframework.cloud.gateway.rsocket.routing.LoadBalancerFactory;
+import org.springframework.cloud.gateway.rsocket.routing.RoutingTable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Makes the RSocket broker pick, among the connections registered for the requested tags, the
+ * one with the lowest (in-flight streams + 1) x observed latency, instead of going round-robin.
+ * It only overrides LoadBalancerFactory.choose and calls RoutingTable.findRSockets, nothing else of
+ * the broker's. Off unless gateway.rsocket.load-balancer.mode=weighted.
+ */
+class WeightedLoadBalancerFactory extends LoadBalancerFactory {
+
+  private final RoutingTable routingTable;
+  private final WeightedLeastLoadedBalancer balancer;
+
+  WeightedLoadBalancerFactory(RoutingTable routingTable, WeightedLeastLoadedBalancer balancer) {
+    super(routingTable);
+    this.routingTable = routingTable;
+    this.balancer = balancer;
+  }
+
+  @Override
+  public Mono<Tuple2<String, RSocket>> choose(TagsMetadata tagsMetadata) {
+    return Mono.fromSupplier(() -> this.routingTable.findRSockets(tagsMetadata))
+        .flatMap(candidates -> Mono.justOrEmpty(this.balancer.choose(candidates)));
+  }
+}
+
+/*
+ * Tracks, per route id (one per connected service instance), the streams in flight and an
+ * exponentially weighted moving average of the latency to the first response. An error counts as
+ * a response that took error-penalty (or longer, if it did), so that an instance failing fast
+ * doesn't look like the fastest one and draw all the traffic; streams that end without a response
+ * leave the average as it is. A new instance starts with no latency sample, so it is tried right
+ * away. Per-instance numbers are
+ * published as gateway.rsocket.instance.in-flight, .latency and .routed, tagged with route-id.
+ * An instance and its meters are forgotten once its connection closes, or when its route id shows
+ * up again on another connection.
+ */
+class WeightedLeastLoadedBalancer {
+
+  private final MeterRegistry meterRegistry;
+  private final double smoothing;
+  private final long errorPenaltyNanos;
+  private final Map<String, InstanceLoad> instances = new ConcurrentHashMap<>();
+
+  WeightedLeastLoadedBalancer(MeterRegistry meterRegistry, double smoothing, Duration errorPenalty) {
+    this.meterRegistry = meterRegistry;
+    this.smoothing = smoothing;
+    this.errorPenaltyNanos = errorPenalty.toNanos();
+  }
+
+  Optional<Tuple2<String, RSocket>> choose(List<Tuple2<String, RSocket>> candidates) {
+    if (candidates.isEmpty()) {
+      return Optional.empty();
+    }
+    // starts at a random candidate so that ties don't all land on the first one
+    var start = ThreadLocalRandom.current().nextInt(candidates.size());
+    Tuple2<String, RSocket> best = null;
+    InstanceLoad bestLoad = null;
+    var bestScore = Double.MAX_VALUE;
+    for (var i = 0; i < candidates.size(); i++) {
+      var candidate = candidates.get((start + i) % candidates.size());
+      var load = load(candidate.getT1(), candidate.getT2());
+      var score = load.score();
+      if (score < bestScore) {
+        best = candidate;
+        bestLoad = load;
+        bestScore = score;
+      }
+    }
+    bestLoad.routed.increment();
+    return Optional.of(Tuples.of(best.getT1(), new LoadTrackingRSocket(best.getT2(), bestLoad)));
+  }
+
+  private InstanceLoad load(String routeId, RSocket rsocket) {
+    var created = new AtomicReference<InstanceLoad>();
+    var load = this.instances.compute(routeId, (id, existing) -> {
+      if (existing != null && existing.rsocket == rsocket) {
+        return existing;
+      }
+      if (existing != null) {
+        existing.removeMeters();
+      }
+      created.set(new InstanceLoad(id, rsocket, this.meterRegistry, this.smoothing, this.errorPenaltyNanos));
+      return created.get();
+    });
+    // outside of compute, a connection that is already closed forgets its load right away
+    if (load == created.get()) {
+      rsocket
+          .onClose()
+          .doFinally(signal -> forget(routeId, load))
+          .subscribe(null, error -> {
+          });
+    }
+    return load;
+  }
+
+  private void forget(String routeId, InstanceLoad load) {
+    this.instances.computeIfPresent(routeId, (id, existing) -> {
+      if (existing != load) {
+        return existing;
+      }
+      existing.removeMeters();
+      return null;
+    });
+  }
+
+  static class InstanceLoad {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final RSocket rsocket;
+    private final MeterRegistry meterRegistry;
+    private final double smoothing;
+    private final long errorPenaltyNanos;
+    private final Counter routed;
+    private final List<Meter> meters;
+    private volatile double latencyNanos;
+
+    private InstanceLoad(String routeId, RSocket rsocket, MeterRegistry meterRegistry, double smoothing,
+                         long errorPenaltyNanos) {
+      this.rsocket = rsocket;
+      this.meterRegistry = meterRegistry;
+      this.smoothing = smoothing;
+      this.errorPenaltyNanos = errorPenaltyNanos;
+      this.routed = Counter
+          .builder("gateway.rsocket.instance.routed")
+          .tag("route-id", routeId)
+          .register(meterRegistry);
+      var inFlight = Gauge
+          .builder("gateway.rsocket.instance.in-flight", this.inFlight, AtomicInteger::get)
+          .tag("route-id", routeId)
+          .register(meterRegistry);
+      var latency = Gauge
+          .builder("gateway.rsocket.instance.latency", this, load -> load.latencyNanos / 1_000_000)
+          .tag("route-id", routeId)
+          .baseUnit("milliseconds")
+          .register(meterRegistry);
+      this.meters = List.of(this.routed, inFlight, latency);
+    }
+
+    void removeMeters() {
+      this.meters.forEach(this.meterRegistry::remove);
+    }
+
+    double score() {
+      return (this.inFlight.get() + 1) * Math.max(this.latencyNanos, 1);
+    }
+
+    synchronized void record(long nanos) {
+      this.latencyNanos = this.latencyNanos == 0 ? nanos : this.latencyNanos + this.smoothing * (nanos - this.latencyNanos);
+    }
+
+    void failed(long nanos) {
+      record(Math.max(nanos, this.errorPenaltyNanos));
+    }
+  }
+
+  private static class LoadTrackingRSocket extends RSocketProxy {
+
+    private final InstanceLoad load;
+
+    private LoadTrackingRSocket(RSocket source, InstanceLoad load) {
+      super(source);
+      this.load = load;
+    }
+
+    @Override
+    public Mono<Payload> requestResponse(Payload payload) {
+      return Mono.from(track(super.requestResponse(payload)));
+    }
+
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+      return track(super.requestStream(payload));
+    }
+
+    @Override
+    public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+      return track(super.requestChannel(payloads));
+    }
+
+    private Flux<Payload> track(Publisher<Payload> exchange) {
+      return Flux.defer(() -> {
+        this.load.inFlight.incrementAndGet();
+        var start = System.nanoTime();
+        var answered = new AtomicBoolean();
+        return Flux
+            .from(exchange)
+            .doOnNext(payload -> {
+              if (answered.compareAndSet(false, true)) {
+                this.load.record(System.nanoTime() - start);
+              }
+            })
+            .doOnError(error -> {
+              if (answered.compareAndSet(false, true)) {
+                this.load.failed(System.nanoTime() - start);
+              }
+            })
+            .doFinally(signal -> this.load.inFlight.decrementAndGet());
+      });
+    }
+  }
+}
@@ -0,0 +1,45 @@
+-- Evaluates several token buckets in one call. Every decision contributes two
+-- KEYS (tokens, timestamp) and four ARGV (rate, capacity, now, requested); the
+-- result holds one (allowed, tokens_left) pair per decision, in order.
+
+local results = {}
+
+for i = 1, #KEYS / 2 do
+  local tokens_key = KEYS[i * 2 - 1]
+  local timestamp_key = KEYS[i * 2]
+
+  local rate = tonumber(ARGV[i * 4 - 3])
+  local capacity = tonumber(ARGV[i * 4 - 2])
+  local now = tonumber(ARGV[i * 4 - 1])
+  local requested = tonumber(ARGV[i * 4])
+
+  local fill_time = capacity / rate
+  local ttl = math.max(1, math.floor(fill_time * 2))
+
+  local last_tokens = tonumber(redis.call("get", tokens_key))
+  if last_tokens == nil then
+    last_tokens = capacity
+  end
+
+  local last_refreshed = tonumber(redis.call("get", timestamp_key))
+  if last_refreshed == nil then
+    last_refreshed = 0
+  end
+
+  local delta = math.max(0, now - last_refreshed)
+  local filled_tokens = math.min(capacity, last_tokens + (delta * rate))
+  local new_tokens = filled_tokens
+  local allowed_num = 0
+  if filled_tokens >= requested then
+    new_tokens = filled_tokens - requested
+    allowed_num = 1
+  end
+
+  redis.call("setex", tokens_key, ttl, new_tokens)
+  redis.call("setex", timestamp_key, ttl, now)
+
+  results[i * 2 - 1] = allowed_num
+  results[i * 2] = math.floor(new_tokens)
+end
+
+return results
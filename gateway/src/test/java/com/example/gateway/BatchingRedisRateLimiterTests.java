@@ -0,0 +1,154 @@
+package com.example.gateway;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.ratelimit.RateLimiter;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/*
+ * Most of these run against a local (or embedded) Redis on localhost:6379 and are skipped when none
+ * is available; those of a stalled Redis use a mocked template.
+ */
+class BatchingRedisRateLimiterTests {
+
+  private LettuceConnectionFactory connectionFactory;
+  private ReactiveStringRedisTemplate redisTemplate;
+  private SimpleMeterRegistry meterRegistry;
+
+  @BeforeEach
+  void setUp() {
+    this.connectionFactory = new LettuceConnectionFactory("localhost", 6379);
+    this.connectionFactory.afterPropertiesSet();
+    this.redisTemplate = new ReactiveStringRedisTemplate(this.connectionFactory);
+    this.meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.connectionFactory.destroy();
+  }
+
+  @Test
+  void burstIsLimitedAndCheckedInOneRoundTrip() {
+    assumeTrue(redisAvailable(), "no Redis on localhost:6379");
+    var limiter = new BatchingRedisRateLimiter(this.redisTemplate, this.meterRegistry, 5, 7, 1, 256, Duration.ofMillis(50),
+        10_000, Duration.ofSeconds(1));
+    var principal = UUID.randomUUID().toString();
+
+    var responses = Flux
+        .range(0, 20)
+        .flatMap(i -> limiter.isAllowed("route", principal))
+        .collectList()
+        .block(Duration.ofSeconds(10));
+
+    assertThat(responses).hasSize(20);
+    assertThat(responses.stream().filter(RateLimiter.Response::isAllowed)).hasSize(7);
+    assertThat(responses).allSatisfy(r -> assertThat(r.getHeaders()).containsKey(BatchingRedisRateLimiter.REDIS_RTT_HEADER));
+    assertThat(this.meterRegistry.get("gateway.ratelimiter.redis").timer().count()).isEqualTo(1);
+    limiter.destroy();
+  }
+
+  @Test
+  void shardedKeyAdmitsExactlyItsBurstCapacity() {
+    assumeTrue(redisAvailable(), "no Redis on localhost:6379");
+    var limiter = new BatchingRedisRateLimiter(this.redisTemplate, this.meterRegistry, 5, 7, 4, 256, Duration.ofMillis(50),
+        10_000, Duration.ofSeconds(1));
+    var principal = UUID.randomUUID().toString();
+
+    var allowed = Flux
+        .range(0, 40)
+        .flatMap(i -> limiter.isAllowed("route", principal))
+        .filter(RateLimiter.Response::isAllowed)
+        .count()
+        .block(Duration.ofSeconds(10));
+
+    assertThat(allowed).isEqualTo(7L);
+    limiter.destroy();
+  }
+
+  @Test
+  void deniedRequestTakesAtMostTwoRoundTrips() {
+    assumeTrue(redisAvailable(), "no Redis on localhost:6379");
+    var limiter = new BatchingRedisRateLimiter(this.redisTemplate, this.meterRegistry, 1, 4, 4, 256, Duration.ofMillis(10),
+        10_000, Duration.ofSeconds(1));
+    var principal = UUID.randomUUID().toString();
+
+    var allowed = Flux
+        .range(0, 8)
+        .concatMap(i -> limiter.isAllowed("route", principal))
+        .filter(RateLimiter.Response::isAllowed)
+        .count()
+        .block(Duration.ofSeconds(10));
+
+    assertThat(allowed).isBetween(2L, 4L);
+    assertThat(this.meterRegistry.get("gateway.ratelimiter.redis").timer().count()).isLessThanOrEqualTo(16);
+    limiter.destroy();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void stalledRedisAllowsWhatItDoesNotAnswerAndTheLimiterRecovers() {
+    var template = mock(ReactiveStringRedisTemplate.class);
+    given(template.execute(any(RedisScript.class), anyList(), anyList())).willReturn(Flux.never());
+    var limiter = new BatchingRedisRateLimiter(template, this.meterRegistry, 5, 7, 1, 16, Duration.ofMillis(1),
+        10_000, Duration.ofMillis(100));
+
+    var responses = Flux
+        .range(0, 1000)
+        .flatMap(i -> limiter.isAllowed("route", "principal"))
+        .collectList()
+        .block(Duration.ofSeconds(10));
+
+    assertThat(responses).hasSize(1000).allMatch(RateLimiter.Response::isAllowed);
+
+    given(template.execute(any(RedisScript.class), anyList(), anyList())).willReturn(Flux.just(List.of(0L, 0L)));
+    var response = limiter.isAllowed("route", "principal").block(Duration.ofSeconds(10));
+
+    assertThat(response.isAllowed()).isFalse();
+    limiter.destroy();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void decisionsBeyondThePendingLimitAreAllowedRightAway() {
+    var template = mock(ReactiveStringRedisTemplate.class);
+    given(template.execute(any(RedisScript.class), anyList(), anyList())).willReturn(Flux.never());
+    var limiter = new BatchingRedisRateLimiter(template, this.meterRegistry, 5, 7, 1, 1, Duration.ofMillis(1),
+        10, Duration.ofMinutes(1));
+
+    var responses = Flux
+        .range(0, 1000)
+        .flatMap(i -> limiter.isAllowed("route", "principal"), 1000)
+        .take(500)
+        .collectList()
+        .block(Duration.ofSeconds(10));
+
+    assertThat(responses).hasSize(500).allMatch(RateLimiter.Response::isAllowed);
+    limiter.destroy();
+  }
+
+  private boolean redisAvailable() {
+    try {
+      return "PONG".equals(this.redisTemplate.execute(c -> c.ping()).blockFirst(Duration.ofSeconds(2)));
+    }
+    catch (Exception e) {
+      return false;
+    }
+  }
+}
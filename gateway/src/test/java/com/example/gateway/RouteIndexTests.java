@@ -0,0 +1,100 @@
+package com.example.gateway;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.predicate.HostRoutePredicateFactory;
+import org.springframework.cloud.gateway.handler.predicate.PathRoutePredicateFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Routes with the gateway's own Path and Host predicates, indexed by the same patterns.
+ */
+class RouteIndexTests {
+
+  private final List<Route> routes = new ArrayList<>(List.of(
+      route("proxy", "/proxy", "*.spring.io"),
+      route("api", "/api/**", "api.example.com"),
+      route("user", "/users/{id}", "**.example.com"),
+      route("docs", "/docs/*", "*.spring.io"),
+      Route.async().id("unindexed").uri("http://localhost").predicate(exchange -> true).build()));
+
+  @Test
+  void candidatesAreThoseWhosePathAndHostPatternsMayMatch() {
+    var index = new RouteIndex(this.routes);
+
+    assertThat(ids(index.candidates("/proxy", "start.spring.io"))).containsExactly("proxy", "unindexed");
+    assertThat(ids(index.candidates("/proxy/", "start.spring.io"))).containsExactly("proxy", "unindexed");
+    assertThat(ids(index.candidates("/proxy", "start.spring.io:9191"))).containsExactly("unindexed");
+    assertThat(ids(index.candidates("/proxy", "spring.io"))).containsExactly("unindexed");
+    assertThat(ids(index.candidates("/api", "api.example.com"))).containsExactly("api", "unindexed");
+    assertThat(ids(index.candidates("/api/v1/reservations", "api.example.com"))).containsExactly("api", "unindexed");
+    assertThat(ids(index.candidates("/users/42", "a.b.example.com"))).containsExactly("user", "unindexed");
+    assertThat(ids(index.candidates("/users/42", "example.com"))).containsExactly("user", "unindexed");
+    assertThat(ids(index.candidates("/users/42/orders", "example.com"))).containsExactly("unindexed");
+    assertThat(ids(index.candidates("/docs/", "docs.spring.io"))).containsExactly("docs", "unindexed");
+    assertThat(ids(index.candidates("/docs/guide", null))).containsExactly("unindexed");
+  }
+
+  @Test
+  void candidatesKeepRouteOrder() {
+    var index = new RouteIndex(List.of(
+        route("first", "/**", "**.example.com"),
+        route("second", "/users/{id}", "**"),
+        route("third", "/users/42", "www.example.com")));
+
+    assertThat(ids(index.candidates("/users/42", "www.example.com"))).containsExactly("first", "second", "third");
+    assertThat(ids(index.candidates("/users/7", "www.example.com"))).containsExactly("first", "second");
+  }
+
+  @Test
+  void mappingEvaluatesTheCandidatesPredicatesAndRecompilesOnRefresh() {
+    var mapping = new IndexedRoutePredicateHandlerMapping(
+        new FilteringWebHandler(List.of()),
+        () -> Flux.fromIterable(List.copyOf(this.routes)),
+        new GlobalCorsProperties(),
+        new MockEnvironment());
+
+    assertThat(lookup(mapping, "/users/42", "www.example.com")).isEqualTo("user");
+    assertThat(lookup(mapping, "/proxy", "start.spring.io")).isEqualTo("proxy");
+    assertThat(lookup(mapping, "/proxy", "start.spring.io:9191")).isEqualTo("unindexed");
+
+    this.routes.add(0, route("admin", "/proxy", "start.spring.io"));
+    assertThat(lookup(mapping, "/proxy", "start.spring.io")).isEqualTo("proxy");
+    mapping.onApplicationEvent(new RefreshRoutesEvent(this));
+    assertThat(lookup(mapping, "/proxy", "start.spring.io")).isEqualTo("admin");
+  }
+
+  private static String lookup(IndexedRoutePredicateHandlerMapping mapping, String path, String host) {
+    var exchange = MockServerWebExchange.from(MockServerHttpRequest.get(path).header("Host", host));
+    return mapping.lookupRoute(exchange).map(Route::getId).block(Duration.ofSeconds(5));
+  }
+
+  static Route route(String id, String path, String host) {
+    return Route
+        .async()
+        .id(id)
+        .uri("http://localhost")
+        .predicate(new PathRoutePredicateFactory().apply(config -> config.setPatterns(List.of(path)))
+            .and(new HostRoutePredicateFactory().apply(config -> config.setPatterns(List.of(host)))))
+        .metadata(RouteIndex.PATHS, List.of(path))
+        .metadata(RouteIndex.HOSTS, host)
+        .build();
+  }
+
+  private static List<String> ids(List<Route> routes) {
+    return routes.stream().map(Route::getId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,151 @@
+package com.example.gateway;
+
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.handler.predicate.HostRoutePredicateFactory;
+import org.springframework.cloud.gateway.handler.predicate.PathRoutePredicateFactory;
+import org.springframework.cloud.gateway.route.CachingRouteLocator;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.core.env.Environment;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/*
+ * Cost of finding the route for a request among 10, 1,000 and 10,000 routes, with the gateway's
+ * own RoutePredicateHandlerMapping and with IndexedRoutePredicateHandlerMapping, measured the way
+ * JMH's average time mode would: warm-up iterations first, then the mean time per lookup and its
+ * spread over the measured iterations. Route i is /svc<i>/** or /svc<i>/items/{id} on
+ * *.tenant<i % 100>.example.com; one request in ten matches no route.
+ * Arguments: [iteration seconds] [route counts...].
+ */
+class RouteMatchingBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int ITERATIONS = 5;
+
+  public static void main(String[] args) {
+    LoggingSystem
+        .get(RouteMatchingBenchmark.class.getClassLoader())
+        .setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+    var seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+    var counts = args.length > 1 ? new int[args.length - 1] : new int[]{10, 1_000, 10_000};
+    for (var i = 1; i < args.length; i++) {
+      counts[i - 1] = Integer.parseInt(args[i]);
+    }
+
+    System.out.printf("%-8s %-12s %14s %12s %12s%n", "routes", "mapping", "ns/op", "stddev", "compile ms");
+    for (var count : counts) {
+      var routes = routes(count);
+      var locator = new CachingRouteLocator(() -> Flux.fromIterable(routes));
+      var exchanges = exchanges(count, 1024);
+      var webHandler = new FilteringWebHandler(List.of());
+      var cors = new GlobalCorsProperties();
+      var environment = new MockEnvironment();
+
+      var sequential = new SequentialMapping(webHandler, locator, cors, environment);
+      run(count, "sequential", sequential::lookupRoute, exchanges, seconds, 0);
+
+      var start = System.nanoTime();
+      new RouteIndex(routes);
+      var compileMillis = (System.nanoTime() - start) / 1e6;
+      var indexed = new IndexedRoutePredicateHandlerMapping(webHandler, locator, cors, environment);
+      run(count, "indexed", indexed::lookupRoute, exchanges, seconds, compileMillis);
+    }
+  }
+
+  private static void run(int count, String mapping, Function<ServerWebExchange, Mono<Route>> lookup,
+      ServerWebExchange[] exchanges, double seconds, double compileMillis) {
+    var results = new double[ITERATIONS];
+    for (var iteration = -WARMUP_ITERATIONS; iteration < ITERATIONS; iteration++) {
+      var deadline = System.nanoTime() + (long) (seconds * 1e9);
+      var start = System.nanoTime();
+      var operations = 0L;
+      var matched = 0L;
+      while (System.nanoTime() < deadline) {
+        for (var i = 0; i < 64; i++) {
+          if (lookup.apply(exchanges[(int) (operations++ & (exchanges.length - 1))]).block() != null) {
+            matched++;
+          }
+        }
+      }
+      if (iteration >= 0) {
+        results[iteration] = (System.nanoTime() - start) / (double) operations;
+      }
+      if (matched == operations) {
+        throw new IllegalStateException("misses should not match");
+      }
+    }
+    var mean = 0.0;
+    for (var result : results) {
+      mean += result / ITERATIONS;
+    }
+    var variance = 0.0;
+    for (var result : results) {
+      variance += (result - mean) * (result - mean) / (ITERATIONS - 1);
+    }
+    System.out.printf("%-8d %-12s %14.0f %12.0f %12s%n", count, mapping, mean, Math.sqrt(variance),
+        compileMillis > 0 ? String.format("%.1f", compileMillis) : "");
+  }
+
+  private static List<Route> routes(int count) {
+    var paths = new PathRoutePredicateFactory();
+    var hosts = new HostRoutePredicateFactory();
+    var routes = new ArrayList<Route>(count);
+    for (var i = 0; i < count; i++) {
+      var path = i % 2 == 0 ? "/svc" + i + "/**" : "/svc" + i + "/items/{id}";
+      var host = "*.tenant" + (i % 100) + ".example.com";
+      routes.add(Route
+          .async()
+          .id("route-" + i)
+          .uri("http://localhost:" + (8000 + i % 1000))
+          .order(0)
+          .predicate(paths.apply(config -> config.setPatterns(List.of(path)))
+              .and(hosts.apply(config -> config.setPatterns(List.of(host)))))
+          .metadata(RouteIndex.PATHS, List.of(path))
+          .metadata(RouteIndex.HOSTS, List.of(host))
+          .build());
+    }
+    return routes;
+  }
+
+  private static ServerWebExchange[] exchanges(int count, int size) {
+    var random = new Random(42);
+    var exchanges = new ServerWebExchange[size];
+    for (var i = 0; i < size; i++) {
+      var route = random.nextInt(count);
+      var miss = i % 10 == 9;
+      var path = "/svc" + route + (route % 2 == 0 ? "/reservations" : "/items/" + i);
+      var host = "www.tenant" + (miss ? (route + 1) % 100 : route % 100) + ".example.com";
+      exchanges[i] = MockServerWebExchange.from(MockServerHttpRequest.get(path).header("Host", host));
+    }
+    return exchanges;
+  }
+
+  // the gateway's own lookup, reachable from this package
+  private static class SequentialMapping extends RoutePredicateHandlerMapping {
+
+    SequentialMapping(FilteringWebHandler webHandler, RouteLocator routeLocator,
+        GlobalCorsProperties globalCorsProperties, Environment environment) {
+      super(webHandler, routeLocator, globalCorsProperties, environment);
+    }
+
+    @Override
+    protected Mono<Route> lookupRoute(ServerWebExchange exchange) {
+      return super.lookupRoute(exchange);
+    }
+  }
+}
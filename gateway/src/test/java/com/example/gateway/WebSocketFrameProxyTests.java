@@ -0,0 +1,106 @@
+package com.example.gateway;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * A stand-in backend that echoes every frame, prefixed with a frame saying which Authorization
+ * header the handshake carried, behind a WebSocketFrameProxy.
+ */
+class WebSocketFrameProxyTests {
+
+  private final MonoProcessor<WebSocketCloseStatus> backendCloseStatus = MonoProcessor.create();
+  private DisposableServer backend;
+  private DisposableServer gateway;
+
+  @BeforeEach
+  void setUp() {
+    this.backend = HttpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .route(routes -> routes.ws("/ws/greetings", (in, out) -> {
+          in.receiveCloseStatus().subscribe(this.backendCloseStatus);
+          var authorization = new TextWebSocketFrame("authorization: " + in.headers().get("Authorization"));
+          return out.sendObject(Flux.concat(
+              Mono.just(authorization),
+              in.receiveFrames().map(WebSocketFrame::retain)));
+        }))
+        .bindNow();
+    var proxy = new WebSocketFrameProxy(HttpClient.create(),
+        URI.create("ws://localhost:" + this.backend.port() + "/ws/greetings"), 65536);
+    this.gateway = HttpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .handle(new ReactorHttpHandlerAdapter(WebHttpHandlerBuilder.webHandler(proxy).build()))
+        .bindNow();
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.gateway.disposeNow();
+    this.backend.disposeNow();
+  }
+
+  @Test
+  void passesFramesThroughInBothDirections() {
+    var received = client()
+        .headers(headers -> headers.set("Authorization", "Basic dXNlcjpwdw=="))
+        .websocket()
+        .uri("/ws/greetings")
+        .handle((in, out) -> out
+            .sendObject(Flux.just(
+                new TextWebSocketFrame("Josh"),
+                new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{1, 2, 3}))))
+            .then()
+            .thenMany(in
+                .receiveFrames()
+                .take(3)
+                .map(frame -> frame.getClass().getSimpleName() + " " + frame.content().toString(StandardCharsets.ISO_8859_1))))
+        .collectList()
+        .block(Duration.ofSeconds(10));
+
+    assertThat(received).containsExactly(
+        "TextWebSocketFrame authorization: Basic dXNlcjpwdw==",
+        "TextWebSocketFrame Josh",
+        "BinaryWebSocketFrame \u0001\u0002\u0003");
+  }
+
+  @Test
+  void passesTheCloseStatusOnToTheBackend() {
+    client()
+        .websocket()
+        .uri("/ws/greetings")
+        .handle((in, out) -> out.sendClose(4000, "done"))
+        .blockLast(Duration.ofSeconds(10));
+
+    var status = this.backendCloseStatus.block(Duration.ofSeconds(10));
+    assertThat(status.code()).isEqualTo(4000);
+    assertThat(status.reasonText()).isEqualTo("done");
+  }
+
+  private HttpClient client() {
+    return HttpClient.create().baseUrl("http://localhost:" + this.gateway.port());
+  }
+}
@@ -0,0 +1,207 @@
+package com.example.gateway;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A stand-in backend WebSocket, reached directly and through a WebSocketFrameProxy, all in this
+ * JVM over loopback:
+ *
+ *   throughput  the backend sends frames as fast as the client takes them
+ *   latency     one frame at a time is echoed back, round trip times in µs
+ *   slow        the client takes one frame per millisecond; what the backend has sent but the
+ *               client hasn't taken yet is what the proxy and the sockets hold, and should stay flat
+ *
+ * CPU is that of the whole process, client and backend included. Arguments: [seconds] [payload sizes...].
+ */
+class WebSocketProxyBenchmark {
+
+  private static final AtomicLong sent = new AtomicLong();
+
+  public static void main(String[] args) throws Exception {
+    LoggingSystem
+        .get(WebSocketProxyBenchmark.class.getClassLoader())
+        .setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+    var seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    var sizes = new int[args.length > 1 ? args.length - 1 : 2];
+    for (var i = 0; i < sizes.length; i++) {
+      sizes[i] = args.length > 1 ? Integer.parseInt(args[i + 1]) : (i == 0 ? 64 : 4096);
+    }
+
+    for (var size : sizes) {
+      var payload = Unpooled.unreleasableBuffer(Unpooled.directBuffer(size).writeZero(size));
+      var backend = backend(payload);
+      var gateway = gateway(backend);
+      var direct = "http://localhost:" + backend.port();
+      var proxied = "http://localhost:" + gateway.port();
+
+      System.out.printf("%n%d byte frames%n%-10s %-8s %14s %10s %8s %10s %10s %10s %14s%n", size, "test", "path",
+          "frames/s", "MB/s", "cpu %", "p50 us", "p99 us", "max us", "held KB");
+      throughput("direct", direct, seconds, size);
+      throughput("proxied", proxied, seconds, size);
+      latency("direct", direct, seconds, size);
+      latency("proxied", proxied, seconds, size);
+      slow("direct", direct, seconds, size);
+      slow("proxied", proxied, seconds, size);
+
+      gateway.disposeNow();
+      backend.disposeNow();
+    }
+  }
+
+  private static DisposableServer backend(ByteBuf payload) {
+    return HttpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .route(routes -> routes
+            .ws("/flood", (in, out) -> out.sendObject(Flux
+                .<WebSocketFrame>generate(sink -> sink.next(new BinaryWebSocketFrame(payload.duplicate())))
+                .doOnNext(frame -> sent.incrementAndGet())
+                .takeUntilOther(in.receiveCloseStatus())))
+            .ws("/echo", (in, out) -> out.sendObject(in.receiveFrames().map(WebSocketFrame::retain))))
+        .bindNow();
+  }
+
+  // one proxy per backend path, as the gateway has one per route
+  private static DisposableServer gateway(DisposableServer backend) {
+    var flood = new WebSocketFrameProxy(HttpClient.create(), URI.create("ws://localhost:" + backend.port() + "/flood"), 65536);
+    var echo = new WebSocketFrameProxy(HttpClient.create(), URI.create("ws://localhost:" + backend.port() + "/echo"), 65536);
+    var handler = WebHttpHandlerBuilder
+        .webHandler(exchange -> exchange.getRequest().getPath().value().equals("/echo") ? echo.handle(exchange) : flood.handle(exchange))
+        .build();
+    return HttpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .handle(new ReactorHttpHandlerAdapter(handler))
+        .bindNow();
+  }
+
+  private static void throughput(String path, String uri, int seconds, int size) {
+    var frames = new AtomicLong();
+    var measure = new Measure();
+    HttpClient
+        .create()
+        .baseUrl(uri)
+        .websocket(65536)
+        .uri("/flood")
+        .handle((in, out) -> in
+            .receiveFrames()
+            .doOnNext(frame -> frames.incrementAndGet())
+            .take(Duration.ofSeconds(seconds + 1)))
+        .doOnSubscribe(s -> Mono.delay(Duration.ofSeconds(1)).subscribe(d -> measure.start(frames.get())))
+        .blockLast();
+    var count = frames.get() - measure.startCount;
+    var elapsed = measure.elapsedSeconds();
+    System.out.printf("%-10s %-8s %14.0f %10.1f %8.1f%n", "throughput", path, count / elapsed,
+        count * size / elapsed / (1 << 20), measure.cpuPercent());
+  }
+
+  private static void latency(String path, String uri, int seconds, int size) {
+    var histogram = new Histogram(3);
+    var measure = new Measure();
+    var requests = UnicastProcessor.<WebSocketFrame>create();
+    var deadline = System.nanoTime() + Duration.ofSeconds(seconds + 1).toNanos();
+    var warmUntil = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+    var sentAt = new long[1];
+    HttpClient
+        .create()
+        .baseUrl(uri)
+        .websocket(65536)
+        .uri("/echo")
+        .handle((in, out) -> {
+          sentAt[0] = System.nanoTime();
+          requests.onNext(new BinaryWebSocketFrame(Unpooled.buffer(size).writeZero(size)));
+          return Mono.first(
+              out.sendObject(requests).then(),
+              in
+                  .receiveFrames()
+                  .doOnNext(frame -> {
+                    var now = System.nanoTime();
+                    if (now > warmUntil) {
+                      if (histogram.getTotalCount() == 0) {
+                        measure.start(0);
+                      }
+                      histogram.recordValue((now - sentAt[0]) / 1000);
+                    }
+                    if (now > deadline) {
+                      requests.onComplete();
+                      return;
+                    }
+                    sentAt[0] = System.nanoTime();
+                    requests.onNext(new BinaryWebSocketFrame(frame.content().retainedDuplicate()));
+                  })
+                  .then());
+        })
+        .blockLast();
+    System.out.printf("%-10s %-8s %14.0f %10s %8.1f %10d %10d %10d%n", "latency", path,
+        histogram.getTotalCount() / measure.elapsedSeconds(), "", measure.cpuPercent(),
+        histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99), histogram.getMaxValue());
+  }
+
+  private static void slow(String path, String uri, int seconds, int size) {
+    var taken = new AtomicLong();
+    var sentBefore = sent.get();
+    var held = new AtomicLong();
+    var measure = new Measure();
+    measure.start(0);
+    HttpClient
+        .create()
+        .baseUrl(uri)
+        .websocket(65536)
+        .uri("/flood")
+        .handle((in, out) -> in
+            .receiveFrames()
+            .map(frame -> 1)
+            .delayElements(Duration.ofMillis(1))
+            .doOnNext(frame -> taken.incrementAndGet())
+            .take(Duration.ofSeconds(seconds))
+            .doOnComplete(() -> held.set(sent.get() - sentBefore - taken.get())))
+        .blockLast();
+    System.out.printf("%-10s %-8s %14.0f %10s %8.1f %10s %10s %10s %14d%n", "slow", path, taken.get() / measure.elapsedSeconds(),
+        "", measure.cpuPercent(), "", "", "", held.get() * size / 1024);
+  }
+
+  private static class Measure {
+
+    private final com.sun.management.OperatingSystemMXBean os =
+        (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private long startNanos;
+    private long startCpu;
+    private long startCount;
+
+    void start(long count) {
+      this.startCount = count;
+      this.startCpu = this.os.getProcessCpuTime();
+      this.startNanos = System.nanoTime();
+    }
+
+    double elapsedSeconds() {
+      return (System.nanoTime() - this.startNanos) / 1e9;
+    }
+
+    double cpuPercent() {
+      return 100.0 * (this.os.getProcessCpuTime() - this.startCpu) / (System.nanoTime() - this.startNanos);
+    }
+  }
+}
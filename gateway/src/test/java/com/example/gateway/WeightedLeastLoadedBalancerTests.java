@@ -0,0 +1,141 @@
+package com.example.gateway;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Stand-in greeting-service instances with different response times, registered under one service
+ * name as the broker's routing table would return them.
+ */
+class WeightedLeastLoadedBalancerTests {
+
+  private SimpleMeterRegistry meterRegistry;
+  private WeightedLeastLoadedBalancer balancer;
+
+  @BeforeEach
+  void setUp() {
+    this.meterRegistry = new SimpleMeterRegistry();
+    this.balancer = new WeightedLeastLoadedBalancer(this.meterRegistry, 0.2, Duration.ofSeconds(1));
+  }
+
+  @Test
+  void slowerInstanceReceivesLessTraffic() {
+    var instances = List.of(instance("fast", Duration.ofMillis(5)), instance("slow", Duration.ofMillis(50)));
+
+    Flux
+        .range(0, 400)
+        .flatMap(i -> this.balancer
+            .choose(instances)
+            .map(chosen -> chosen.getT2().requestResponse(DefaultPayload.create("greeting")))
+            .orElseThrow(), 8)
+        .blockLast(Duration.ofSeconds(30));
+
+    assertThat(routed("fast")).isGreaterThan(routed("slow") * 3);
+    assertThat(this.meterRegistry.get("gateway.rsocket.instance.latency").tag("route-id", "slow").gauge().value())
+        .isGreaterThan(this.meterRegistry.get("gateway.rsocket.instance.latency").tag("route-id", "fast").gauge().value());
+  }
+
+  @Test
+  void instanceFailingFastReceivesLessTraffic() {
+    var failing = Tuples.<String, RSocket>of("failing", new AbstractRSocket() {
+
+      @Override
+      public Mono<Payload> requestResponse(Payload payload) {
+        payload.release();
+        return Mono.error(new IllegalStateException("no greetings today"));
+      }
+    });
+    var instances = List.of(instance("healthy", Duration.ofMillis(5)), failing);
+
+    Flux
+        .range(0, 200)
+        .flatMap(i -> this.balancer
+            .choose(instances)
+            .map(chosen -> chosen.getT2().requestResponse(DefaultPayload.create("greeting")).onErrorResume(e -> Mono.empty()))
+            .orElseThrow(), 8)
+        .blockLast(Duration.ofSeconds(30));
+
+    assertThat(routed("healthy")).isGreaterThan(routed("failing") * 3);
+  }
+
+  @Test
+  void openStreamsSteerNewStreamsToOtherInstances() {
+    var instances = List.of(instance("a", Duration.ZERO), instance("b", Duration.ZERO), instance("c", Duration.ZERO));
+
+    var first = this.balancer.choose(instances).orElseThrow();
+    Disposable stream = first.getT2().requestStream(DefaultPayload.create("greetings")).subscribe();
+    var second = this.balancer.choose(instances).orElseThrow();
+    Disposable secondStream = second.getT2().requestStream(DefaultPayload.create("greetings")).subscribe();
+    var third = this.balancer.choose(instances).orElseThrow();
+
+    assertThat(List.of(first.getT1(), second.getT1(), third.getT1())).containsExactlyInAnyOrder("a", "b", "c");
+    assertThat(this.meterRegistry.get("gateway.rsocket.instance.in-flight").tag("route-id", first.getT1()).gauge().value()).isEqualTo(1);
+
+    stream.dispose();
+    secondStream.dispose();
+    assertThat(this.meterRegistry.get("gateway.rsocket.instance.in-flight").tag("route-id", first.getT1()).gauge().value()).isZero();
+  }
+
+  @Test
+  void closedInstanceIsForgottenWithItsMeters() {
+    var instance = instance("a", Duration.ZERO);
+    this.balancer.choose(List.of(instance)).orElseThrow();
+    assertThat(this.meterRegistry.find("gateway.rsocket.instance.routed").tag("route-id", "a").counter()).isNotNull();
+
+    instance.getT2().dispose();
+
+    assertThat(this.meterRegistry.find("gateway.rsocket.instance.routed").tag("route-id", "a").counter()).isNull();
+    assertThat(this.meterRegistry.find("gateway.rsocket.instance.in-flight").tag("route-id", "a").gauge()).isNull();
+    assertThat(this.meterRegistry.find("gateway.rsocket.instance.latency").tag("route-id", "a").gauge()).isNull();
+  }
+
+  @Test
+  void routeIdOnANewConnectionStartsOver() {
+    this.balancer.choose(List.of(instance("a", Duration.ZERO))).orElseThrow();
+    this.balancer.choose(List.of(instance("a", Duration.ZERO))).orElseThrow();
+
+    assertThat(routed("a")).isEqualTo(1);
+    assertThat(this.meterRegistry.find("gateway.rsocket.instance.routed").counters()).hasSize(1);
+  }
+
+  @Test
+  void nothingToChooseFrom() {
+    assertThat(this.balancer.choose(List.of())).isEmpty();
+  }
+
+  private double routed(String routeId) {
+    return this.meterRegistry.get("gateway.rsocket.instance.routed").tag("route-id", routeId).counter().count();
+  }
+
+  private static Tuple2<String, RSocket> instance(String routeId, Duration latency) {
+    return Tuples.of(routeId, new AbstractRSocket() {
+
+      @Override
+      public Mono<Payload> requestResponse(Payload payload) {
+        payload.release();
+        return Mono.delay(latency).thenReturn(DefaultPayload.create("hello from " + routeId));
+      }
+
+      @Override
+      public Flux<Payload> requestStream(Payload payload) {
+        payload.release();
+        return Flux.never();
+      }
+    });
+  }
+}
@@ -0,0 +1,245 @@
+package com.example.greetingservice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+class FlushPolicyConfiguration {
+
+  @Bean
+  FlushPolicy flushPolicy(ObjectMapper objectMapper, MeterRegistry registry,
+                          @Value("${greetings.flush.max-events:1}") int maxEvents,
+                          @Value("${greetings.flush.max-delay:500us}") Duration maxDelay,
+                          @Value("${greetings.flush.max-buffered-batches:256}") int maxBufferedBatches) {
+    return new FlushPolicy(objectMapper, registry, maxEvents, maxDelay, maxBufferedBatches);
+  }
+
+  @Bean
+  WebServerFactoryCustomizer<NettyReactiveWebServerFactory> writeCounting(MeterRegistry registry) {
+    var writes = registry.counter("greetings.http.writes");
+    var flushes = registry.counter("greetings.http.flushes");
+    return factory -> factory.addServerCustomizers(server -> server.tcpConfiguration(tcp -> tcp
+        .doOnConnection(connection -> connection.addHandlerLast("write-counter", new WriteCounter(writes, flushes)))));
+  }
+}
+
+/*
+ * Coalesces the SSE and WebSocket greetings output: events are collected until there are
+ * max-events of them or the first has waited max-delay, and are then written with a single
+ * flush, which is what turns into a socket write. SSE events are encoded into one DataBuffer per
+ * batch; WebSocket messages remain separate frames, which reactor-netty writes back to back and
+ * flushes once when they arrive together. With max-events of 1 every event is written and flushed
+ * on its own, as Spring does by default, and that is the default here: each greetings stream
+ * emits once a second, so a batch rarely gets a second event before max-delay is up, and every
+ * event would just wait for a timer. Coalescing pays off for connections that carry many streams,
+ * see GreetingFlushBenchmark.
+ *
+ * Up to max-buffered-batches batches are buffered while the connection can't take them. Past that
+ * the connection fails, so a stalled client can't make the buffer grow without bound.
+ */
+class FlushPolicy {
+
+  private static final byte[] DATA = "data:".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] END_OF_EVENT = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+  private final ObjectMapper objectMapper;
+  private final int maxEvents;
+  private final Duration maxDelay;
+  private final int maxBufferedBatches;
+  private final Counter sseEvents;
+  private final Counter sseBatches;
+  private final Counter webSocketEvents;
+  private final Counter webSocketBatches;
+
+  FlushPolicy(ObjectMapper objectMapper, MeterRegistry registry, int maxEvents, Duration maxDelay, int maxBufferedBatches) {
+    this.objectMapper = objectMapper;
+    this.maxEvents = maxEvents;
+    this.maxDelay = maxDelay;
+    this.maxBufferedBatches = maxBufferedBatches;
+    this.sseEvents = registry.counter("greetings.sse.events");
+    this.sseBatches = registry.counter("greetings.sse.batches");
+    this.webSocketEvents = registry.counter("greetings.ws.events");
+    this.webSocketBatches = registry.counter("greetings.ws.batches");
+  }
+
+  boolean isCoalescing() {
+    return this.maxEvents > 1;
+  }
+
+  <T> BodyInserter<?, ? super ReactiveHttpOutputMessage> serverSentEvents(Flux<T> events, Class<T> type) {
+    if (!isCoalescing()) {
+      return BodyInserters.fromPublisher(events.doOnNext(event -> {
+        this.sseEvents.increment();
+        this.sseBatches.increment();
+      }), type);
+    }
+    return (message, context) -> message.writeAndFlushWith(batches(events, this.sseEvents, this.sseBatches)
+        .map(batch -> Mono.fromSupplier(() -> encode(batch, message.bufferFactory().allocateBuffer()))));
+  }
+
+  <T> Flux<T> webSocketMessages(Flux<T> messages) {
+    if (!isCoalescing()) {
+      return messages.doOnNext(message -> {
+        this.webSocketEvents.increment();
+        this.webSocketBatches.increment();
+      });
+    }
+    return batches(messages, this.webSocketEvents, this.webSocketBatches).flatMapIterable(batch -> batch);
+  }
+
+  private <T> Flux<List<T>> batches(Flux<T> events, Counter eventCounter, Counter batchCounter) {
+    return Flux
+        .<List<T>>create(sink -> {
+          var batcher = new Batcher<>(sink, this.maxEvents, this.maxDelay);
+          // a sink keeps only the last onDispose, so both go in one
+          sink.onDispose(Disposables.composite(events.subscribe(batcher::add, batcher::error, batcher::complete), batcher::cancel));
+        }, FluxSink.OverflowStrategy.ERROR)
+        // bounds the batches waiting for the connection and fails it on overflow, so create never has to buffer
+        .onBackpressureBuffer(this.maxBufferedBatches)
+        .doOnNext(batch -> {
+          eventCounter.increment(batch.size());
+          batchCounter.increment();
+        });
+  }
+
+  private DataBuffer encode(List<?> events, DataBuffer buffer) {
+    try (var out = buffer.asOutputStream()) {
+      for (var event : events) {
+        out.write(DATA);
+        out.write(this.objectMapper.writeValueAsBytes(event));
+        out.write(END_OF_EVENT);
+      }
+    }
+    catch (JsonProcessingException e) {
+      DataBufferUtils.release(buffer);
+      throw new IllegalArgumentException("can't encode " + events, e);
+    }
+    catch (IOException e) {
+      DataBufferUtils.release(buffer);
+      throw new UncheckedIOException(e);
+    }
+    return buffer;
+  }
+}
+
+/*
+ * Collects events until there are maxEvents of them or the oldest has waited maxDelay. Unlike
+ * bufferTimeout, which rounds the timeout to whole milliseconds, the delay may be a few
+ * microseconds.
+ */
+class Batcher<T> {
+
+  private final FluxSink<List<T>> sink;
+  private final int maxEvents;
+  private final long maxDelayNanos;
+  private List<T> batch;
+  private Disposable timeout = Disposables.disposed();
+  private long batches;
+
+  Batcher(FluxSink<List<T>> sink, int maxEvents, Duration maxDelay) {
+    this.sink = sink;
+    this.maxEvents = maxEvents;
+    this.maxDelayNanos = maxDelay.toNanos();
+    this.batch = new ArrayList<>(maxEvents);
+  }
+
+  synchronized void add(T event) {
+    this.batch.add(event);
+    if (this.batch.size() >= this.maxEvents) {
+      emit();
+    }
+    else if (this.batch.size() == 1) {
+      var current = this.batches;
+      this.timeout = Schedulers.parallel().schedule(() -> timeout(current), this.maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  synchronized void error(Throwable error) {
+    emit();
+    this.sink.error(error);
+  }
+
+  synchronized void complete() {
+    emit();
+    this.sink.complete();
+  }
+
+  synchronized void cancel() {
+    this.timeout.dispose();
+  }
+
+  // a timeout that lost the race with a full batch finds a newer batch, which it leaves alone
+  private synchronized void timeout(long batch) {
+    if (batch == this.batches) {
+      emit();
+    }
+  }
+
+  private void emit() {
+    this.timeout.dispose();
+    if (this.batch.isEmpty()) {
+      return;
+    }
+    var full = this.batch;
+    this.batch = new ArrayList<>(this.maxEvents);
+    this.batches++;
+    this.sink.next(full);
+  }
+}
+
+// counts what actually reaches the socket: each flush is (at least) one write syscall
+class WriteCounter extends ChannelDuplexHandler {
+
+  private final Counter writes;
+  private final Counter flushes;
+
+  WriteCounter(Counter writes, Counter flushes) {
+    this.writes = writes;
+    this.flushes = flushes;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+    if (msg instanceof ByteBuf || msg instanceof ByteBufHolder) {
+      this.writes.increment();
+    }
+    super.write(ctx, msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    this.flushes.increment();
+    super.flush(ctx);
+  }
+}
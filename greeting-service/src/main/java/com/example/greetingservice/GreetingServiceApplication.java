@@ -35,6 +35,7 @@ import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAdapter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -52,7 +53,7 @@ public class GreetingServiceApplication {
   }
 
   @Bean
-  RouterFunction<ServerResponse> routes(GreetingService greetingService) {
+  RouterFunction<ServerResponse> routes(GreetingService greetingService, FlushPolicy flushPolicy) {
     return route()
         .GET("/greetings/{name}", request -> {
           var name = request.pathVariable("name");
@@ -61,7 +62,7 @@ public class GreetingServiceApplication {
           return ServerResponse
               .ok()
               .contentType(MediaType.TEXT_EVENT_STREAM)
-              .body(greet, GreetingResponse.class);
+              .body(flushPolicy.serverSentEvents(greet, GreetingResponse.class));
         })
         .build();
   }
@@ -78,7 +79,7 @@ class WebSocketConfiguration {
   }
 
   @Bean
-  WebSocketHandler webSocketHandler(GreetingService gs) {
+  WebSocketHandler webSocketHandler(GreetingService gs, FlushPolicy flushPolicy) {
     return session -> {
       var responses = session
           .receive()
@@ -87,7 +88,7 @@ class WebSocketConfiguration {
           .flatMap(gs::greetings)
           .map(GreetingResponse::getMessage)
           .map(session::textMessage);
-      return session.send(responses);
+      return session.send(flushPolicy.webSocketMessages(responses));
     };
   }
 
@@ -102,6 +103,12 @@ class WebSocketConfiguration {
 @Controller
 class GreetingService {
 
+  private final Scheduler ticker;
+
+  GreetingService(Scheduler ticker) {
+    this.ticker = ticker;
+  }
+
   private GreetingResponse greet(String name) {
     return new GreetingResponse("Hello " + name + " @ " + Instant.now());
   }
@@ -115,7 +122,7 @@ class GreetingService {
   Flux<GreetingResponse> greetings(GreetingRequest request) {
     return Flux
         .fromStream(Stream.generate(() -> greet(request.getName())))
-        .delayElements(Duration.ofSeconds(1));
+        .delayElements(Duration.ofSeconds(1), this.ticker);
   }
 
   @MessageMapping("error-signal")
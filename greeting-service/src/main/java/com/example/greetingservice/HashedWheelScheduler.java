@@ -0,0 +1,219 @@
+package com.example.greetingservice;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ * The scheduler the greetings streams are delayed on: parallel, Reactor's default for
+ * delayElements, unless greetings.ticker.scheduler is wheel.
+ */
+@Configuration
+class GreetingTickerConfiguration {
+
+  @Bean(destroyMethod = "dispose")
+  @ConditionalOnProperty(name = "greetings.ticker.scheduler", havingValue = "wheel")
+  HashedWheelScheduler greetingTicker(@Value("${greetings.ticker.tick-duration:10ms}") Duration tickDuration,
+                                      @Value("${greetings.ticker.ticks-per-wheel:512}") int ticksPerWheel) {
+    return new HashedWheelScheduler("greetings-ticker", tickDuration, ticksPerWheel, Schedulers.parallel());
+  }
+
+  // shared with the rest of the process, so it's not disposed with the context
+  @Bean(destroyMethod = "")
+  @ConditionalOnProperty(name = "greetings.ticker.scheduler", havingValue = "parallel", matchIfMissing = true)
+  Scheduler parallelGreetingTicker() {
+    return Schedulers.parallel();
+  }
+}
+
+/*
+ * A Reactor Scheduler for timers only, on Netty's HashedWheelTimer: scheduling and cancelling a
+ * task are O(1) (an enqueue), where the parallel scheduler keeps every pending delay in a
+ * ScheduledThreadPoolExecutor heap. The price is precision, tasks run up to one tick late.
+ *
+ * The wheel thread only keeps time: each task that comes due is handed to workers to run, so the
+ * emissions and whatever runs downstream of them are spread over those threads rather than queued
+ * behind each other on the wheel's. Tasks scheduled on one of this scheduler's workers, or
+ * periodically, still run one at a time and in order, on a worker of workers.
+ *
+ * Tasks without a delay also wait for the next tick.
+ */
+class HashedWheelScheduler implements Scheduler {
+
+  private final HashedWheelTimer timer;
+  private final Scheduler workers;
+  private volatile boolean disposed;
+
+  HashedWheelScheduler(String name, Duration tickDuration, int ticksPerWheel, Scheduler workers) {
+    this.timer = new HashedWheelTimer(new DefaultThreadFactory(name, true), tickDuration.toNanos(), TimeUnit.NANOSECONDS,
+        ticksPerWheel);
+    this.workers = workers;
+  }
+
+  @Override
+  public Disposable schedule(Runnable task) {
+    return schedule(task, 0, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+    return schedule(task, delay, unit, this.workers::schedule);
+  }
+
+  @Override
+  public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+    var worker = this.workers.createWorker();
+    return Disposables.composite(new PeriodicTask(this.timer, worker, task, unit.toNanos(initialDelay), unit.toNanos(period)), worker);
+  }
+
+  @Override
+  public Worker createWorker() {
+    return new WheelWorker(this);
+  }
+
+  @Override
+  public void dispose() {
+    this.disposed = true;
+    this.timer.stop();
+  }
+
+  // times task on the wheel and hands it to runner when it's due
+  private Disposable schedule(Runnable task, long delay, TimeUnit unit, Function<Runnable, Disposable> runner) {
+    var handedOff = Disposables.swap();
+    var timeout = this.timer.newTimeout(t -> handedOff.update(runner.apply(task)), delay, unit);
+    return new TimeoutDisposable(timeout, handedOff);
+  }
+
+  @Override
+  public boolean isDisposed() {
+    return this.disposed;
+  }
+
+  // cancels the task on the wheel, or on the worker it was handed to
+  private static class TimeoutDisposable implements Disposable {
+
+    private final Timeout timeout;
+    private final Disposable.Swap handedOff;
+
+    TimeoutDisposable(Timeout timeout, Disposable.Swap handedOff) {
+      this.timeout = timeout;
+      this.handedOff = handedOff;
+    }
+
+    @Override
+    public void dispose() {
+      this.timeout.cancel();
+      this.handedOff.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+      return this.timeout.isCancelled() || this.handedOff.isDisposed();
+    }
+  }
+
+  // fixed rate: each run is scheduled from the previous deadline, so late ticks don't add up
+  private static class PeriodicTask implements TimerTask, Disposable {
+
+    private final HashedWheelTimer timer;
+    private final Worker worker;
+    private final Runnable task;
+    private final long period;
+    private long deadline;
+    private volatile Timeout timeout;
+    private volatile boolean disposed;
+
+    PeriodicTask(HashedWheelTimer timer, Worker worker, Runnable task, long initialDelay, long period) {
+      this.timer = timer;
+      this.worker = worker;
+      this.task = task;
+      this.period = period;
+      this.deadline = System.nanoTime() + initialDelay;
+      this.timeout = timer.newTimeout(this, initialDelay, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+      if (this.disposed) {
+        return;
+      }
+      this.worker.schedule(this.task);
+      this.deadline += this.period;
+      this.timeout = this.timer.newTimeout(this, Math.max(0, this.deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      if (this.disposed) {
+        this.timeout.cancel();
+      }
+    }
+
+    @Override
+    public void dispose() {
+      this.disposed = true;
+      this.timeout.cancel();
+    }
+
+    @Override
+    public boolean isDisposed() {
+      return this.disposed;
+    }
+  }
+
+  // runs its tasks in order on one worker of the scheduler's workers, cancels whatever it still has pending when disposed
+  private static class WheelWorker implements Worker {
+
+    private final HashedWheelScheduler scheduler;
+    private final Worker worker;
+    private final Disposable.Composite pending = Disposables.composite();
+
+    WheelWorker(HashedWheelScheduler scheduler) {
+      this.scheduler = scheduler;
+      this.worker = scheduler.workers.createWorker();
+      this.pending.add(this.worker);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+      return schedule(task, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+      var holder = Disposables.swap();
+      this.pending.add(holder);
+      holder.update(this.scheduler.schedule(() -> {
+        this.pending.remove(holder);
+        task.run();
+      }, delay, unit, this.worker::schedule));
+      return holder;
+    }
+
+    @Override
+    public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+      var periodic = new PeriodicTask(this.scheduler.timer, this.worker, task, unit.toNanos(initialDelay), unit.toNanos(period));
+      this.pending.add(periodic);
+      return periodic;
+    }
+
+    @Override
+    public void dispose() {
+      this.pending.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+      return this.pending.isDisposed();
+    }
+  }
+}
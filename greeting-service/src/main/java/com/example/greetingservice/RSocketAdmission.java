@@ -0,0 +1,219 @@
+package com.example.greetingservice;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.lease.Lease;
+import io.rsocket.lease.Leases;
+import io.rsocket.resume.InMemoryResumableFramesStore;
+import io.rsocket.util.RSocketProxy;
+import lombok.extern.log4j.Log4j2;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Resumption and lease-based admission control for the RSocket server on 8888.
+ *
+ * A client that reconnects with its resume token within the session duration picks its streams
+ * up where they stopped: each connection keeps up to store-size bytes of sent frames to replay.
+ *
+ * Clients that honor leases may only send as many requests as the last LEASE frame allowed. Every
+ * period each connection gets a fair share of the in-flight stream headroom, and no lease at all
+ * while the event loops are busier than the target utilization, so excess requests are refused by
+ * the client before they are even sent instead of queueing here and timing out.
+ *
+ * RSocket applies the lease setting to the whole server rather than to each client's SETUP. With
+ * leases on, a client that doesn't honor them is not held back by them, and every request the
+ * server sends it fails with MissingLeaseException. With leases off, a client asking for leases is
+ * turned away at setup. So rsocket.lease.enabled is off by default, and it should be switched on
+ * here and in every client at the same time.
+ */
+@Configuration
+class RSocketAdmissionConfiguration {
+
+  @Bean
+  LeaseGovernor leaseGovernor(MeterRegistry registry,
+                              @Value("${rsocket.lease.period:1s}") Duration period,
+                              @Value("${rsocket.lease.max-in-flight-streams:10000}") int maxInFlight,
+                              @Value("${rsocket.lease.target-event-loop-utilization:0.8}") double targetUtilization,
+                              @Value("${rsocket.lease.event-loop-thread-prefix:reactor-}") String eventLoopThreadPrefix) {
+    return new LeaseGovernor(registry, period, maxInFlight, targetUtilization, new EventLoopUtilization(eventLoopThreadPrefix));
+  }
+
+  @Bean
+  ServerRSocketFactoryProcessor admissionProcessor(LeaseGovernor governor,
+                                                   @Value("${rsocket.resume.enabled:true}") boolean resume,
+                                                   @Value("${rsocket.resume.store-size:1MB}") DataSize storeSize,
+                                                   @Value("${rsocket.resume.session-duration:2m}") Duration sessionDuration,
+                                                   @Value("${rsocket.resume.stream-timeout:10s}") Duration streamTimeout,
+                                                   @Value("${rsocket.lease.enabled:false}") boolean lease) {
+    return factory -> {
+      if (resume) {
+        factory
+            .resume()
+            .resumeStore(token -> new InMemoryResumableFramesStore("server", (int) storeSize.toBytes()))
+            .resumeSessionDuration(sessionDuration)
+            .resumeStreamTimeout(streamTimeout);
+      }
+      if (lease) {
+        factory
+            .lease(() -> Leases.create().sender(stats -> governor.leases()))
+            .addResponderPlugin(governor::track);
+      }
+      return factory;
+    };
+  }
+}
+
+@Log4j2
+class LeaseGovernor {
+
+  private final Duration period;
+  private final int maxInFlight;
+  private final double targetUtilization;
+  private final EventLoopUtilization eventLoops;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger connections = new AtomicInteger();
+  private volatile double utilization;
+  private volatile long sampledAt;
+
+  LeaseGovernor(MeterRegistry registry, Duration period, int maxInFlight, double targetUtilization,
+                EventLoopUtilization eventLoops) {
+    this.period = period;
+    this.maxInFlight = maxInFlight;
+    this.targetUtilization = targetUtilization;
+    this.eventLoops = eventLoops;
+    this.sampledAt = System.nanoTime() - period.toNanos();
+    Gauge.builder("greetings.rsocket.in-flight", this.inFlight, AtomicInteger::get).register(registry);
+    Gauge.builder("greetings.rsocket.leased-connections", this.connections, AtomicInteger::get).register(registry);
+    Gauge.builder("greetings.rsocket.event-loop.utilization", this, g -> g.utilization).register(registry);
+  }
+
+  // one lease per period for as long as the connection lasts, each replacing the previous one
+  Flux<Lease> leases() {
+    var ttl = (int) this.period.toMillis();
+    return Flux
+        .interval(Duration.ZERO, this.period)
+        .<Lease>handle((tick, sink) -> {
+          var allowed = allowance();
+          if (allowed > 0) {
+            sink.next(Lease.create(ttl, allowed));
+          }
+        })
+        .doOnSubscribe(s -> this.connections.incrementAndGet())
+        .doFinally(signal -> this.connections.decrementAndGet());
+  }
+
+  RSocket track(RSocket handler) {
+    return new InFlightRSocket(handler, this.inFlight);
+  }
+
+  int allowance() {
+    sampleIfStale();
+    if (this.utilization >= this.targetUtilization) {
+      log.debug("event loops at " + this.utilization + ", not granting leases");
+      return 0;
+    }
+    var headroom = this.maxInFlight - this.inFlight.get();
+    var connections = Math.max(1, this.connections.get());
+    return headroom <= 0 ? 0 : (headroom + connections - 1) / connections;
+  }
+
+  // every connection asks once per period, the sample is shared between them
+  private void sampleIfStale() {
+    var now = System.nanoTime();
+    if (now - this.sampledAt >= this.period.toNanos() / 2) {
+      synchronized (this) {
+        if (now - this.sampledAt >= this.period.toNanos() / 2) {
+          this.utilization = this.eventLoops.sample();
+          this.sampledAt = now;
+        }
+      }
+    }
+  }
+}
+
+/*
+ * The share of wall clock time the event loop threads spent on the CPU since the last sample,
+ * averaged over those threads.
+ */
+class EventLoopUtilization {
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final String threadPrefix;
+  private Map<Long, Long> cpuTimes = new HashMap<>();
+  private long sampledAt = System.nanoTime();
+
+  EventLoopUtilization(String threadPrefix) {
+    this.threadPrefix = threadPrefix;
+  }
+
+  synchronized double sample() {
+    var now = System.nanoTime();
+    var elapsed = now - this.sampledAt;
+    var cpuTimes = new HashMap<Long, Long>();
+    var busy = 0L;
+    for (var info : this.threads.getThreadInfo(this.threads.getAllThreadIds())) {
+      if (info == null || !info.getThreadName().startsWith(this.threadPrefix)) {
+        continue;
+      }
+      var cpuTime = this.threads.getThreadCpuTime(info.getThreadId());
+      if (cpuTime < 0) {
+        continue;
+      }
+      cpuTimes.put(info.getThreadId(), cpuTime);
+      busy += cpuTime - this.cpuTimes.getOrDefault(info.getThreadId(), cpuTime);
+    }
+    this.cpuTimes = cpuTimes;
+    this.sampledAt = now;
+    return cpuTimes.isEmpty() || elapsed <= 0 ? 0 : Math.min(1.0, (double) busy / elapsed / cpuTimes.size());
+  }
+}
+
+class InFlightRSocket extends RSocketProxy {
+
+  private final AtomicInteger inFlight;
+
+  InFlightRSocket(RSocket delegate, AtomicInteger inFlight) {
+    super(delegate);
+    this.inFlight = inFlight;
+  }
+
+  @Override
+  public Mono<Payload> requestResponse(Payload payload) {
+    return Mono.defer(() -> {
+      this.inFlight.incrementAndGet();
+      return super.requestResponse(payload).doFinally(signal -> this.inFlight.decrementAndGet());
+    });
+  }
+
+  @Override
+  public Flux<Payload> requestStream(Payload payload) {
+    return Flux.defer(() -> {
+      this.inFlight.incrementAndGet();
+      return super.requestStream(payload).doFinally(signal -> this.inFlight.decrementAndGet());
+    });
+  }
+
+  @Override
+  public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+    return Flux.defer(() -> {
+      this.inFlight.incrementAndGet();
+      return super.requestChannel(payloads).doFinally(signal -> this.inFlight.decrementAndGet());
+    });
+  }
+}
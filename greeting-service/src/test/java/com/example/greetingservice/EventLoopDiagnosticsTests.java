@@ -0,0 +1,107 @@
+package com.example.greetingservice;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventLoopDiagnosticsTests {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final NioEventLoopGroup loops = new NioEventLoopGroup(1);
+  private final EventLoopDiagnostics diagnostics = new EventLoopDiagnostics(this.registry, Duration.ofMillis(10),
+      Duration.ofMillis(50), 8);
+
+  @AfterEach
+  void stop() {
+    this.diagnostics.destroy();
+    this.loops.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  void reportsALoopCaughtSleepingWithItsStack() throws Exception {
+    watchUntilProbed();
+
+    this.loops.submit(() -> sleep(300)).get();
+
+    var report = report("timed_waiting", "EventLoopDiagnosticsTests.sleep");
+    assertThat(report.get("thread")).asString().startsWith("nioEventLoopGroup");
+    assertThat(this.registry.get("eventloop.blocked").tags("loops", "test", "kind", "timed_waiting").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void reportsALoopStalledByABusyTaskAndRecordsItsLag() throws Exception {
+    watchUntilProbed();
+
+    this.loops.submit(() -> spin(300)).get();
+    Thread.sleep(100);
+
+    var report = report("stalled", "EventLoopDiagnosticsTests.spin");
+    assertThat((long) report.get("probeLateMillis")).isGreaterThanOrEqualTo(50);
+    assertThat(this.registry.get("eventloop.lag").tag("loops", "test").timer().max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(200);
+  }
+
+  @Test
+  void reportsABlockingCallMadeOnALoopWithTheStackThatMadeIt() throws Exception {
+    watchUntilProbed();
+
+    this.loops.submit(() -> callBlockingMethod()).get();
+    this.loops.submit(() -> callBlockingMethod()).get();
+    // the watchdog reports them on its next check
+    Thread.sleep(100);
+
+    var report = report("blocking-call", "EventLoopDiagnosticsTests.callBlockingMethod");
+    assertThat(report.get("loops")).isEqualTo("test");
+    assertThat(report.get("detail")).isEqualTo("java.lang.Thread.sleep called");
+    assertThat(this.registry.get("eventloop.blocked").tags("loops", "test", "kind", "blocking-call").counter().count()).isEqualTo(2);
+  }
+
+  // until the probe has run a few times, so that what the loop does first is over
+  private void watchUntilProbed() throws InterruptedException {
+    this.diagnostics.watch("test", this.loops);
+    while (this.registry.find("eventloop.lag").timers().stream().mapToLong(Timer::count).sum() < 5) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+  }
+
+  // the first report of the kind caught in the method, there may be others while the loop loads classes
+  private Map<String, Object> report(String kind, String method) {
+    return this.diagnostics
+        .reports()
+        .stream()
+        .filter(report -> kind.equals(report.get("kind")))
+        .filter(report -> ((List<?>) report.get("stackTrace")).stream().anyMatch(frame -> frame.toString().contains(method)))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("no " + kind + " report in " + method + " among " + this.diagnostics.reports()));
+  }
+
+  // as BlockHound's callback would be called from the blocking method
+  private void callBlockingMethod() {
+    this.diagnostics.blockingCall("java.lang.Thread.sleep");
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void spin(long millis) {
+    var until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    while (System.nanoTime() < until) {
+      Thread.onSpinWait();
+    }
+  }
+}
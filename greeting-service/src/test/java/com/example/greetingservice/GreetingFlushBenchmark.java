@@ -0,0 +1,164 @@
+package com.example.greetingservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import greetings.GreetingRequest;
+import greetings.GreetingResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/*
+ * Events per second per core, and how late they arrive, of the greetings SSE and WebSocket routes
+ * with and without FlushPolicy coalescing. The streams are GreetingService's own, one greeting a
+ * second each: every SSE connection carries one, every WebSocket connection as many as it sent
+ * greetings requests. Lateness is the time from when a greeting was due, a second after it was
+ * created, to the client reading it. A first, unreported round warms up the JIT. Client, server
+ * and streams share this JVM, so CPU is that of the whole loopback exchange.
+ * Arguments: [seconds] [sse connections] [websocket connections] [requests per websocket].
+ */
+class GreetingFlushBenchmark {
+
+  private static final Pattern CREATED = Pattern.compile("@ ([0-9T:.\\-]+Z)");
+
+  public static void main(String[] args) throws Exception {
+    LoggingSystem
+        .get(GreetingFlushBenchmark.class.getClassLoader())
+        .setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+    var seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    var sseConnections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    var webSocketConnections = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    var requests = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+    System.out.printf("%-10s %-22s %10s %10s %12s %8s %14s %10s %10s%n",
+        "transport", "policy", "events", "flushes", "events/flush", "cpu %", "events/cpu-sec", "p50 us", "p99 us");
+    for (var transport : new String[]{"sse", "websocket"}) {
+      var connections = "sse".equals(transport) ? sseConnections : webSocketConnections;
+      run(transport, 16, Duration.ofNanos(500_000), seconds, connections, requests, false);
+    }
+    for (var transport : new String[]{"sse", "websocket"}) {
+      var connections = "sse".equals(transport) ? sseConnections : webSocketConnections;
+      run(transport, 1, Duration.ZERO, seconds, connections, requests, true);
+      run(transport, 16, Duration.ofNanos(500_000), seconds, connections, requests, true);
+      run(transport, 64, Duration.ofMillis(2), seconds, connections, requests, true);
+    }
+  }
+
+  private static void run(String transport, int maxEvents, Duration maxDelay, int seconds, int connections,
+                          int requests, boolean report) throws InterruptedException {
+    var registry = new SimpleMeterRegistry();
+    var policy = new FlushPolicy(new ObjectMapper(), registry, maxEvents, maxDelay, 256);
+    var greetingService = new GreetingService(Schedulers.parallel());
+    var writes = registry.counter("greetings.http.writes");
+    var flushes = registry.counter("greetings.http.flushes");
+    var events = registry.counter("sse".equals(transport) ? "greetings.sse.events" : "greetings.ws.events");
+
+    var routes = RouterFunctions
+        .route()
+        .GET("/greetings/{name}", request -> ServerResponse
+            .ok()
+            .contentType(MediaType.TEXT_EVENT_STREAM)
+            .body(policy.serverSentEvents(greetingService.greetings(new GreetingRequest(request.pathVariable("name"))),
+                GreetingResponse.class)))
+        .build();
+    var server = HttpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .tcpConfiguration(tcp -> tcp.doOnConnection(connection -> connection
+            .addHandlerLast("write-counter", new WriteCounter(writes, flushes))))
+        .route(r -> r
+            .ws("/ws/greetings", (in, out) -> out.sendObject(policy.webSocketMessages(in
+                .receive()
+                .asString()
+                .map(GreetingRequest::new)
+                .flatMap(greetingService::greetings)
+                .map(greeting -> new TextWebSocketFrame(greeting.getMessage())))))
+            .route(request -> true, new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(routes))))
+        .bindNow();
+
+    var latencies = new ConcurrentLinkedQueue<Long>();
+    var recording = new AtomicBoolean();
+    // a pool would cap the connections to the server, each SSE stream needs one of its own
+    var client = HttpClient.newConnection().baseUrl("http://localhost:" + server.port());
+    var subscriptions = Disposables.composite();
+    for (var i = 0; i < connections; i++) {
+      var name = "connection" + i;
+      subscriptions.add("sse".equals(transport)
+          ? client.get().uri("/greetings/" + name).responseContent().asString()
+          .subscribe(chunk -> record(chunk, recording.get(), latencies))
+          : client.websocket().uri("/ws/greetings").handle((in, out) -> out
+          .sendString(Flux.range(0, requests).map(request -> name + "-" + request))
+          .then()
+          .thenMany(in.receive().asString()))
+          .subscribe(message -> record(message, recording.get(), latencies)));
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(3));
+
+    var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    var eventsStart = events.count();
+    var flushesStart = flushes.count();
+    var cpuStart = os.getProcessCpuTime();
+    var start = System.nanoTime();
+    recording.set(true);
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    recording.set(false);
+    var cpuSeconds = (os.getProcessCpuTime() - cpuStart) / 1_000_000_000.0;
+    var elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+    var sent = events.count() - eventsStart;
+    var flushed = flushes.count() - flushesStart;
+    subscriptions.dispose();
+    server.disposeNow();
+
+    if (!report) {
+      return;
+    }
+    var sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+    Arrays.sort(sorted);
+    System.out.printf("%-10s %-22s %10.0f %10.0f %12.1f %8.1f %14.0f %10d %10d%n", transport,
+        maxEvents == 1 ? "flush each" : maxEvents + " events / " + maxDelay.toNanos() / 1000 + "us",
+        sent, flushed, sent / flushed, 100 * cpuSeconds / elapsedSeconds, sent / cpuSeconds,
+        percentile(sorted, 0.5), percentile(sorted, 0.99));
+  }
+
+  // the microseconds since each greeting read was due
+  private static void record(String read, boolean recording, ConcurrentLinkedQueue<Long> latencies) {
+    if (!recording) {
+      return;
+    }
+    var now = Instant.now();
+    var created = CREATED.matcher(read);
+    while (created.find()) {
+      try {
+        latencies.add(Duration.between(Instant.parse(created.group(1)).plusSeconds(1), now).toNanos() / 1000);
+      }
+      catch (DateTimeParseException e) {
+        // an event split across reads
+      }
+    }
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+    return sorted.length == 0 ? 0 : sorted[Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1)];
+  }
+}
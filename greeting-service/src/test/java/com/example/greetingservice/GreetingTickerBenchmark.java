@@ -0,0 +1,105 @@
+package com.example.greetingservice;
+
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/*
+ * Runs N greetings-like streams, one element per second each, on the parallel scheduler and on
+ * the HashedWheelScheduler handing its emissions to a parallel scheduler as large, and reports process CPU, GC and how late each element was emitted
+ * (jitter) over the measurement window. Arguments: [seconds] [tick ms] [stream counts...].
+ */
+class GreetingTickerBenchmark {
+
+  private static final Duration PERIOD = Duration.ofSeconds(1);
+  private static final int WARMUP_SECONDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    LoggingSystem
+        .get(GreetingTickerBenchmark.class.getClassLoader())
+        .setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+    var seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    var tick = Duration.ofMillis(args.length > 1 ? Long.parseLong(args[1]) : 10);
+    var streams = args.length > 2
+        ? IntStream.range(2, args.length).map(i -> Integer.parseInt(args[i])).toArray()
+        : new int[]{10_000, 50_000, 100_000};
+
+    System.out.printf("%-10s %8s %10s %10s %10s %10s %10s %8s %10s%n",
+        "scheduler", "streams", "elements", "cpu %", "p50 ms", "p99 ms", "max ms", "gcs", "gc ms");
+    for (var count : streams) {
+      var parallel = Schedulers.newParallel("parallel-ticker", Runtime.getRuntime().availableProcessors(), true);
+      run("parallel", parallel, count, seconds);
+      parallel.dispose();
+
+      var workers = Schedulers.newParallel("wheel-worker", Runtime.getRuntime().availableProcessors(), true);
+      var wheel = new HashedWheelScheduler("wheel-ticker", tick, 512, workers);
+      run("wheel", wheel, count, seconds);
+      wheel.dispose();
+      workers.dispose();
+    }
+  }
+
+  private static void run(String name, Scheduler scheduler, int count, int seconds) throws InterruptedException {
+    var lateness = new Recorder(3);
+    var subscriptions = Disposables.composite();
+    for (var i = 0; i < count; i++) {
+      subscriptions.add(stream(scheduler, lateness));
+      // clients don't all connect in the same instant, spread them over the first period
+      if (i % (count / 100) == 0) {
+        Thread.sleep(PERIOD.toMillis() / 100);
+      }
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+    lateness.reset();
+
+    var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    var gcs = ManagementFactory.getGarbageCollectorMXBeans();
+    var cpuStart = os.getProcessCpuTime();
+    var gcCountStart = gcCount(gcs);
+    var gcTimeStart = gcTime(gcs);
+    var start = System.nanoTime();
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    var elapsed = System.nanoTime() - start;
+    var histogram = lateness.getIntervalHistogram();
+    var cpu = 100.0 * (os.getProcessCpuTime() - cpuStart) / elapsed;
+    subscriptions.dispose();
+
+    System.out.printf("%-10s %8d %10d %10.1f %10.2f %10.2f %10.2f %8d %10d%n", name, count, histogram.getTotalCount(), cpu,
+        histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+        histogram.getMaxValue() / 1000.0, gcCount(gcs) - gcCountStart, gcTime(gcs) - gcTimeStart);
+  }
+
+  // records how much later than one period after the previous element each element arrives, in µs
+  private static Disposable stream(Scheduler scheduler, Recorder lateness) {
+    var previous = new long[]{System.nanoTime()};
+    return Flux
+        .generate(sink -> sink.next(System.nanoTime()))
+        .delayElements(PERIOD, scheduler)
+        .subscribe(element -> {
+          var now = System.nanoTime();
+          lateness.recordValue(Math.max(0, (now - previous[0] - PERIOD.toNanos()) / 1000));
+          previous[0] = now;
+        });
+  }
+
+  private static long gcCount(List<GarbageCollectorMXBean> gcs) {
+    return gcs.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+  }
+
+  private static long gcTime(List<GarbageCollectorMXBean> gcs) {
+    return gcs.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+  }
+}
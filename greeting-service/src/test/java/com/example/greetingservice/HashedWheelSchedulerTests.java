@@ -0,0 +1,75 @@
+package com.example.greetingservice;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedWheelSchedulerTests {
+
+  private final Scheduler workers = Schedulers.newParallel("test-worker", 2, true);
+  private final HashedWheelScheduler wheel = new HashedWheelScheduler("test-wheel", Duration.ofMillis(1), 64, this.workers);
+
+  @AfterEach
+  void stop() {
+    this.wheel.dispose();
+    this.workers.dispose();
+  }
+
+  @Test
+  void emissionsRunOnTheWorkersRatherThanTheWheelThread() {
+    var threads = Flux
+        .range(0, 5)
+        .delayElements(Duration.ofMillis(5), this.wheel)
+        .map(i -> Thread.currentThread().getName())
+        .collectList()
+        .block(Duration.ofSeconds(5));
+
+    assertThat(threads).hasSize(5).allMatch(thread -> thread.startsWith("test-worker"));
+  }
+
+  @Test
+  void aWorkersTasksRunOneAtATimeInOrder() throws Exception {
+    var worker = this.wheel.createWorker();
+    var ran = new CopyOnWriteArrayList<Integer>();
+    var done = new CountDownLatch(20);
+    for (var i = 0; i < 20; i++) {
+      var task = i;
+      worker.schedule(() -> {
+        ran.add(task);
+        done.countDown();
+      }, 2, TimeUnit.MILLISECONDS);
+    }
+
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    worker.dispose();
+
+    var expected = new ArrayList<Integer>();
+    for (var i = 0; i < 20; i++) {
+      expected.add(i);
+    }
+    assertThat(ran).isEqualTo(expected);
+  }
+
+  @Test
+  void cancelledTasksDontRun() throws Exception {
+    var ran = new CopyOnWriteArrayList<String>();
+    var cancelled = this.wheel.schedule(() -> ran.add("cancelled"), 20, TimeUnit.MILLISECONDS);
+    this.wheel.schedule(() -> ran.add("kept"), 20, TimeUnit.MILLISECONDS);
+
+    cancelled.dispose();
+    Thread.sleep(200);
+
+    assertThat(ran).isEqualTo(List.of("kept"));
+  }
+}
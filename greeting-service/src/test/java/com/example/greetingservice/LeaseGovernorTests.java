@@ -0,0 +1,55 @@
+package com.example.greetingservice;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LeaseGovernorTests {
+
+  private double utilization;
+
+  private final LeaseGovernor governor = new LeaseGovernor(new SimpleMeterRegistry(), Duration.ofHours(1), 100, 0.8,
+      new EventLoopUtilization("reactor-") {
+
+        @Override
+        synchronized double sample() {
+          return LeaseGovernorTests.this.utilization;
+        }
+      });
+
+  @Test
+  void sharesTheInFlightHeadroomBetweenConnections() {
+    var first = this.governor.leases().subscribe();
+    var second = this.governor.leases().subscribe();
+    var streams = this.governor.track(new AbstractRSocket() {
+
+      @Override
+      public Flux<Payload> requestStream(Payload payload) {
+        return Flux.never();
+      }
+    });
+    var inFlight = Flux.range(0, 40).flatMap(i -> streams.requestStream(DefaultPayload.create("greetings"))).subscribe();
+
+    assertThat(this.governor.allowance()).isEqualTo(30);
+
+    inFlight.dispose();
+    assertThat(this.governor.allowance()).isEqualTo(50);
+
+    first.dispose();
+    second.dispose();
+  }
+
+  @Test
+  void grantsNothingWhileTheEventLoopsAreBusy() {
+    this.utilization = 0.9;
+
+    assertThat(this.governor.allowance()).isZero();
+  }
+}
@@ -0,0 +1,108 @@
+package com.example.greetingservice;
+
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.RejectedException;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PayloadCompressionTests {
+
+  private final PayloadCompression compression = new PayloadCompression(true, 1024, 16777215, 0);
+
+  @Test
+  void compressesAndRestoresLargePayloads() {
+    var data = "{\"message\":\"Hello World\"}".repeat(100);
+    var compressed = this.compression.compress(DefaultPayload.create(data, "routing"));
+
+    assertThat(PayloadCompression.isCompressed(compressed)).isTrue();
+    assertThat(compressed.sliceData().readableBytes()).isLessThan(data.length());
+
+    var restored = this.compression.decompress(compressed);
+    assertThat(PayloadCompression.isCompressed(restored)).isFalse();
+    assertThat(restored.getDataUtf8()).isEqualTo(data);
+    assertThat(restored.getMetadataUtf8()).isEqualTo("routing");
+  }
+
+  @Test
+  void sendsSmallPayloadsAsIs() {
+    var payload = DefaultPayload.create("{\"message\":\"Hello World\"}");
+
+    assertThat(this.compression.compress(payload)).isSameAs(payload);
+    assertThat(this.compression.decompress(payload)).isSameAs(payload);
+  }
+
+  @Test
+  void rejectsDataThatInflatesPastTheLimit() {
+    var compressed = this.compression.compress(DefaultPayload.create(new byte[1_000_000]));
+    assertThat(compressed.sliceData().readableBytes()).isLessThan(8192);
+
+    assertThatThrownBy(() -> new PayloadCompression(true, 1024, 65536, 0).decompress(compressed))
+        .isInstanceOf(RejectedException.class)
+        .hasMessageContaining("65536");
+    assertThat(compressed.refCnt()).isZero();
+  }
+
+  @Test
+  void clientInflatesRequestsFromTheServerAndCompressesItsResponses() {
+    var serverRequester = MonoProcessor.<RSocket>create();
+    CloseableChannel server = this.compression
+        .configure(RSocketFactory.receive())
+        .acceptor((setup, sendingSocket) -> {
+          serverRequester.onNext(sendingSocket);
+          return Mono.just(new AbstractRSocket() {
+          });
+        })
+        .transport(TcpServerTransport.create("localhost", 0))
+        .start()
+        .block(Duration.ofSeconds(5));
+    var builder = RSocketRequester
+        .builder()
+        .rsocketFactory(factory -> factory.acceptor(sendingSocket -> echo()));
+    this.compression.configure(builder);
+    var client = builder.connectTcp(server.address().getHostString(), server.address().getPort()).block(Duration.ofSeconds(5));
+    try {
+      var data = "{\"message\":\"Hello World\"}".repeat(100);
+
+      var echoed = serverRequester
+          .flatMap(rsocket -> rsocket.requestResponse(DefaultPayload.create(data)))
+          .map(payload -> {
+            var echo = payload.getDataUtf8();
+            payload.release();
+            return echo;
+          })
+          .block(Duration.ofSeconds(5));
+
+      assertThat(echoed).isEqualTo(data);
+    }
+    finally {
+      client.rsocket().dispose();
+      server.dispose();
+    }
+  }
+
+  // answers with the request's data, which it only sees as sent when it was inflated
+  private static RSocket echo() {
+    return new AbstractRSocket() {
+
+      @Override
+      public Mono<Payload> requestResponse(Payload payload) {
+        var data = payload.getDataUtf8();
+        payload.release();
+        return Mono.just(DefaultPayload.create(data));
+      }
+    };
+  }
+}
@@ -0,0 +1,123 @@
+package com.example.greetingservice;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.MissingLeaseException;
+import io.rsocket.lease.Leases;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RSocketAdmissionTests {
+
+  private final LeaseGovernor governor = new LeaseGovernor(new SimpleMeterRegistry(), Duration.ofMillis(100), 100, 0.8,
+      new EventLoopUtilization("reactor-"));
+  private final List<RSocket> clients = new ArrayList<>();
+  // the server's requester for each client, in the order they connected
+  private final List<MonoProcessor<RSocket>> sendingSockets = new ArrayList<>();
+  private CloseableChannel server;
+
+  @AfterEach
+  void stop() {
+    this.clients.forEach(RSocket::dispose);
+    if (this.server != null) {
+      this.server.dispose();
+    }
+  }
+
+  @Test
+  void clientsThatDontHonorLeasesAreServedAndServedToByDefault() {
+    start(false);
+    var client = connect(RSocketFactory.connect());
+
+    assertThat(greet(client).block(Duration.ofSeconds(5))).isEqualTo("Hello Livelessons");
+    assertThat(greet(sendingSocket()).block(Duration.ofSeconds(5))).isEqualTo("Hello Livelessons");
+  }
+
+  @Test
+  void clientsThatHonorLeasesAreServedOnceLeasesAreEnabled() {
+    start(true);
+    var client = connect(RSocketFactory.connect().lease(() -> Leases.create().receiver(leases -> leases.subscribe())));
+
+    // the first lease is sent as soon as the connection is set up, but may not have arrived yet
+    var greeting = greet(client).retryBackoff(10, Duration.ofMillis(20)).block(Duration.ofSeconds(5));
+
+    assertThat(greeting).isEqualTo("Hello Livelessons");
+  }
+
+  // which is why leases are off unless every client is configured to honor them
+  @Test
+  void leasesAreRequiredOfEveryClientOnceEnabled() {
+    start(true);
+    connect(RSocketFactory.connect());
+
+    assertThatThrownBy(() -> greet(sendingSocket()).block(Duration.ofSeconds(5))).isInstanceOf(MissingLeaseException.class);
+  }
+
+  private void start(boolean lease) {
+    var processor = new RSocketAdmissionConfiguration().admissionProcessor(this.governor, false, DataSize.ofMegabytes(1),
+        Duration.ofMinutes(2), Duration.ofSeconds(10), lease);
+    this.server = processor
+        .process(RSocketFactory.receive())
+        .acceptor((setup, sendingSocket) -> {
+          this.sendingSockets.get(this.sendingSockets.size() - 1).onNext(sendingSocket);
+          return Mono.just(greeter());
+        })
+        .transport(TcpServerTransport.create("localhost", 0))
+        .start()
+        .block(Duration.ofSeconds(5));
+  }
+
+  private RSocket connect(RSocketFactory.ClientRSocketFactory factory) {
+    this.sendingSockets.add(MonoProcessor.create());
+    var client = factory
+        .acceptor(sendingSocket -> greeter())
+        .transport(TcpClientTransport.create(this.server.address()))
+        .start()
+        .block(Duration.ofSeconds(5));
+    this.clients.add(client);
+    return client;
+  }
+
+  private RSocket sendingSocket() {
+    return this.sendingSockets.get(this.sendingSockets.size() - 1).block(Duration.ofSeconds(5));
+  }
+
+  private static RSocket greeter() {
+    return new AbstractRSocket() {
+
+      @Override
+      public Mono<Payload> requestResponse(Payload payload) {
+        var name = payload.getDataUtf8();
+        payload.release();
+        return Mono.just(DefaultPayload.create("Hello " + name));
+      }
+    };
+  }
+
+  private static Mono<String> greet(RSocket rsocket) {
+    return rsocket
+        .requestResponse(DefaultPayload.create("Livelessons"))
+        .map(payload -> {
+          var greeting = payload.getDataUtf8();
+          payload.release();
+          return greeting;
+        });
+  }
+}
@@ -0,0 +1,132 @@
+package com.example.greetingservice;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocketFactory;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Mono;
+import reactor.netty.tcp.TcpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Streams payloads of increasing size from an RSocket server to a client over loopback TCP, with
+ * and without PayloadCompression and MTU fragmentation, and reports throughput and the bytes the
+ * server wrote to the socket. The payloads are JSON greetings, which compress about as well as
+ * the real ones. Arguments: [mtu] [compression threshold].
+ */
+class RSocketCompressionBenchmark {
+
+  private static final int[] PAYLOAD_SIZES = {64, 512, 4 * 1024, 64 * 1024, 1024 * 1024};
+  private static final long BYTES_PER_RUN = 64L * 1024 * 1024;
+  private static final int WARMUP = 2;
+
+  public static void main(String[] args) {
+    LoggingSystem
+        .get(RSocketCompressionBenchmark.class.getClassLoader())
+        .setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+    // disposing a connection errors its (finished) requester streams, which only gets logged
+    Hooks.onErrorDropped(error -> {
+    });
+
+    var mtu = args.length > 0 ? Integer.parseInt(args[0]) : 16 * 1024;
+    var threshold = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+    System.out.printf("%-24s %10s %10s %14s %12s %12s%n", "configuration", "payload", "payloads", "wire bytes", "ratio", "MB/s");
+    for (var size : PAYLOAD_SIZES) {
+      run("plain", new PayloadCompression(false, threshold, 16777215, 0), size);
+      run("fragmented " + mtu, new PayloadCompression(false, threshold, 16777215, mtu), size);
+      run("compressed", new PayloadCompression(true, threshold, 16777215, 0), size);
+      run("compressed+fragmented", new PayloadCompression(true, threshold, 16777215, mtu), size);
+    }
+  }
+
+  private static void run(String name, PayloadCompression compression, int size) {
+    var data = greetings(size);
+    var count = (int) Math.min(Math.max(64, BYTES_PER_RUN / size), 200_000);
+    var written = new AtomicLong();
+    var tcpServer = TcpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .doOnConnection(connection -> connection.addHandlerFirst("count-written", new ChannelOutboundHandlerAdapter() {
+
+          @Override
+          public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf) {
+              written.addAndGet(((ByteBuf) msg).readableBytes());
+            }
+            super.write(ctx, msg, promise);
+          }
+        }));
+    var server = compression
+        .configure(RSocketFactory.receive())
+        .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+
+          @Override
+          public Flux<Payload> requestStream(Payload payload) {
+            payload.release();
+            return Flux.range(0, count).map(i -> DefaultPayload.create(data));
+          }
+        }))
+        .transport(TcpServerTransport.create(tcpServer))
+        .start()
+        .block();
+    var builder = RSocketRequester.builder().dataMimeType(MimeTypeUtils.TEXT_PLAIN);
+    compression.configure(builder);
+    var requester = builder
+        .connect(TcpClientTransport.create(server.address()))
+        .block();
+    try {
+      for (var i = 0; i < WARMUP; i++) {
+        stream(requester);
+      }
+      written.set(0);
+      var start = System.nanoTime();
+      var received = stream(requester);
+      var seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+      System.out.printf("%-24s %10d %10d %14d %12.3f %12.1f%n", name, size, count, written.get(),
+          (double) written.get() / received, received / seconds / (1024 * 1024));
+    }
+    finally {
+      requester.rsocket().dispose();
+      server.dispose();
+    }
+  }
+
+  // the number of payload bytes the client received, after inflating
+  private static long stream(RSocketRequester requester) {
+    return requester
+        .route("greetings")
+        .data("stream")
+        .retrieveFlux(byte[].class)
+        .map(bytes -> (long) bytes.length)
+        .reduce(0L, Long::sum)
+        .block();
+  }
+
+  private static byte[] greetings(int size) {
+    var json = new StringBuilder("[");
+    for (var i = 0; json.length() < size - 2; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"message\":\"Hello Livelessons @ 2019-12-2").append(i % 10)
+          .append("T10:").append(10 + i % 50).append(":").append(10 + i * 7 % 50).append(".").append(100 + i * 37 % 900).append("Z\"}");
+    }
+    var bytes = json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    var exact = new byte[size];
+    System.arraycopy(bytes, 0, exact, 0, Math.min(size, bytes.length));
+    return exact;
+  }
+}
@@ -0,0 +1,151 @@
+package com.example.greetingservice;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.MediaType;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.tcp.TcpServer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * RSocket request-response latency while the HTTP server in the same process is idle, and while
+ * it sends bursts of SSE events to many connections every 10ms, with both servers on one group of
+ * event loops and with each on ServerEventLoops of its own. Both setups have as many loops in
+ * all. Clients run on reactor-netty's global loops, so they share the cores but not the servers'
+ * loops. Arguments: [seconds] [http loops] [rsocket loops] [sse connections] [events per burst].
+ */
+class ServerEventLoopsBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    LoggingSystem
+        .get(ServerEventLoopsBenchmark.class.getClassLoader())
+        .setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+    // disposing a connection errors its streams, which only gets logged
+    Hooks.onErrorDropped(error -> {
+    });
+
+    var seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    var httpLoops = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    var rsocketLoops = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+    var connections = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+    var burst = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+
+    System.out.printf("%-10s %-6s %12s %10s %10s %10s %10s %10s %12s%n",
+        "loops", "sse", "requests", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "sse events/s");
+    var none = new int[0];
+    var shared = new ServerEventLoops("shared", httpLoops + rsocketLoops, none, true);
+    run("shared", shared, shared, seconds, connections, burst);
+    shared.dispose();
+    var http = new ServerEventLoops("http", httpLoops, none, true);
+    var rsocket = new ServerEventLoops("rsocket", rsocketLoops, none, true);
+    run("dedicated", http, rsocket, seconds, connections, burst);
+    http.dispose();
+    rsocket.dispose();
+  }
+
+  private static void run(String name, ServerEventLoops http, ServerEventLoops rsocket, int seconds, int connections,
+                          int burst) {
+    var events = new AtomicLong();
+    var httpServer = HttpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .tcpConfiguration(tcp -> tcp.runOn(http))
+        .route(routes -> routes.get("/sse", (request, response) -> response
+            .header(HttpHeaderNames.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+            .sendString(Flux
+                .interval(Duration.ofMillis(10))
+                .onBackpressureDrop()
+                .concatMap(tick -> Flux
+                    .range(0, burst)
+                    .map(i -> "data:{\"message\":\"Hello SSE " + i + " @ " + Instant.now() + "\"}\n\n"))
+                .doOnNext(event -> events.incrementAndGet()))))
+        .bindNow();
+    var rsocketServer = RSocketFactory
+        .receive()
+        .acceptor((setup, sendingSocket) -> Mono.just(new AbstractRSocket() {
+
+          @Override
+          public Mono<Payload> requestResponse(Payload payload) {
+            var name = payload.getDataUtf8();
+            payload.release();
+            return Mono.just(DefaultPayload.create("{\"message\":\"Hello " + name + " @ " + Instant.now() + "\"}"));
+          }
+        }))
+        .transport(TcpServerTransport.create(TcpServer.create().host("localhost").port(0).runOn(rsocket)))
+        .start()
+        .block();
+    var requester = RSocketFactory
+        .connect()
+        .transport(TcpClientTransport.create(rsocketServer.address()))
+        .start()
+        .block();
+    try {
+      requests(requester, 2);
+      report(name, "idle", requests(requester, seconds), 0);
+
+      var client = HttpClient.create().baseUrl("http://localhost:" + httpServer.port());
+      var streams = Disposables.composite();
+      for (var i = 0; i < connections; i++) {
+        streams.add(client.get().uri("/sse").responseContent().subscribe());
+      }
+      requests(requester, 2);
+      var start = events.get();
+      var latencies = requests(requester, seconds);
+      report(name, "burst", latencies, (events.get() - start) / (double) seconds);
+      streams.dispose();
+    }
+    finally {
+      requester.dispose();
+      rsocketServer.dispose();
+      httpServer.disposeNow();
+    }
+  }
+
+  // the latencies of requests made one after another for seconds, in nanoseconds
+  private static long[] requests(RSocket requester, int seconds) {
+    var latencies = new long[1024];
+    var count = 0;
+    var end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    while (System.nanoTime() < end) {
+      var start = System.nanoTime();
+      requester.requestResponse(DefaultPayload.create("Livelessons")).block().release();
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = System.nanoTime() - start;
+    }
+    latencies = Arrays.copyOf(latencies, count);
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static void report(String name, String sse, long[] latencies, double eventsPerSecond) {
+    System.out.printf("%-10s %-6s %12d %10d %10d %10d %10d %10d %12.0f%n", name, sse, latencies.length,
+        micros(latencies, 0.5), micros(latencies, 0.9), micros(latencies, 0.99), micros(latencies, 0.999),
+        micros(latencies, 1), eventsPerSecond);
+  }
+
+  private static long micros(long[] sorted, double percentile) {
+    var index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+  }
+}
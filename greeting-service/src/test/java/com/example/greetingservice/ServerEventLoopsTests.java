@@ -0,0 +1,66 @@
+package com.example.greetingservice;
+
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerEventLoopsTests {
+
+  private final List<ServerEventLoops> loops = new ArrayList<>();
+  private DisposableServer server;
+
+  @AfterEach
+  void stop() {
+    if (this.server != null) {
+      this.server.disposeNow();
+    }
+    this.loops.forEach(loops -> loops.disposeLater().block(Duration.ofSeconds(10)));
+  }
+
+  @Test
+  void loopsAreNamedAfterTheirCoresAndAreNonBlocking() throws Exception {
+    var loops = loops("test", 0, new int[]{2, 5}, false);
+
+    var threads = new ArrayList<String>();
+    for (var loop : loops.group()) {
+      threads.add(loop.submit(() -> Thread.currentThread().getName() + " " + Schedulers.isInNonBlockingThread()).get());
+    }
+
+    assertThat(loops.group()).isInstanceOf(NioEventLoopGroup.class);
+    assertThat(threads).containsExactly("test-nio-1-cpu2 true", "test-nio-2-cpu5 true");
+  }
+
+  @Test
+  void serverRunsItsConnectionsOnTheLoopsWhateverTransportItAsksFor() {
+    var loops = loops("test", 1, new int[0], true);
+    this.server = HttpServer
+        .create()
+        .host("localhost")
+        .port(0)
+        .tcpConfiguration(tcp -> tcp.runOn(loops, !Epoll.isAvailable()))
+        .handle((request, response) -> response.sendString(Mono.fromCallable(() -> Thread.currentThread().getName())))
+        .bindNow();
+
+    var thread = HttpClient.create().get().uri("http://" + this.server.host() + ":" + this.server.port() + "/").responseContent().aggregate().asString().block();
+
+    assertThat(thread).isEqualTo(Epoll.isAvailable() ? "test-epoll-1" : "test-nio-1");
+  }
+
+  private ServerEventLoops loops(String name, int threads, int[] cpus, boolean epoll) {
+    var loops = new ServerEventLoops(name, threads, cpus, epoll);
+    this.loops.add(loops);
+    return loops;
+  }
+}
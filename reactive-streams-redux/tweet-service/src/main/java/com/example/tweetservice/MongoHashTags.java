@@ -0,0 +1,50 @@
+package com.example.tweetservice;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.unwind;
+
+/*
+ * Computes the distinct hashtags inside MongoDB from the tags array each tweet stores when it is
+ * written, so only one small document per tag crosses the wire instead of every tweet. Tags come
+ * back most used first.
+ */
+@Log4j2
+@Component
+class MongoHashTags {
+
+  private final ReactiveMongoTemplate template;
+
+  MongoHashTags(ReactiveMongoTemplate template) {
+    this.template = template;
+  }
+
+  Mono<Void> createIndexes() {
+    return this.template
+        .indexOps(Tweet.class)
+        .ensureIndex(new Index("tags", Sort.Direction.ASC).named("tags"))
+        .doOnNext(index -> log.info("ensured index " + index + " on " + this.template.getCollectionName(Tweet.class)))
+        .then();
+  }
+
+  Flux<HashTag> hashTags() {
+    var aggregation = newAggregation(Tweet.class,
+        project("tags"),
+        unwind("tags"),
+        group("tags").count().as("count"),
+        sort(Sort.Direction.DESC, "count").and(Sort.Direction.ASC, "_id"))
+        .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+    return this.template.aggregate(aggregation, HashTag.class);
+  }
+}
@@ -0,0 +1,57 @@
+package com.example.tweetservice;
+
+import akka.NotUsed;
+import akka.stream.ActorMaterializer;
+import akka.stream.Attributes;
+import akka.stream.javadsl.AsPublisher;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.function.Supplier;
+
+/*
+ * Crosses between Reactor and Akka streams with batchSize elements of demand per request(n). By
+ * default a stream asks the publisher it reads from for half of its 16 element input buffer at a
+ * time; toFlux gives every stage of the graph it runs a batchSize input buffer instead, and batches
+ * the demand coming from Reactor the same way. The publisher handed back to Reactor serves a single
+ * subscriber, so it skips the fan-out machinery of Sink.asPublisher(true).
+ */
+@Component
+class ReactorAkkaBridge {
+
+  private final Supplier<ActorMaterializer> materializer;
+  private final int batchSize;
+
+  @Autowired
+  ReactorAkkaBridge(ObjectProvider<ActorMaterializer> materializer, @Value("${tweets.bridge.batch-size:256}") int batchSize) {
+    this(materializer::getObject, batchSize);
+  }
+
+  ReactorAkkaBridge(Supplier<ActorMaterializer> materializer, int batchSize) {
+    if (Integer.bitCount(batchSize) != 1) {
+      throw new IllegalArgumentException("tweets.bridge.batch-size must be a power of two, not " + batchSize);
+    }
+    this.materializer = materializer;
+    this.batchSize = batchSize;
+  }
+
+  <T> Source<T, NotUsed> toSource(Publisher<T> publisher) {
+    return Source.fromPublisher(publisher);
+  }
+
+  <T> Flux<T> toFlux(Source<T, ?> source) {
+    var buffer = Attributes.inputBuffer(this.batchSize, this.batchSize);
+    var publisher = source
+        .addAttributes(buffer)
+        .runWith(Sink.<T>asPublisher(AsPublisher.WITHOUT_FANOUT).addAttributes(buffer), this.materializer.get());
+    return Flux
+        .from(publisher)
+        .limitRate(this.batchSize);
+  }
+}
@@ -0,0 +1,66 @@
+package com.example.tweetservice;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Micrometer probes for Akka streams. meter counts the elements that pass a stage
+ * (tweets.stream.elements, per stream and stage), which gives each stage's throughput. async puts
+ * an async boundary after a source and tracks how many elements have crossed into it but not yet
+ * come out on the other side (tweets.stream.buffered), i.e. how full the buffers between the two
+ * islands are.
+ */
+@Component
+class StreamMetrics {
+
+  private final MeterRegistry registry;
+  private final Map<List<String>, AtomicLong> buffered = new ConcurrentHashMap<>();
+
+  StreamMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  <T> Flow<T, T, NotUsed> meter(String stream, String stage) {
+    var counter = Counter
+        .builder("tweets.stream.elements")
+        .tags("stream", stream, "stage", stage)
+        .register(this.registry);
+    return Flow.<T>create().map(element -> {
+      counter.increment();
+      return element;
+    });
+  }
+
+  <T, M> Source<T, M> async(String stream, String stage, Source<T, M> upstream) {
+    var buffered = this.buffered.computeIfAbsent(List.of(stream, stage), key ->
+        this.registry.gauge("tweets.stream.buffered", Tags.of("stream", stream, "stage", stage), new AtomicLong()));
+    // whatever is still buffered when this materialization ends is given back to the shared gauge
+    var mine = new AtomicLong();
+    return upstream
+        .map(element -> {
+          mine.incrementAndGet();
+          buffered.incrementAndGet();
+          return element;
+        })
+        .async()
+        .map(element -> {
+          mine.decrementAndGet();
+          buffered.decrementAndGet();
+          return element;
+        })
+        .watchTermination((materialized, done) -> {
+          done.whenComplete((d, error) -> buffered.addAndGet(-mine.getAndSet(0)));
+          return materialized;
+        });
+  }
+}
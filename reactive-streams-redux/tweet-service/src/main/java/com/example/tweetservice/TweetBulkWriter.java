@@ -0,0 +1,108 @@
+package com.example.tweetservice;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+ * Backfills tweets with unordered bulk writes of batchSize documents, up to concurrency batches at
+ * a time, instead of the one insert per document that TweetRepository.saveAll issues.
+ */
+@Log4j2
+@Component
+class TweetBulkWriter {
+
+  private final ReactiveMongoTemplate template;
+  private final int batchSize;
+  private final int concurrency;
+
+  TweetBulkWriter(ReactiveMongoTemplate template,
+                  @Value("${tweets.bulk.batch-size:1000}") int batchSize,
+                  @Value("${tweets.bulk.concurrency:4}") int concurrency) {
+    this.template = template;
+    this.batchSize = batchSize;
+    this.concurrency = concurrency;
+  }
+
+  Mono<BulkWriteReport> insertAll(Flux<Tweet> tweets) {
+    var collection = this.template.getCollection(this.template.getCollectionName(Tweet.class));
+    var options = new BulkWriteOptions().ordered(false);
+    return Mono.defer(() -> {
+      var start = System.nanoTime();
+      return tweets
+          .map(this::toInsert)
+          .buffer(this.batchSize)
+          .flatMap(batch -> Mono
+              .fromSupplier(System::nanoTime)
+              .flatMap(batchStart -> Mono
+                  .from(collection.bulkWrite(batch, options))
+                  .map(result -> new BatchResult(result, System.nanoTime() - batchStart))), this.concurrency)
+          .collectList()
+          .map(batches -> BulkWriteReport.of(batches, System.nanoTime() - start))
+          .doOnNext(report -> log.info(report));
+    });
+  }
+
+  private InsertOneModel<Document> toInsert(Tweet tweet) {
+    var document = new Document();
+    this.template.getConverter().write(tweet, document);
+    return new InsertOneModel<>(document);
+  }
+
+  @AllArgsConstructor
+  private static class BatchResult {
+    private final BulkWriteResult result;
+    private final long nanos;
+  }
+
+  @Data
+  @AllArgsConstructor
+  static class BulkWriteReport {
+
+    private final long documents;
+    private final int batches;
+    private final Duration elapsed;
+    private final double documentsPerSecond;
+    private final Duration batchLatencyP50;
+    private final Duration batchLatencyP90;
+    private final Duration batchLatencyP99;
+    private final Duration batchLatencyMax;
+
+    private static BulkWriteReport of(List<BatchResult> batches, long elapsedNanos) {
+      var documents = batches.stream().mapToLong(b -> b.result.getInsertedCount()).sum();
+      var latencies = batches.stream().map(b -> b.nanos).sorted().collect(Collectors.toCollection(ArrayList::new));
+      return new BulkWriteReport(
+          documents,
+          batches.size(),
+          Duration.ofNanos(elapsedNanos),
+          documents / (elapsedNanos / 1_000_000_000.0),
+          percentile(latencies, 0.50),
+          percentile(latencies, 0.90),
+          percentile(latencies, 0.99),
+          latencies.isEmpty() ? Duration.ZERO : Duration.ofNanos(Collections.max(latencies)));
+    }
+
+    private static Duration percentile(List<Long> sorted, double percentile) {
+      if (sorted.isEmpty()) {
+        return Duration.ZERO;
+      }
+      var index = (int) Math.ceil(percentile * sorted.size()) - 1;
+      return Duration.ofNanos(sorted.get(Math.max(0, index)));
+    }
+  }
+}
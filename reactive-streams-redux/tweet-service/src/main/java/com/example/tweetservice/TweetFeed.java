@@ -0,0 +1,119 @@
+package com.example.tweetservice;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.CompoundIndexDefinition;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.out;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+
+/*
+ * A flat, denormalized copy of the tweets that /tweets/feed pages through: one small document per
+ * tweet with the author's handle, the creation time and the text. Both indexes contain every field
+ * a feed query returns, so paging through it by author and/or creation time is answered from the
+ * index alone (a covered query) instead of scanning the tweet collection.
+ *
+ * The feed is rebuilt from the tweets once they're in and again every refresh-interval, so it lags
+ * the tweet collection by at most that much. A refresh-interval of 0 builds it once.
+ */
+@Log4j2
+@Component
+class TweetFeed {
+
+  static final String COLLECTION = "tweet_feed";
+
+  private final ReactiveMongoTemplate template;
+  private final Duration refreshInterval;
+
+  TweetFeed(ReactiveMongoTemplate template, @Value("${tweets.feed.refresh-interval:30s}") Duration refreshInterval) {
+    this.template = template;
+    this.refreshInterval = refreshInterval;
+  }
+
+  Mono<Void> createIndexes() {
+    var indexOps = this.template.indexOps(COLLECTION);
+    return Flux
+        .just(
+            new CompoundIndexDefinition(new Document("handle", 1).append("createdAt", -1).append("text", 1)).named("author_feed"),
+            new CompoundIndexDefinition(new Document("createdAt", -1).append("handle", 1).append("text", 1)).named("feed"))
+        .flatMap(indexOps::ensureIndex)
+        .doOnNext(index -> log.info("ensured index " + index + " on " + COLLECTION))
+        .then();
+  }
+
+  // rebuilds the feed now and again every refresh-interval, for as long as the returned Flux is subscribed to
+  Flux<Void> rebuildAndRefresh() {
+    if (this.refreshInterval.isZero()) {
+      return rebuild().flux();
+    }
+    return Flux
+        .interval(Duration.ZERO, this.refreshInterval)
+        .onBackpressureDrop()
+        .concatMap(tick -> rebuild()
+            .onErrorResume(e -> {
+              log.error("could not rebuild the tweet feed", e);
+              return Mono.empty();
+            }));
+  }
+
+  // $out replaces the feed with a fresh projection of the tweets and keeps its indexes
+  Mono<Void> rebuild() {
+    var aggregation = newAggregation(Tweet.class,
+        project("text", "createdAt").and("author.handle").as("handle"),
+        out(COLLECTION));
+    return this.template
+        .aggregate(aggregation, TweetFeedItem.class)
+        .then();
+  }
+
+  // newest first; pass the createdAt of the last item as before to get the next page
+  Flux<TweetFeedItem> page(String author, Instant before, int limit) {
+    var criteria = new Criteria();
+    if (author != null) {
+      criteria = criteria.and("handle").is(author);
+    }
+    if (before != null) {
+      criteria = criteria.and("createdAt").lt(before);
+    }
+    var query = Query
+        .query(criteria)
+        .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+        .limit(limit);
+    query.fields()
+        .include("handle")
+        .include("createdAt")
+        .include("text")
+        .exclude("_id");
+    return this.template.find(query, TweetFeedItem.class, COLLECTION);
+  }
+}
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+class TweetFeedItem {
+
+  @Id
+  private String id;
+  private String handle;
+  private Instant createdAt;
+  private String text;
+}
@@ -0,0 +1,276 @@
+package com.example.tweetservice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/*
+ * The newest tweets, already serialized as the JSON /tweets returns, kept outside the heap:
+ * ",tweet,tweet,..." in the order /tweets lists them (by id, which for ids generated on insert is
+ * the order they were written in), as many of the latest as fit in max-bytes. The heap only holds
+ * the buffers' handles and the ids of the first and last tweet cached, so a large cache costs the
+ * collector next to nothing, and serving it creates no Tweet, Author or String objects: that part of
+ * the response is written in chunks that are the buffers themselves, copied to the socket as they
+ * are. The older tweets that didn't fit, and those written since the cache was loaded, are read from
+ * MongoDB and serialized as before, before and after the cached ones. Changes to tweets already
+ * cached show from the next reload on.
+ *
+ * A load first walks the tweets newest first, serializing them only to add up their sizes, to find
+ * the oldest tweet that still fits, and then caches the tweets from that one on in order. Each
+ * reload so moves the cache on to the latest tweets, and those that have grown old drop out of it.
+ *
+ * The cache is loaded once the tweets are in and reloaded every refresh-interval, into 64KB direct
+ * buffers allocated as they fill, so a load takes about as much direct memory as it caches and
+ * nothing is copied. The new buffers replace the old ones for new requests; responses still writing
+ * the old ones keep them reachable until they're done, after which the collector frees them. Direct
+ * memory (-XX:MaxDirectMemorySize) should have room for twice max-bytes.
+ *
+ * Active when tweets.cache.mode is off-heap; until it's loaded, /tweets reads MongoDB. A
+ * refresh-interval of 0 loads it once.
+ */
+@Log4j2
+@Component
+class TweetFeedCache {
+
+  // the order of /tweets, cached or not
+  static final Sort IN_ORDER = Sort.by("id");
+  static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "id");
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final byte[] OPEN = {'['};
+  private static final byte[] SEPARATOR = {','};
+  private static final byte[] CLOSE = {']'};
+
+  private final ReactiveMongoTemplate template;
+  private final ObjectMapper objectMapper;
+  private final boolean enabled;
+  private final int maxBytes;
+  private final Duration refreshInterval;
+  private volatile Slab slab;
+
+  TweetFeedCache(ReactiveMongoTemplate template, ObjectMapper objectMapper,
+                 @Value("${tweets.cache.mode:none}") String mode,
+                 @Value("${tweets.cache.max-bytes:64MB}") DataSize maxBytes,
+                 @Value("${tweets.cache.refresh-interval:30s}") Duration refreshInterval) {
+    this.template = template;
+    this.objectMapper = objectMapper;
+    this.enabled = "off-heap".equals(mode);
+    this.maxBytes = (int) Math.min(maxBytes.toBytes(), Integer.MAX_VALUE);
+    this.refreshInterval = refreshInterval;
+  }
+
+  // loads the cache now and again every refresh-interval, for as long as the returned Flux is subscribed to
+  Flux<Void> loadAndRefresh() {
+    if (!this.enabled) {
+      return Flux.empty();
+    }
+    if (this.refreshInterval.isZero()) {
+      return load().flux();
+    }
+    return Flux
+        .interval(Duration.ZERO, this.refreshInterval)
+        .onBackpressureDrop()
+        .concatMap(tick -> load()
+            .onErrorResume(e -> {
+              log.error("could not load the tweet cache", e);
+              return Mono.empty();
+            }));
+  }
+
+  Mono<Void> load() {
+    return oldestThatFits()
+        .map(id -> Query.query(Criteria.where("id").gte(id)).with(IN_ORDER))
+        .flatMap(query -> {
+          var builder = new SlabBuilder(this.maxBytes);
+          return this.template
+              .find(query, Tweet.class)
+              .takeWhile(tweet -> builder.add(tweet, json(tweet)))
+              .then(Mono.fromSupplier(builder::build));
+        })
+        .defaultIfEmpty(new SlabBuilder(this.maxBytes).build())
+        .doOnNext(slab -> {
+          this.slab = slab;
+          log.info("cached " + slab);
+        })
+        .then();
+  }
+
+  // the id of the oldest tweet that fits in max-bytes along with all the newer ones, if any fits
+  private Mono<String> oldestThatFits() {
+    var query = new Query().with(NEWEST_FIRST);
+    return Mono.defer(() -> {
+      var bytes = new long[1];
+      return this.template
+          .find(query, Tweet.class)
+          .takeWhile(tweet -> (bytes[0] += SEPARATOR.length + json(tweet).length) <= this.maxBytes)
+          .takeLast(1)
+          .map(Tweet::getId)
+          .next();
+    });
+  }
+
+  boolean isLoaded() {
+    return this.slab != null;
+  }
+
+  // the JSON array of every tweet, in order; only once loaded
+  Flux<DataBuffer> allTweets(DataBufferFactory bufferFactory) {
+    var slab = this.slab;
+    return Flux.defer(() -> {
+      // whether nothing has been written after "[" yet, so the next tweet takes no separator
+      var first = new AtomicBoolean(true);
+      Function<Tweet, DataBuffer> serialized = tweet -> bufferFactory.wrap(first.getAndSet(false)
+          ? json(tweet)
+          : separated(json(tweet)));
+      var older = this.template
+          .find(slab.olderQuery(), Tweet.class)
+          .map(serialized);
+      var cached = Flux
+          .defer(() -> Flux.fromIterable(slab.chunks(slab.tweets > 0 && first.getAndSet(false))))
+          .map(bufferFactory::wrap);
+      var newer = slab.lastId == null
+          ? Flux.<DataBuffer>empty()
+          : this.template
+              .find(slab.newerQuery(), Tweet.class)
+              .map(serialized);
+      return Flux.concat(Mono.fromSupplier(() -> bufferFactory.wrap(OPEN)), older, cached, newer,
+          Mono.fromSupplier(() -> bufferFactory.wrap(CLOSE)));
+    });
+  }
+
+  private byte[] json(Tweet tweet) {
+    try {
+      return this.objectMapper.writeValueAsBytes(tweet);
+    }
+    catch (JsonProcessingException e) {
+      throw new IllegalStateException("could not serialize tweet " + tweet.getId(), e);
+    }
+  }
+
+  private static byte[] separated(byte[] json) {
+    var separated = new byte[json.length + 1];
+    separated[0] = ',';
+    System.arraycopy(json, 0, separated, 1, json.length);
+    return separated;
+  }
+
+  /*
+   * The JSON of the newest tweets, each after a comma, read-only, from the tweet with firstId up to
+   * and including the one with lastId.
+   */
+  static class Slab {
+
+    private final List<ByteBuffer> chunks;
+    private final int tweets;
+    private final long bytes;
+    private final String firstId;
+    private final String lastId;
+
+    Slab(List<ByteBuffer> chunks, int tweets, long bytes, String firstId, String lastId) {
+      this.chunks = chunks;
+      this.tweets = tweets;
+      this.bytes = bytes;
+      this.firstId = firstId;
+      this.lastId = lastId;
+    }
+
+    // views of the chunks for one response, without the leading comma if the cached tweets come first
+    List<ByteBuffer> chunks(boolean first) {
+      var chunks = new ArrayList<ByteBuffer>(this.chunks.size());
+      for (var chunk : this.chunks) {
+        chunks.add(chunk.duplicate());
+      }
+      if (first && !chunks.isEmpty()) {
+        chunks.get(0).position(SEPARATOR.length);
+      }
+      return chunks;
+    }
+
+    // the tweets before the cached ones, all of them if none is cached
+    Query olderQuery() {
+      var query = this.firstId == null ? new Query() : Query.query(Criteria.where("id").lt(this.firstId));
+      return query.with(IN_ORDER);
+    }
+
+    // the tweets after the cached ones, those written since the cache was loaded
+    Query newerQuery() {
+      return Query.query(Criteria.where("id").gt(this.lastId)).with(IN_ORDER);
+    }
+
+    @Override
+    public String toString() {
+      return "the latest " + this.tweets + " tweets in " + this.bytes + " bytes off-heap, older ones are read from MongoDB";
+    }
+  }
+
+  // direct buffers of CHUNK_SIZE, allocated as the previous one fills, and a tweet may span two
+  static class SlabBuilder {
+
+    private final int maxBytes;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private long bytes;
+    private int tweets;
+    private String firstId;
+    private String lastId;
+
+    SlabBuilder(int maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    // false, and nothing added, once the tweet doesn't fit
+    boolean add(Tweet tweet, byte[] json) {
+      if (this.bytes + SEPARATOR.length + json.length > this.maxBytes) {
+        return false;
+      }
+      write(SEPARATOR);
+      write(json);
+      this.tweets++;
+      if (this.firstId == null) {
+        this.firstId = tweet.getId();
+      }
+      this.lastId = tweet.getId();
+      return true;
+    }
+
+    Slab build() {
+      var chunks = new ArrayList<ByteBuffer>(this.chunks.size());
+      for (var chunk : this.chunks) {
+        chunks.add(chunk.flip().asReadOnlyBuffer());
+      }
+      return new Slab(List.copyOf(chunks), this.tweets, this.bytes, this.firstId, this.lastId);
+    }
+
+    private void write(byte[] bytes) {
+      var written = 0;
+      while (written < bytes.length) {
+        var last = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+        if (last == null || !last.hasRemaining()) {
+          last = ByteBuffer.allocateDirect(CHUNK_SIZE);
+          this.chunks.add(last);
+        }
+        var length = Math.min(last.remaining(), bytes.length - written);
+        last.put(bytes, written, length);
+        written += length;
+      }
+      this.bytes += bytes.length;
+    }
+  }
+}
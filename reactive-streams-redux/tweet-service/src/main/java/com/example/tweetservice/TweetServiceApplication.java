@@ -1,40 +1,55 @@
 package com.example.tweetservice;
 
+import akka.NotUsed;
 import akka.actor.ActorSystem;
 import akka.japi.function.Function;
 import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
 import akka.stream.javadsl.Source;
-import akka.stream.scaladsl.Sink;
+import com.typesafe.config.ConfigFactory;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
 @SpringBootApplication
 public class TweetServiceApplication {
 
   @Bean
-  ApplicationRunner producer(TweetRepository repository) {
+  ApplicationRunner producer(TweetRepository repository, TweetBulkWriter bulkWriter, TweetFeed feed, MongoHashTags hashTags,
+                             TweetFeedCache feedCache,
+                             @Value("${tweets.ingest.mode:repository}") String mode) {
     return args -> {
 
       Author jonas = new Author("jboner"),
@@ -50,64 +65,165 @@ public class TweetServiceApplication {
           new Tweet("whatever you next #platform is, don't built it yourself. Even companies with the $$ and motivation to do it fail. A LOT", josh)
       );
 
+      Publisher<?> saved = "bulk".equals(mode) ? bulkWriter.insertAll(tweetFlux) : repository.saveAll(tweetFlux);
+
       repository
           .deleteAll()
-          .thenMany(repository.saveAll(tweetFlux))
-          .thenMany(repository.findAll())
-          .subscribe(System.out::println);
+          .thenMany(saved)
+          .then(feed.createIndexes())
+          .then(hashTags.createIndexes())
+          .thenMany(Flux.merge(repository.findAll().doOnNext(System.out::println), feed.rebuildAndRefresh(),
+              feedCache.loadAndRefresh()))
+          .subscribe();
 
     };
   }
 
   @Bean
-  RouterFunction<ServerResponse> routes(TweetService tweetService) {
+  RouterFunction<ServerResponse> routes(TweetService tweetService, TweetFeed feed, TweetFeedCache feedCache,
+                                        @Value("${tweets.feed.page-size:20}") int pageSize,
+                                        @Value("${tweets.feed.max-page-size:100}") int maxPageSize) {
     return route()
-        .GET("/tweets", r -> ok().body(tweetService.getAllTweets(), Tweet.class))
+        .GET("/tweets", r -> allTweets(r, tweetService, feedCache))
+        .GET("/tweets/feed", r -> {
+          var limit = r.queryParam("limit").map(l -> l.matches("\\d{1,9}") ? Integer.parseInt(l) : -1).orElse(pageSize);
+          if (limit < 1 || limit > maxPageSize) {
+            return badRequest().bodyValue("limit must be between 1 and " + maxPageSize);
+          }
+          Instant before;
+          try {
+            before = r.queryParam("before").map(Instant::parse).orElse(null);
+          }
+          catch (DateTimeParseException e) {
+            return badRequest().bodyValue("before must be an ISO-8601 instant, such as 2019-12-01T10:15:30Z");
+          }
+          return ok().body(feed.page(r.queryParam("author").orElse(null), before, limit), TweetFeedItem.class);
+        })
         .GET("/hashtags", r -> ok().body(tweetService.getAllHashTags(), HashTag.class))
         .build();
   }
 
+  // the cache holds the JSON array, other media types are encoded from the tweets as before, in the same order
+  private static Mono<ServerResponse> allTweets(ServerRequest request, TweetService tweetService, TweetFeedCache feedCache) {
+    var accept = request.headers().accept();
+    if (feedCache.isLoaded() && (accept.isEmpty() || accept.stream().anyMatch(MediaType.APPLICATION_JSON::isCompatibleWith))) {
+      var bufferFactory = request.exchange().getResponse().bufferFactory();
+      return ok().contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromDataBuffers(feedCache.allTweets(bufferFactory)));
+    }
+    return ok().body(tweetService.getAllTweetsInOrder(), Tweet.class);
+  }
+
   public static void main(String[] args) {
     SpringApplication.run(TweetServiceApplication.class, args);
   }
 }
 
+/*
+ * Streams run on their own dispatcher rather than Akka's default one, sized by
+ * tweets.akka.dispatcher.*. Input buffers (powers of two) are set by tweets.akka.input-buffer.*.
+ * The actor system is only started when the first Akka stream runs.
+ */
 @Configuration
 class AkkaConfiguration {
 
+  static final String STREAM_DISPATCHER = "tweets-stream-dispatcher";
+
   @Bean
-  ActorSystem actorSystem() {
-    return ActorSystem.create("bootiful-akka-stream");
+  @Lazy
+  ActorSystem actorSystem(@Value("${tweets.akka.dispatcher.parallelism-min:2}") int parallelismMin,
+                          @Value("${tweets.akka.dispatcher.parallelism-factor:1.0}") double parallelismFactor,
+                          @Value("${tweets.akka.dispatcher.parallelism-max:8}") int parallelismMax,
+                          @Value("${tweets.akka.dispatcher.throughput:64}") int throughput) {
+    var dispatcher = ConfigFactory.parseMap(Map.of(
+        STREAM_DISPATCHER + ".type", "Dispatcher",
+        STREAM_DISPATCHER + ".executor", "fork-join-executor",
+        STREAM_DISPATCHER + ".fork-join-executor.parallelism-min", parallelismMin,
+        STREAM_DISPATCHER + ".fork-join-executor.parallelism-factor", parallelismFactor,
+        STREAM_DISPATCHER + ".fork-join-executor.parallelism-max", parallelismMax,
+        STREAM_DISPATCHER + ".throughput", throughput));
+    return ActorSystem.create("bootiful-akka-stream", dispatcher.withFallback(ConfigFactory.load()));
   }
 
   @Bean
-  ActorMaterializer actorMaterializer() {
-    return ActorMaterializer.create(this.actorSystem());
+  @Lazy
+  ActorMaterializer actorMaterializer(ActorSystem actorSystem,
+                                      @Value("${tweets.akka.input-buffer.initial:16}") int initialInputBuffer,
+                                      @Value("${tweets.akka.input-buffer.max:16}") int maxInputBuffer) {
+    var settings = ActorMaterializerSettings
+        .create(actorSystem)
+        .withDispatcher(STREAM_DISPATCHER)
+        .withInputBuffer(initialInputBuffer, maxInputBuffer);
+    return ActorMaterializer.create(settings, actorSystem);
   }
 }
 
+/*
+ * tweets.hashtags.engine picks how /hashtags is computed: akka (tweets bridged into an Akka stream
+ * and back), reactor (the same pipeline on Reactor alone, no crossing between runtimes) or mongo
+ * (aggregated by the database).
+ */
 @Service
 class TweetService {
 
   private final TweetRepository repository;
-  private final ActorMaterializer actorMaterializer;
+  private final ReactorAkkaBridge bridge;
+  private final MongoHashTags mongoHashTags;
+  private final StreamMetrics metrics;
+  private final String engine;
+  private final boolean asyncBoundaries;
 
-  TweetService(TweetRepository repository, ActorMaterializer actorMaterializer) {
+  TweetService(TweetRepository repository, ReactorAkkaBridge bridge, MongoHashTags mongoHashTags,
+               StreamMetrics metrics,
+               @Value("${tweets.hashtags.engine:akka}") String engine,
+               @Value("${tweets.akka.async-boundaries:false}") boolean asyncBoundaries) {
     this.repository = repository;
-    this.actorMaterializer = actorMaterializer;
+    this.bridge = bridge;
+    this.mongoHashTags = mongoHashTags;
+    this.metrics = metrics;
+    this.engine = engine;
+    this.asyncBoundaries = asyncBoundaries;
   }
 
   Publisher<Tweet> getAllTweets() {
     return this.repository.findAll();
   }
 
+  // what /tweets lists, in an order that doesn't depend on how MongoDB happens to store them
+  Publisher<Tweet> getAllTweetsInOrder() {
+    return this.repository.findAll(TweetFeedCache.IN_ORDER);
+  }
+
   Publisher<HashTag> getAllHashTags() {
-    return Source
-        .fromPublisher(getAllTweets())
+    switch (this.engine) {
+      case "mongo":
+        return this.mongoHashTags.hashTags();
+      case "reactor":
+        return Flux
+            .from(getAllTweets())
+            .flatMapIterable(Tweet::getHashTags)
+            .distinct();
+      default:
+        return getAllHashTagsWithAkka();
+    }
+  }
+
+  private Publisher<HashTag> getAllHashTagsWithAkka() {
+    // with async boundaries, reading tweets, tokenizing them and merging the tags run concurrently
+    Source<Tweet, NotUsed> tweets = this.bridge
+        .toSource(getAllTweets())
+        .via(this.metrics.meter("hashtags", "read"));
+    if (this.asyncBoundaries) {
+      tweets = this.metrics.async("hashtags", "read", tweets);
+    }
+    Source<Set<HashTag>, NotUsed> tags = tweets
         .map(Tweet::getHashTags)
+        .via(this.metrics.meter("hashtags", "tokenize"));
+    if (this.asyncBoundaries) {
+      tags = this.metrics.async("hashtags", "tokenize", tags);
+    }
+    return this.bridge.toFlux(tags
         .reduce(this::join)
-        .mapConcat((Function<Set<HashTag>, ? extends Iterable<HashTag>>) hashTags -> hashTags)
-        .runWith(Sink.asPublisher(true), this.actorMaterializer);
+        .mapConcat((Function<Set<HashTag>, ? extends Iterable<HashTag>>) hashTags -> hashTags));
   }
 
   private <T> Set<T> join(Set<T> a, Set<T> b) {
@@ -151,10 +267,14 @@ class Tweet {
   private String id;
   private String text;
   private Author author;
+  private Instant createdAt;
+  private List<String> tags;
 
   public Tweet(String text, Author author) {
     this.text = text;
     this.author = author;
+    this.createdAt = Instant.now();
+    this.tags = getHashTags().stream().map(HashTag::getId).sorted().collect(Collectors.toList());
   }
 
   public Set<HashTag> getHashTags() {
@@ -0,0 +1,95 @@
+package com.example.tweetservice;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.reactivestreams.client.MongoClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Compares /hashtags computed in the JVM (by the Akka pipeline and on Reactor alone, reading every
+ * tweet) with the $unwind/$group aggregation in MongoDB: reply bytes received from the server and
+ * latency.
+ * Needs a local mongod. Arguments: [tweets] [runs].
+ */
+class HashTagEngineBenchmark {
+
+	public static void main(String[] args) {
+		LoggingSystem
+				.get(HashTagEngineBenchmark.class.getClassLoader())
+				.setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+		var tweets = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		var runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		var replyBytes = new AtomicLong();
+		var settings = MongoClientSettings
+				.builder()
+				.addCommandListener(new CommandListener() {
+
+					@Override
+					public void commandStarted(CommandStartedEvent event) {
+					}
+
+					@Override
+					public void commandFailed(CommandFailedEvent event) {
+					}
+
+					@Override
+					public void commandSucceeded(CommandSucceededEvent event) {
+						replyBytes.addAndGet(new RawBsonDocument(event.getResponse(), new BsonDocumentCodec()).getByteBuffer().remaining());
+					}
+				})
+				.build();
+		var client = MongoClients.create(settings);
+		var template = new ReactiveMongoTemplate(client, "tweet-benchmark");
+		var repository = new ReactiveMongoRepositoryFactory(template).getRepository(TweetRepository.class);
+		var actorSystem = ActorSystem.create("hashtag-benchmark");
+		var mongoHashTags = new MongoHashTags(template);
+		var metrics = new StreamMetrics(new SimpleMeterRegistry());
+		var materializer = ActorMaterializer.create(actorSystem);
+		var bridge = new ReactorAkkaBridge(() -> materializer, 256);
+
+		template.dropCollection(Tweet.class).block();
+		new TweetBulkWriter(template, 1000, 4).insertAll(generate(tweets)).block();
+		mongoHashTags.createIndexes().block();
+
+		var engines = new String[]{"akka", "reactor", "mongo"};
+		for (var engine : engines) {
+			var service = new TweetService(repository, bridge, mongoHashTags, metrics, engine, false);
+			Flux.from(service.getAllHashTags()).blockLast();
+			replyBytes.set(0);
+			var start = System.nanoTime();
+			var tags = 0L;
+			for (var i = 0; i < runs; i++) {
+				tags = Flux.from(service.getAllHashTags()).count().block();
+			}
+			var millis = (System.nanoTime() - start) / 1_000_000.0 / runs;
+			System.out.printf("%-6s %d tags, %.2f ms/run, %d reply bytes/run%n", engine, tags, millis, replyBytes.get() / runs);
+		}
+
+		template.dropCollection(Tweet.class).block();
+		actorSystem.terminate();
+		client.close();
+	}
+
+	private static Flux<Tweet> generate(int count) {
+		var authors = new Author[]{new Author("jboner"), new Author("viktorklang"), new Author("starbuxman")};
+		return Flux
+				.range(0, count)
+				.map(i -> new Tweet("tweet number " + i + " about #akka #spring and #reactive streams #tag" + (i % 500), authors[i % authors.length]));
+	}
+}
@@ -0,0 +1,92 @@
+package com.example.tweetservice;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.AsPublisher;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import reactor.core.publisher.Flux;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * The /hashtags pipeline over in-memory tweets, crossing into Akka and back the way getAllHashTags
+ * used to (default demand, fan-out publisher), through ReactorAkkaBridge at a few batch sizes, and
+ * on Reactor alone. Reports time per run and how many request(n) calls reached the tweet source
+ * (Reactor alone fuses with the source, so it makes none). Each pipeline first runs as many
+ * unmeasured times to warm up.
+ * Needs no database. Arguments: [tweets, 20000] [runs, 20].
+ */
+class ReactorAkkaBridgeBenchmark {
+
+	public static void main(String[] args) {
+		LoggingSystem
+				.get(ReactorAkkaBridgeBenchmark.class.getClassLoader())
+				.setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+		var count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		var runs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		var authors = new Author[]{new Author("jboner"), new Author("viktorklang"), new Author("starbuxman")};
+		var tweets = IntStream
+				.range(0, count)
+				.mapToObj(i -> new Tweet("tweet number " + i + " about #akka #spring and #reactive streams #tag" + (i % 500), authors[i % authors.length]))
+				.collect(Collectors.toList());
+
+		var actorSystem = ActorSystem.create("bridge-benchmark");
+		var materializer = ActorMaterializer.create(actorSystem);
+
+		System.out.printf("%-20s %12s %14s%n", "pipeline", "ms/run", "requests/run");
+		run("akka, default", runs, tweets, source -> Source
+				.fromPublisher(source)
+				.map(Tweet::getHashTags)
+				.reduce(ReactorAkkaBridgeBenchmark::join)
+				.mapConcat(hashTags -> hashTags)
+				.runWith(Sink.asPublisher(AsPublisher.WITH_FANOUT), materializer));
+		for (var batchSize : new int[]{256, 1024, 4096}) {
+			var bridge = new ReactorAkkaBridge(() -> materializer, batchSize);
+			run("akka, bridge " + batchSize, runs, tweets, source -> bridge.toFlux(bridge
+					.toSource(source)
+					.map(Tweet::getHashTags)
+					.reduce(ReactorAkkaBridgeBenchmark::join)
+					.mapConcat(hashTags -> hashTags)));
+		}
+		run("reactor", runs, tweets, source -> Flux
+				.from(source)
+				.flatMapIterable(Tweet::getHashTags)
+				.distinct());
+
+		actorSystem.terminate();
+	}
+
+	private static void run(String name, int runs, List<Tweet> tweets, Function<Publisher<Tweet>, Publisher<HashTag>> pipeline) {
+		var requests = new AtomicLong();
+		var source = Flux.fromIterable(tweets).doOnRequest(n -> requests.incrementAndGet());
+		for (var i = 0; i < runs; i++) {
+			Flux.from(pipeline.apply(source)).blockLast();
+		}
+		requests.set(0);
+		var start = System.nanoTime();
+		for (var i = 0; i < runs; i++) {
+			Flux.from(pipeline.apply(source)).blockLast();
+		}
+		var millis = (System.nanoTime() - start) / 1_000_000.0 / runs;
+		System.out.printf("%-20s %12.2f %14.1f%n", name, millis, (double) requests.get() / runs);
+	}
+
+	private static <T> Set<T> join(Set<T> a, Set<T> b) {
+		Set<T> set = new HashSet<>();
+		set.addAll(a);
+		set.addAll(b);
+		return set;
+	}
+}
@@ -0,0 +1,51 @@
+package com.example.tweetservice;
+
+import com.mongodb.reactivestreams.client.MongoClients;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+
+/*
+ * Compares the per-document path (one insert per tweet, as TweetRepository.saveAll does) with
+ * TweetBulkWriter against a local mongod. Arguments: [tweets] [batch size] [concurrency].
+ */
+class TweetBulkWriteBenchmark {
+
+	public static void main(String[] args) {
+		LoggingSystem
+				.get(TweetBulkWriteBenchmark.class.getClassLoader())
+				.setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+		var tweets = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		var batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		var concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+		var client = MongoClients.create("mongodb://localhost");
+		var template = new ReactiveMongoTemplate(client, "tweet-benchmark");
+		var bulkWriter = new TweetBulkWriter(template, batchSize, concurrency);
+
+		template.dropCollection(Tweet.class).block();
+		var start = System.nanoTime();
+		var inserted = generate(tweets)
+				.flatMap(template::insert)
+				.count()
+				.block();
+		var seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+		System.out.printf("per document: %d tweets in %.2fs, %.0f docs/sec%n", inserted, seconds, inserted / seconds);
+
+		template.dropCollection(Tweet.class).block();
+		var report = bulkWriter.insertAll(generate(tweets)).block();
+		System.out.printf("bulk (batch size %d, concurrency %d): %s%n", batchSize, concurrency, report);
+
+		template.dropCollection(Tweet.class).block();
+		client.close();
+	}
+
+	private static Flux<Tweet> generate(int count) {
+		var authors = new Author[]{new Author("jboner"), new Author("viktorklang"), new Author("starbuxman")};
+		return Flux
+				.range(0, count)
+				.map(i -> new Tweet("tweet number " + i + " about #akka #spring and #reactive streams", authors[i % authors.length]));
+	}
+}
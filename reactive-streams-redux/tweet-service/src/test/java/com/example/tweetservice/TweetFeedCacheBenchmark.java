@@ -0,0 +1,133 @@
+package com.example.tweetservice;
+
+import com.mongodb.reactivestreams.client.MongoClients;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+/*
+ * GET /tweets over HTTP, read from MongoDB on every request (none) and from TweetFeedCache
+ * (off-heap, once with every tweet cached and once with only the latest quarter): latency, bytes
+ * allocated on the heap per request by all threads, collections and collection time, and the heap
+ * and direct memory in use after a full collection with the cache loaded.
+ * Needs a local mongod. Arguments: [tweets] [requests].
+ */
+class TweetFeedCacheBenchmark {
+
+	public static void main(String[] args) {
+		LoggingSystem
+				.get(TweetFeedCacheBenchmark.class.getClassLoader())
+				.setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+		var tweets = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		var requests = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		var client = MongoClients.create("mongodb://localhost");
+		var template = new ReactiveMongoTemplate(client, "tweet-benchmark");
+		var repository = new ReactiveMongoRepositoryFactory(template).getRepository(TweetRepository.class);
+		var objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		var tweetService = new TweetService(repository, null, null, null, "reactor", false);
+		var feed = new TweetFeed(template, Duration.ZERO);
+
+		template.dropCollection(Tweet.class).block();
+		new TweetBulkWriter(template, 1000, 4).insertAll(generate(tweets)).block();
+
+		System.out.printf("%d tweets%n%-10s %10s %10s %10s %12s %8s %10s %10s %12s%n", tweets, "cache", "p50 ms", "p99 ms", "max ms",
+				"alloc KB/req", "gcs", "gc ms", "heap MB", "direct MB");
+		var fullSize = 0L;
+		for (var mode : new String[]{"none", "off-heap", "partial"}) {
+			var maxBytes = "partial".equals(mode) ? DataSize.ofBytes(fullSize / 4) : DataSize.ofMegabytes(1024);
+			var cache = new TweetFeedCache(template, objectMapper, "none".equals(mode) ? "none" : "off-heap", maxBytes, Duration.ZERO);
+			cache.loadAndRefresh().blockLast();
+			var routes = new TweetServiceApplication().routes(tweetService, feed, cache, 20, 100);
+			var server = HttpServer
+					.create()
+					.host("localhost")
+					.port(0)
+					.handle(new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(routes)))
+					.bindNow();
+			var http = HttpClient.create().baseUrl("http://localhost:" + server.port());
+
+			for (var i = 0; i < requests / 10 + 1; i++) {
+				fullSize = get(http);
+			}
+			var histogram = new Histogram(3);
+			var allocatedBefore = allocatedBytes();
+			var collectionsBefore = collections();
+			var collectionMillisBefore = collectionMillis();
+			for (var i = 0; i < requests; i++) {
+				var start = System.nanoTime();
+				get(http);
+				histogram.recordValue((System.nanoTime() - start) / 1000);
+			}
+			var allocated = (allocatedBytes() - allocatedBefore) / requests;
+			var collections = collections() - collectionsBefore;
+			var collectionMillis = collectionMillis() - collectionMillisBefore;
+			System.gc();
+			var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+			System.out.printf("%-10s %10.2f %10.2f %10.2f %12d %8d %10d %10.1f %12.1f%n", mode,
+					histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0, histogram.getMaxValue() / 1000.0,
+					allocated / 1024, collections, collectionMillis, heap / 1048576.0, directBytes() / 1048576.0);
+			server.disposeNow();
+		}
+
+		template.dropCollection(Tweet.class).block();
+		client.close();
+	}
+
+	// the response's size in bytes
+	private static long get(HttpClient http) {
+		return http
+				.get()
+				.uri("/tweets")
+				.responseContent()
+				.map(content -> (long) content.readableBytes())
+				.reduce(0L, Long::sum)
+				.block();
+	}
+
+	private static long allocatedBytes() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		var allocated = 0L;
+		for (var bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			allocated += Math.max(bytes, 0);
+		}
+		return allocated;
+	}
+
+	private static long collections() {
+		return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+	}
+
+	private static long collectionMillis() {
+		return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+	}
+
+	private static long directBytes() {
+		return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+				.filter(pool -> pool.getName().equals("direct"))
+				.mapToLong(BufferPoolMXBean::getMemoryUsed)
+				.sum();
+	}
+
+	private static Flux<Tweet> generate(int count) {
+		var authors = new Author[]{new Author("jboner"), new Author("viktorklang"), new Author("starbuxman")};
+		return Flux
+				.range(0, count)
+				.map(i -> new Tweet("tweet number " + i + " about #akka #spring and #reactive streams #tag" + (i % 500), authors[i % authors.length]));
+	}
+}
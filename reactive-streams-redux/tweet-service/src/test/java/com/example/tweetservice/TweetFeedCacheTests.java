@@ -0,0 +1,145 @@
+package com.example.tweetservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/*
+ * The cached /tweets body against what the uncached route encodes: the tweets in order, as one
+ * JSON array. MongoDB is a list of tweets here, queried by id range and in either order.
+ */
+class TweetFeedCacheTests {
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+	private final List<Tweet> tweets = new ArrayList<>();
+	private final ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+	// the id each of $lt, $gte and $gt was last queried with: the cache's bounds
+	private final Map<String, String> bounds = new HashMap<>();
+
+	TweetFeedCacheTests() {
+		given(this.template.find(any(Query.class), eq(Tweet.class))).willAnswer(invocation -> {
+			var query = invocation.getArgument(0, Query.class);
+			var criteria = query.getQueryObject().get("id", Document.class);
+			if (criteria != null) {
+				criteria.forEach((operator, id) -> this.bounds.put(operator, (String) id));
+			}
+			var matching = new ArrayList<Tweet>();
+			for (var tweet : this.tweets) {
+				if (criteria == null || matches(tweet.getId(), criteria)) {
+					matching.add(tweet);
+				}
+			}
+			if (Integer.valueOf(-1).equals(query.getSortObject().get("id"))) {
+				Collections.reverse(matching);
+			}
+			return Flux.fromIterable(matching);
+		});
+	}
+
+	@Test
+	void servesWhatTheUncachedRouteWouldSpanningChunks() throws Exception {
+		write(3000);
+
+		assertThat(cachedBody(DataSize.ofMegabytes(64))).isEqualTo(uncachedBody());
+	}
+
+	@Test
+	void readsTheTweetsThatDidNotFitFromMongo() throws Exception {
+		write(3000);
+
+		assertThat(cachedBody(DataSize.ofKilobytes(100))).isEqualTo(uncachedBody());
+		assertThat(cachedBody(DataSize.ofBytes(1))).isEqualTo(uncachedBody());
+	}
+
+	@Test
+	void includesTweetsWrittenSinceTheCacheWasLoaded() throws Exception {
+		write(10);
+		var cache = loaded(DataSize.ofMegabytes(64));
+
+		write(5);
+
+		assertThat(body(cache)).isEqualTo(uncachedBody());
+	}
+
+	@Test
+	void cachesTheNewestTweetsAndMovesOnWithThem() throws Exception {
+		write(3000);
+		var cache = loaded(DataSize.ofKilobytes(100));
+
+		assertThat(body(cache)).isEqualTo(uncachedBody());
+		var firstCached = this.bounds.get("$lt");
+		assertThat(firstCached).isGreaterThan(this.tweets.get(0).getId());
+		assertThat(this.bounds.get("$gt")).isEqualTo(this.tweets.get(this.tweets.size() - 1).getId());
+
+		write(1000);
+		cache.load().block();
+
+		assertThat(body(cache)).isEqualTo(uncachedBody());
+		assertThat(this.bounds.get("$lt")).isGreaterThan(firstCached);
+		assertThat(this.bounds.get("$gt")).isEqualTo(this.tweets.get(this.tweets.size() - 1).getId());
+	}
+
+	@Test
+	void servesAnEmptyArrayWhenThereAreNoTweets() throws Exception {
+		assertThat(cachedBody(DataSize.ofMegabytes(64))).isEqualTo("[]").isEqualTo(uncachedBody());
+	}
+
+	private void write(int count) {
+		var author = new Author("starbuxman");
+		for (var i = 0; i < count; i++) {
+			var tweet = new Tweet("tweet number " + this.tweets.size() + " about #spring and #reactive streams", author);
+			tweet.setId(new ObjectId().toHexString());
+			this.tweets.add(tweet);
+		}
+	}
+
+	private static boolean matches(String id, Document criteria) {
+		return (!criteria.containsKey("$gt") || id.compareTo(criteria.getString("$gt")) > 0)
+				&& (!criteria.containsKey("$gte") || id.compareTo(criteria.getString("$gte")) >= 0)
+				&& (!criteria.containsKey("$lt") || id.compareTo(criteria.getString("$lt")) < 0);
+	}
+
+	private TweetFeedCache loaded(DataSize maxBytes) {
+		var cache = new TweetFeedCache(this.template, this.objectMapper, "off-heap", maxBytes, Duration.ZERO);
+		cache.loadAndRefresh().blockLast();
+		assertThat(cache.isLoaded()).isTrue();
+		return cache;
+	}
+
+	private String cachedBody(DataSize maxBytes) {
+		return body(loaded(maxBytes));
+	}
+
+	private String body(TweetFeedCache cache) {
+		return DataBufferUtils
+				.join(cache.allTweets(new DefaultDataBufferFactory()))
+				.map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+				.block();
+	}
+
+	private String uncachedBody() throws Exception {
+		return this.objectMapper.writeValueAsString(this.tweets);
+	}
+}
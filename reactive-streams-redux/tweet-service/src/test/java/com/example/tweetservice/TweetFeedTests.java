@@ -0,0 +1,67 @@
+package com.example.tweetservice;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/*
+ * How often the feed is rebuilt, with MongoDB answering every $out aggregation, or failing the
+ * first one, and which queries /tweets/feed rejects.
+ */
+class TweetFeedTests {
+
+	private final ReactiveMongoTemplate template = mock(ReactiveMongoTemplate.class);
+	private final AtomicInteger rebuilds = new AtomicInteger();
+
+	@Test
+	void rebuildsOnceWithoutARefreshInterval() {
+		answerAggregations(false);
+
+		StepVerifier.create(new TweetFeed(this.template, Duration.ZERO).rebuildAndRefresh()).verifyComplete();
+
+		assertThat(this.rebuilds).hasValue(1);
+	}
+
+	@Test
+	void rebuildsEveryRefreshIntervalEvenAfterAFailure() {
+		answerAggregations(true);
+
+		StepVerifier
+				.withVirtualTime(() -> new TweetFeed(this.template, Duration.ofSeconds(30)).rebuildAndRefresh())
+				.thenAwait(Duration.ofSeconds(65))
+				.thenCancel()
+				.verify();
+
+		assertThat(this.rebuilds).hasValue(3);
+	}
+
+	@Test
+	void rejectsOutOfRangeLimitsAndUnparseableBefore() {
+		var client = WebTestClient
+				.bindToRouterFunction(new TweetServiceApplication().routes(null, new TweetFeed(this.template, Duration.ZERO), null, 20, 100))
+				.build();
+
+		for (var query : new String[]{"limit=0", "limit=101", "limit=9999999999", "limit=ten", "before=yesterday"}) {
+			client.get().uri("/tweets/feed?" + query).exchange().expectStatus().isBadRequest();
+		}
+	}
+
+	private void answerAggregations(boolean failFirst) {
+		given(this.template.aggregate(any(TypedAggregation.class), eq(TweetFeedItem.class))).willAnswer(invocation ->
+				Flux.defer(() -> this.rebuilds.incrementAndGet() == 1 && failFirst
+						? Flux.error(new IllegalStateException("not primary"))
+						: Flux.empty()));
+	}
+}
@@ -0,0 +1,270 @@
+package com.example.reservationservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.blockhound.BlockHound;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.HttpResources;
+import reactor.netty.resources.LoopResources;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/*
+ * Watches the Netty event loops of the HTTP and RSocket servers, which must never block. Spring
+ * Boot runs both servers on reactor-netty's global HttpResources loops.
+ *
+ * A probe task runs on every loop each probe-interval. How late it runs is the loop's lag, recorded
+ * in eventloop.lag with a histogram per loop group and thread. A watchdog thread checks the loops
+ * on the same interval. It reports a loop found waiting, sleeping, parked or blocked on a monitor,
+ * where an idle loop is running its selector instead, and a loop whose probe is more than
+ * stall-threshold late, as it is busy or blocked in native I/O. Each report carries the thread's
+ * stack as it was caught. Reports are logged, counted in eventloop.blocked and the last
+ * max-reports of them are kept for /actuator/eventloops.
+ *
+ * This samples, so blocking calls shorter than the interval can go unseen; the lag histogram still
+ * shows their cost. With diagnostics.event-loops.blockhound true, BlockHound also instruments the
+ * JDK's blocking methods when the application starts, and each call to one on a NonBlocking thread,
+ * which all these loops are, is reported as a blocking-call with the stack that made it. The call
+ * goes ahead, as failing it would fail the request. Instrumenting needs the JVM to let an agent
+ * attach, a JDK rather than a JRE, started with -XX:+AllowRedefinitionToAddDeleteMethods from Java
+ * 13 on, and costs some throughput, so it's meant for finding the culprits in a test environment
+ * rather than for production. Reactor's own operators already refuse to block() on these threads.
+ *
+ * Active when diagnostics.event-loops.enabled is true.
+ */
+@Log4j2
+@Configuration
+@ConditionalOnProperty(name = "diagnostics.event-loops.enabled", havingValue = "true")
+class EventLoopDiagnosticsConfiguration {
+
+  @Bean
+  EventLoopDiagnostics eventLoopDiagnostics(MeterRegistry registry,
+                                            @Value("${diagnostics.event-loops.probe-interval:100ms}") Duration probeInterval,
+                                            @Value("${diagnostics.event-loops.stall-threshold:50ms}") Duration stallThreshold,
+                                            @Value("${diagnostics.event-loops.max-reports:32}") int maxReports,
+                                            @Value("${diagnostics.event-loops.blockhound:false}") boolean blockHound) {
+    var diagnostics = new EventLoopDiagnostics(registry, probeInterval, stallThreshold, maxReports);
+    diagnostics.watch("servers", HttpResources.get().onServer(LoopResources.DEFAULT_NATIVE));
+    if (blockHound) {
+      BlockHound.install(builder -> builder.blockingMethodCallback(method -> diagnostics.blockingCall(method.toString())));
+      log.info("BlockHound reports blocking calls on the event loops");
+    }
+    return diagnostics;
+  }
+
+  @Bean
+  EventLoopsEndpoint eventLoopsEndpoint(EventLoopDiagnostics diagnostics) {
+    return new EventLoopsEndpoint(diagnostics);
+  }
+}
+
+@Log4j2
+class EventLoopDiagnostics implements DisposableBean {
+
+  private final MeterRegistry registry;
+  private final long interval;
+  private final long stallThreshold;
+  private final int maxReports;
+  private final List<Probe> probes = new CopyOnWriteArrayList<>();
+  private final Deque<Map<String, Object>> reports = new ArrayDeque<>();
+  private final Queue<BlockingCall> blockingCalls = new ConcurrentLinkedQueue<>();
+  private final Set<String> loggedBlockingCalls = ConcurrentHashMap.newKeySet();
+  private final Scheduler watchdog = Schedulers.newSingle("event-loop-watchdog", true);
+  private final Disposable watching;
+  private volatile boolean disposed;
+
+  EventLoopDiagnostics(MeterRegistry registry, Duration interval, Duration stallThreshold, int maxReports) {
+    this.registry = registry;
+    this.interval = interval.toNanos();
+    this.stallThreshold = stallThreshold.toNanos();
+    this.maxReports = maxReports;
+    this.watching = this.watchdog.schedulePeriodically(this::check, this.interval, this.interval, TimeUnit.NANOSECONDS);
+  }
+
+  // probes every loop of the group from now on, reported under name
+  void watch(String name, EventLoopGroup group) {
+    for (EventExecutor loop : group) {
+      var probe = new Probe(name, loop);
+      this.probes.add(probe);
+      probe.schedule();
+    }
+    log.info("watching the " + name + " event loops for lag and blocking calls");
+  }
+
+  // the latest reports, oldest first
+  synchronized List<Map<String, Object>> reports() {
+    return List.copyOf(this.reports);
+  }
+
+  // called by BlockHound on the thread making the call, so only queues it for check to report
+  void blockingCall(String method) {
+    if (!this.disposed) {
+      var thread = Thread.currentThread();
+      this.blockingCalls.offer(new BlockingCall(thread, method, thread.getStackTrace()));
+    }
+  }
+
+  void check() {
+    var call = this.blockingCalls.poll();
+    while (call != null) {
+      var thread = call.thread;
+      var name = this.probes.stream().filter(probe -> probe.thread == thread).map(probe -> probe.name).findFirst().orElse("other");
+      // each call is counted and kept, but logged once per method and thread, as they tend to repeat
+      var first = this.loggedBlockingCalls.add(call.method + " " + thread.getName());
+      report(name, thread, "blocking-call", call.method + " called", Duration.ZERO, call.stack, first);
+      call = this.blockingCalls.poll();
+    }
+    var now = System.nanoTime();
+    for (var probe : this.probes) {
+      var thread = probe.thread;
+      if (thread == null) {
+        continue;
+      }
+      var state = thread.getState();
+      var waiting = state == Thread.State.BLOCKED || state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING;
+      var late = now - probe.due;
+      var stalled = late > this.stallThreshold;
+      if (!waiting && !stalled) {
+        probe.reported = false;
+      }
+      else if (!probe.reported) {
+        probe.reported = true;
+        var kind = waiting ? state.name().toLowerCase() : "stalled";
+        var lateness = Duration.ofNanos(Math.max(late, 0));
+        report(probe.name, thread, kind, "its probe is " + lateness.toMillis() + "ms late", lateness, thread.getStackTrace(), true);
+      }
+    }
+  }
+
+  private void report(String loops, Thread thread, String kind, String detail, Duration late, StackTraceElement[] stack,
+                      boolean logged) {
+    var report = new LinkedHashMap<String, Object>();
+    report.put("time", Instant.now().toString());
+    report.put("loops", loops);
+    report.put("thread", thread.getName());
+    report.put("kind", kind);
+    report.put("detail", detail);
+    report.put("probeLateMillis", late.toMillis());
+    report.put("stackTrace", Arrays.stream(stack).map(StackTraceElement::toString).collect(Collectors.toList()));
+    synchronized (this) {
+      this.reports.addLast(report);
+      while (this.reports.size() > this.maxReports) {
+        this.reports.removeFirst();
+      }
+    }
+    Counter
+        .builder("eventloop.blocked")
+        .description("Times an event loop was caught waiting, stalled or making a blocking call")
+        .tags("loops", loops, "kind", kind)
+        .register(this.registry)
+        .increment();
+    if (logged) {
+      var exception = new IllegalStateException(kind + " event loop thread " + thread.getName() + ", " + detail);
+      exception.setStackTrace(stack);
+      log.warn("event loop " + thread.getName() + " " + kind, exception);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    this.disposed = true;
+    this.watching.dispose();
+    this.watchdog.dispose();
+  }
+
+  /*
+   * Reschedules itself on its loop every interval, noting when it should run and on what thread.
+   */
+  private class Probe implements Runnable {
+
+    private final String name;
+    private final EventExecutor loop;
+    private volatile Thread thread;
+    private volatile long due = Long.MAX_VALUE;
+    private volatile boolean reported;
+    private Timer lag;
+
+    Probe(String name, EventExecutor loop) {
+      this.name = name;
+      this.loop = loop;
+    }
+
+    void schedule() {
+      this.due = System.nanoTime() + interval;
+      this.loop.schedule(this, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+      var late = System.nanoTime() - this.due;
+      if (this.thread == null) {
+        this.thread = Thread.currentThread();
+        this.lag = Timer
+            .builder("eventloop.lag")
+            .description("How late a task scheduled on the event loop ran")
+            .tags("loops", this.name, "thread", this.thread.getName())
+            .publishPercentileHistogram()
+            .register(registry);
+      }
+      this.lag.record(Math.max(late, 0), TimeUnit.NANOSECONDS);
+      if (!disposed && !this.loop.isShuttingDown()) {
+        schedule();
+      }
+    }
+  }
+
+  private static class BlockingCall {
+
+    private final Thread thread;
+    private final String method;
+    private final StackTraceElement[] stack;
+
+    BlockingCall(Thread thread, String method, StackTraceElement[] stack) {
+      this.thread = thread;
+      this.method = method;
+      this.stack = stack;
+    }
+  }
+}
+
+@Endpoint(id = "eventloops")
+class EventLoopsEndpoint {
+
+  private final EventLoopDiagnostics diagnostics;
+
+  EventLoopsEndpoint(EventLoopDiagnostics diagnostics) {
+    this.diagnostics = diagnostics;
+  }
+
+  @ReadOperation
+  Map<String, Object> reports() {
+    return Map.of("reports", this.diagnostics.reports());
+  }
+}
@@ -0,0 +1,377 @@
+package com.example.reservationservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.ValidationDepth;
+import io.r2dbc.spi.Wrapped;
+import lombok.RequiredArgsConstructor;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.context.Context;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/*
+ * Times queries apart from the wait for the connection they run on. Per query,
+ * reservations.db.query is the time from running a statement until its last row has been read,
+ * tagged with how it ended (success, error or cancelled), reservations.db.query.rows counts the
+ * rows it returned and reservations.db.connection.acquire is the time spent waiting for a
+ * connection from the pool. A slow query shows in the first, a pool that is too small in the last.
+ *
+ * Queries are named after the repository method that runs them (ReservationRepository.findAll),
+ * or with named for those run outside of a repository; the others are unnamed.
+ */
+class QueryMetrics {
+
+  static final String UNNAMED = "unnamed";
+
+  private static final String QUERY = QueryMetrics.class.getName() + ".query";
+
+  private final MeterRegistry registry;
+  private final Map<String, QueryMeters> meters = new ConcurrentHashMap<>();
+
+  QueryMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  // names the queries run for the subscriber, unless they were named further downstream already
+  static Context named(Context context, String query) {
+    return context.hasKey(QUERY) ? context : context.put(QUERY, query);
+  }
+
+  ConnectionFactory instrument(ConnectionFactory pool) {
+    return new QueryMetricsConnectionFactory(pool, this);
+  }
+
+  // signal is run before the terminal signal goes downstream, so whoever hears of it can already see it counted
+  static <T> Flux<T> onDone(Flux<T> flux, Consumer<SignalType> signal) {
+    return flux
+        .doOnComplete(() -> signal.accept(SignalType.ON_COMPLETE))
+        .doOnError(e -> signal.accept(SignalType.ON_ERROR))
+        .doOnCancel(() -> signal.accept(SignalType.CANCEL));
+  }
+
+  QueryMeters meters(Context context) {
+    return this.meters.computeIfAbsent(context.getOrDefault(QUERY, UNNAMED), query -> new QueryMeters(this.registry, query));
+  }
+
+  static class QueryMeters {
+
+    private final MeterRegistry registry;
+    private final String query;
+    private final Timer acquires;
+    private final Counter rows;
+
+    QueryMeters(MeterRegistry registry, String query) {
+      this.registry = registry;
+      this.query = query;
+      this.acquires = Timer
+          .builder("reservations.db.connection.acquire")
+          .description("Time spent waiting for a connection from the pool")
+          .tag("query", query)
+          .publishPercentileHistogram()
+          .register(registry);
+      this.rows = Counter
+          .builder("reservations.db.query.rows")
+          .description("Rows returned by a query")
+          .tag("query", query)
+          .register(registry);
+    }
+
+    void acquired(long nanos) {
+      this.acquires.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void row() {
+      this.rows.increment();
+    }
+
+    void executed(String outcome, long nanos) {
+      Timer
+          .builder("reservations.db.query")
+          .description("Time from running a statement until its last row has been read")
+          .tags("query", this.query, "outcome", outcome)
+          .publishPercentileHistogram()
+          .register(this.registry)
+          .record(nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /*
+   * One run of a statement: over once the statement and every result it emitted are done.
+   */
+  static class Execution {
+
+    private final QueryMeters meters;
+    private final long start = System.nanoTime();
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private volatile String outcome = "success";
+
+    Execution(QueryMeters meters) {
+      this.meters = meters;
+    }
+
+    Result result(Result result) {
+      this.pending.incrementAndGet();
+      return new QueryMetricsResult(result, this);
+    }
+
+    void row() {
+      this.meters.row();
+    }
+
+    void done(SignalType signal) {
+      if (signal == SignalType.ON_ERROR) {
+        this.outcome = "error";
+      }
+      else if (signal == SignalType.CANCEL && !"error".equals(this.outcome)) {
+        this.outcome = "cancelled";
+      }
+      if (this.pending.decrementAndGet() == 0) {
+        this.meters.executed(this.outcome, System.nanoTime() - this.start);
+      }
+    }
+  }
+}
+
+@RequiredArgsConstructor
+class QueryMetricsConnectionFactory implements ConnectionFactory, Wrapped<ConnectionFactory> {
+
+  private final ConnectionFactory delegate;
+  private final QueryMetrics metrics;
+
+  @Override
+  public Mono<Connection> create() {
+    return Mono.deferWithContext(context -> {
+      var meters = this.metrics.meters(context);
+      var start = System.nanoTime();
+      return Mono
+          .from(this.delegate.create())
+          .doOnTerminate(() -> meters.acquired(System.nanoTime() - start))
+          .doOnCancel(() -> meters.acquired(System.nanoTime() - start))
+          .map(connection -> new QueryMetricsConnection(connection, this.metrics));
+    });
+  }
+
+  @Override
+  public ConnectionFactoryMetadata getMetadata() {
+    return this.delegate.getMetadata();
+  }
+
+  @Override
+  public ConnectionFactory unwrap() {
+    return this.delegate;
+  }
+}
+
+@RequiredArgsConstructor
+class QueryMetricsConnection implements Connection, Wrapped<Connection> {
+
+  private final Connection delegate;
+  private final QueryMetrics metrics;
+
+  @Override
+  public Statement createStatement(String sql) {
+    return new QueryMetricsStatement(this.delegate.createStatement(sql), this.metrics);
+  }
+
+  @Override
+  public Connection unwrap() {
+    return this.delegate;
+  }
+
+  @Override
+  public Publisher<Void> beginTransaction() {
+    return this.delegate.beginTransaction();
+  }
+
+  @Override
+  public Publisher<Void> close() {
+    return this.delegate.close();
+  }
+
+  @Override
+  public Publisher<Void> commitTransaction() {
+    return this.delegate.commitTransaction();
+  }
+
+  @Override
+  public Batch createBatch() {
+    return this.delegate.createBatch();
+  }
+
+  @Override
+  public Publisher<Void> createSavepoint(String name) {
+    return this.delegate.createSavepoint(name);
+  }
+
+  @Override
+  public boolean isAutoCommit() {
+    return this.delegate.isAutoCommit();
+  }
+
+  @Override
+  public ConnectionMetadata getMetadata() {
+    return this.delegate.getMetadata();
+  }
+
+  @Override
+  public IsolationLevel getTransactionIsolationLevel() {
+    return this.delegate.getTransactionIsolationLevel();
+  }
+
+  @Override
+  public Publisher<Void> releaseSavepoint(String name) {
+    return this.delegate.releaseSavepoint(name);
+  }
+
+  @Override
+  public Publisher<Void> rollbackTransaction() {
+    return this.delegate.rollbackTransaction();
+  }
+
+  @Override
+  public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+    return this.delegate.rollbackTransactionToSavepoint(name);
+  }
+
+  @Override
+  public Publisher<Void> setAutoCommit(boolean autoCommit) {
+    return this.delegate.setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public Publisher<Void> setTransactionIsolationLevel(IsolationLevel isolationLevel) {
+    return this.delegate.setTransactionIsolationLevel(isolationLevel);
+  }
+
+  @Override
+  public Publisher<Boolean> validate(ValidationDepth depth) {
+    return this.delegate.validate(depth);
+  }
+}
+
+@RequiredArgsConstructor
+class QueryMetricsStatement implements Statement {
+
+  private final Statement delegate;
+  private final QueryMetrics metrics;
+
+  @Override
+  public Statement add() {
+    this.delegate.add();
+    return this;
+  }
+
+  @Override
+  public Statement bind(int index, Object value) {
+    this.delegate.bind(index, value);
+    return this;
+  }
+
+  @Override
+  public Statement bind(String name, Object value) {
+    this.delegate.bind(name, value);
+    return this;
+  }
+
+  @Override
+  public Statement bindNull(int index, Class<?> type) {
+    this.delegate.bindNull(index, type);
+    return this;
+  }
+
+  @Override
+  public Statement bindNull(String name, Class<?> type) {
+    this.delegate.bindNull(name, type);
+    return this;
+  }
+
+  @Override
+  public Statement returnGeneratedValues(String... columns) {
+    this.delegate.returnGeneratedValues(columns);
+    return this;
+  }
+
+  @Override
+  public Statement fetchSize(int rows) {
+    this.delegate.fetchSize(rows);
+    return this;
+  }
+
+  // a result counts as emitted before it's consumed, so the run isn't over until what reads it is done too
+  @Override
+  public Publisher<? extends Result> execute() {
+    return Flux.deferWithContext(context -> {
+      var execution = new QueryMetrics.Execution(this.metrics.meters(context));
+      return QueryMetrics.onDone(Flux.from(this.delegate.execute()).map(execution::result), execution::done);
+    });
+  }
+}
+
+@RequiredArgsConstructor
+class QueryMetricsResult implements Result {
+
+  private final Result delegate;
+  private final QueryMetrics.Execution execution;
+  private final AtomicBoolean consumed = new AtomicBoolean();
+
+  @Override
+  public Publisher<Integer> getRowsUpdated() {
+    return consumed(Flux.from(this.delegate.getRowsUpdated()));
+  }
+
+  @Override
+  public <T> Publisher<T> map(BiFunction<Row, RowMetadata, ? extends T> mappingFunction) {
+    return consumed(Flux.<T>from(this.delegate.map(mappingFunction)).doOnNext(row -> this.execution.row()));
+  }
+
+  private <T> Flux<T> consumed(Flux<T> consumption) {
+    return QueryMetrics.onDone(consumption, signal -> {
+      if (this.consumed.compareAndSet(false, true)) {
+        this.execution.done(signal);
+      }
+    });
+  }
+}
+
+// names the queries a repository runs after the method that runs them
+@RequiredArgsConstructor
+class QueryNamingInterceptor implements MethodInterceptor {
+
+  private final String repository;
+
+  @Override
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    var result = invocation.proceed();
+    var query = this.repository + "." + invocation.getMethod().getName();
+    if (result instanceof Flux) {
+      return ((Flux<?>) result).subscriberContext(context -> QueryMetrics.named(context, query));
+    }
+    if (result instanceof Mono) {
+      return ((Mono<?>) result).subscriberContext(context -> QueryMetrics.named(context, query));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,292 @@
+package com.example.reservationservice;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.rsocket.ConnectionSetupPayload;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.RejectedException;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.CompositeMetadataFlyweight;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.plugins.SocketAcceptorInterceptor;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.RSocketProxy;
+import lombok.extern.log4j.Log4j2;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+@Configuration
+class RSocketCompressionConfiguration {
+
+  @Bean
+  PayloadCompression payloadCompression(
+      @Value("${rsocket.compression.enabled:true}") boolean enabled,
+      @Value("${rsocket.compression.threshold:1024}") int threshold,
+      @Value("${rsocket.compression.max-inflated-size:16777215}") int maxInflatedSize,
+      @Value("${rsocket.fragmentation.mtu:0}") int mtu) {
+    return new PayloadCompression(enabled, threshold, maxInflatedSize, mtu);
+  }
+
+  @Bean
+  ServerRSocketFactoryProcessor payloadCompressionProcessor(PayloadCompression compression) {
+    return compression::configure;
+  }
+}
+
+/*
+ * Negotiated deflate compression of RSocket payload data, plus MTU fragmentation of large frames.
+ *
+ * A requester that can inflate says so with a message/x.rsocket.compression.v0 = deflate entry in
+ * its composite setup metadata; only then does the server compress what it sends on that
+ * connection. The server always inflates what it receives, so a requester learns that the server
+ * supports compression from the first compressed response and compresses its own requests from
+ * there on. Data smaller than the threshold, or that doesn't get smaller, is sent as-is. A
+ * requester that receives a compressed request from the server likewise compresses its responses.
+ *
+ * Inflating stops once the data grows past max-inflated-size, by default the largest frame RSocket
+ * carries, and the payload is rejected with a RejectedException rather than filling the heap.
+ *
+ * A compressed payload is marked by the same entry appended to its composite metadata, which
+ * peers that don't know it ignore, and which is stripped again on inflating so that a broker can
+ * forward the payload as if it had never been compressed. Connections whose metadata isn't
+ * composite are left alone.
+ *
+ * This class is copied as-is into each RSocket module, like the greetings DTOs.
+ */
+@Log4j2
+class PayloadCompression {
+
+  static final String MIME_TYPE = "message/x.rsocket.compression.v0";
+  static final String DEFLATE = "deflate";
+
+  private static final String COMPOSITE = WellKnownMimeType.MESSAGE_RSOCKET_COMPOSITE_METADATA.getString();
+  private static final byte[] MARKER = marker();
+  private static final ByteBuf MARKER_BUFFER = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(MARKER));
+
+  private final boolean enabled;
+  private final int threshold;
+  private final int maxInflatedSize;
+  private final int mtu;
+
+  PayloadCompression(boolean enabled, int threshold, int maxInflatedSize, int mtu) {
+    this.enabled = enabled;
+    this.threshold = threshold;
+    this.maxInflatedSize = maxInflatedSize;
+    this.mtu = mtu;
+  }
+
+  RSocketFactory.ServerRSocketFactory configure(RSocketFactory.ServerRSocketFactory factory) {
+    if (this.mtu > 0) {
+      factory.fragment(this.mtu);
+    }
+    return this.enabled ? factory.addSocketAcceptorPlugin(negotiate()) : factory;
+  }
+
+  void configure(RSocketRequester.Builder builder) {
+    if (this.enabled) {
+      builder.setupMetadata(DEFLATE, MimeType.valueOf(MIME_TYPE));
+    }
+    builder.rsocketFactory(factory -> {
+      if (this.mtu > 0) {
+        factory.fragment(this.mtu);
+      }
+      if (this.enabled) {
+        // the server compresses its requests too, once it knows this side inflates
+        factory
+            .addRequesterPlugin(rsocket -> learningPeer(rsocket, true))
+            .addResponderPlugin(rsocket -> learningPeer(rsocket, false));
+      }
+    });
+  }
+
+  // compresses what it sends only once a compressed payload from the peer shows that it inflates
+  private CompressingRSocket learningPeer(RSocket rsocket, boolean requester) {
+    var peerInflates = new AtomicBoolean();
+    UnaryOperator<Payload> send = payload -> peerInflates.get() ? compress(payload) : payload;
+    UnaryOperator<Payload> receive = payload -> {
+      if (isCompressed(payload)) {
+        peerInflates.set(true);
+      }
+      return decompress(payload);
+    };
+    return requester ? new CompressingRSocket(rsocket, send, receive) : new CompressingRSocket(rsocket, receive, send);
+  }
+
+  private SocketAcceptorInterceptor negotiate() {
+    return acceptor -> (setup, sendingSocket) -> {
+      if (!COMPOSITE.equals(setup.metadataMimeType())) {
+        return acceptor.accept(setup, sendingSocket);
+      }
+      var peerInflates = advertises(setup);
+      UnaryOperator<Payload> send = peerInflates ? this::compress : UnaryOperator.identity();
+      log.debug("rsocket peer " + (peerInflates ? "accepts" : "does not accept") + " compressed payloads");
+      return acceptor
+          .accept(setup, new CompressingRSocket(sendingSocket, send, this::decompress))
+          .map(handler -> new CompressingRSocket(handler, this::decompress, send));
+    };
+  }
+
+  private static boolean advertises(ConnectionSetupPayload setup) {
+    if (!setup.hasMetadata()) {
+      return false;
+    }
+    for (var entry : new CompositeMetadata(setup.sliceMetadata(), false)) {
+      if (MIME_TYPE.equals(entry.getMimeType()) && DEFLATE.equals(entry.getContent().toString(StandardCharsets.UTF_8))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  Payload compress(Payload payload) {
+    var data = payload.sliceData();
+    if (data.readableBytes() < this.threshold) {
+      return payload;
+    }
+    var deflated = deflate(data);
+    if (deflated.readableBytes() >= data.readableBytes()) {
+      deflated.release();
+      return payload;
+    }
+    var metadata = payload.hasMetadata()
+        ? Unpooled.wrappedBuffer(payload.sliceMetadata().retain(), Unpooled.wrappedBuffer(MARKER))
+        : Unpooled.wrappedBuffer(MARKER);
+    payload.release();
+    return ByteBufPayload.create(deflated, metadata);
+  }
+
+  Payload decompress(Payload payload) {
+    if (!isCompressed(payload)) {
+      return payload;
+    }
+    var metadata = payload.sliceMetadata();
+    ByteBuf inflated;
+    try {
+      inflated = inflate(payload.sliceData(), this.maxInflatedSize);
+    }
+    catch (RuntimeException e) {
+      payload.release();
+      throw e;
+    }
+    var result = ByteBufPayload.create(inflated, metadata.retainedSlice(0, metadata.readableBytes() - MARKER.length));
+    payload.release();
+    return result;
+  }
+
+  // the marker is always the last metadata entry, so there's no need to parse the others
+  static boolean isCompressed(Payload payload) {
+    if (!payload.hasMetadata()) {
+      return false;
+    }
+    var metadata = payload.sliceMetadata();
+    var offset = metadata.readableBytes() - MARKER.length;
+    return offset >= 0 && ByteBufUtil.equals(metadata, metadata.readerIndex() + offset, MARKER_BUFFER, 0, MARKER.length);
+  }
+
+  private static ByteBuf deflate(ByteBuf data) {
+    var out = ByteBufAllocator.DEFAULT.buffer(data.readableBytes() / 2);
+    var deflater = new Deflater(Deflater.BEST_SPEED);
+    try (var stream = new DeflaterOutputStream(new ByteBufOutputStream(out), deflater)) {
+      data.getBytes(data.readerIndex(), stream, data.readableBytes());
+    }
+    catch (IOException e) {
+      out.release();
+      throw new UncheckedIOException(e);
+    }
+    finally {
+      deflater.end();
+    }
+    return out;
+  }
+
+  private static ByteBuf inflate(ByteBuf data, int maxSize) {
+    var out = ByteBufAllocator.DEFAULT.buffer((int) Math.min((long) data.readableBytes() * 4, maxSize));
+    var inflater = new Inflater();
+    try (var stream = new InflaterInputStream(new ByteBufInputStream(data.duplicate()), inflater)) {
+      // writeBytes grows the buffer as needed, by at most one more byte than the limit allows
+      while (out.writeBytes(stream, Math.min(8192, maxSize + 1 - out.readableBytes())) != -1) {
+        if (out.readableBytes() > maxSize) {
+          out.release();
+          throw new RejectedException("compressed payload data inflates to more than " + maxSize + " bytes");
+        }
+      }
+    }
+    catch (IOException e) {
+      out.release();
+      throw new UncheckedIOException(e);
+    }
+    finally {
+      inflater.end();
+    }
+    return out;
+  }
+
+  private static byte[] marker() {
+    var metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+    CompositeMetadataFlyweight.encodeAndAddMetadata(metadata, ByteBufAllocator.DEFAULT, MIME_TYPE,
+        Unpooled.copiedBuffer(DEFLATE, StandardCharsets.UTF_8));
+    var bytes = ByteBufUtil.getBytes(metadata);
+    metadata.release();
+    return bytes;
+  }
+}
+
+/*
+ * Applies toDelegate to every payload handed to the wrapped RSocket and fromDelegate to every
+ * payload it produces. As a requester that is compress/inflate, as a responder inflate/compress.
+ * A payload that can't be inflated fails the exchange it belongs to.
+ */
+class CompressingRSocket extends RSocketProxy {
+
+  private final UnaryOperator<Payload> toDelegate;
+  private final UnaryOperator<Payload> fromDelegate;
+
+  CompressingRSocket(RSocket delegate, UnaryOperator<Payload> toDelegate, UnaryOperator<Payload> fromDelegate) {
+    super(delegate);
+    this.toDelegate = toDelegate;
+    this.fromDelegate = fromDelegate;
+  }
+
+  @Override
+  public Mono<Void> fireAndForget(Payload payload) {
+    return Mono.defer(() -> super.fireAndForget(this.toDelegate.apply(payload)));
+  }
+
+  @Override
+  public Mono<Payload> requestResponse(Payload payload) {
+    return Mono.defer(() -> super.requestResponse(this.toDelegate.apply(payload))).map(this.fromDelegate);
+  }
+
+  @Override
+  public Flux<Payload> requestStream(Payload payload) {
+    return Flux.defer(() -> super.requestStream(this.toDelegate.apply(payload))).map(this.fromDelegate);
+  }
+
+  @Override
+  public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+    return super.requestChannel(Flux.from(payloads).map(this.toDelegate)).map(this.fromDelegate);
+  }
+}
@@ -0,0 +1,230 @@
+package com.example.reservationservice;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.r2dbc.connectionfactory.R2dbcTransactionManager;
+import org.springframework.data.r2dbc.connectionfactory.lookup.AbstractRoutingConnectionFactory;
+import org.springframework.data.repository.Repository;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.reactive.GenericReactiveTransaction;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/*
+ * Sends reads to a set of read replicas and everything else to the primary (spring.r2dbc.url).
+ * Reads are repository find/count/exists calls and read-only reactive transactions; among the
+ * replicas, a connection is requested from the one with the fewest pending acquires. For a short
+ * window after a write, reads can stick to the primary so that a client sees its own writes.
+ *
+ * Active only when reservations.replicas.urls is set.
+ */
+@Configuration
+@ConditionalOnProperty("reservations.replicas.urls")
+class ReplicaRoutingConfiguration {
+
+  @Bean
+  ReplicaRoutingConnectionFactory connectionFactory(
+      ReservationConnections connections,
+      @Value("${spring.r2dbc.url}") String primaryUrl,
+      @Value("${reservations.replicas.urls}") String[] replicaUrls,
+      @Value("${spring.r2dbc.username}") String username,
+      @Value("${spring.r2dbc.password}") String password,
+      @Value("${reservations.replicas.pool-size:10}") int poolSize,
+      @Value("${reservations.replicas.read-your-writes-window:0s}") Duration readYourWritesWindow) {
+    var primary = connections.pool(primaryUrl, username, password, 1, poolSize);
+    var replicas = Arrays
+        .stream(replicaUrls)
+        .map(url -> connections.pool(url.trim(), username, password, 1, poolSize))
+        .collect(Collectors.toList());
+    return new ReplicaRoutingConnectionFactory(primary, replicas, readYourWritesWindow);
+  }
+
+  @Bean
+  ReplicaAwareTransactionManager transactionManager(ReplicaRoutingConnectionFactory connectionFactory) {
+    return new ReplicaAwareTransactionManager(connectionFactory);
+  }
+
+  @Bean
+  static BeanPostProcessor replicaRoutingRepositoryPostProcessor(ObjectProvider<ReplicaRoutingConnectionFactory> connectionFactory) {
+    return new BeanPostProcessor() {
+
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof Repository && bean instanceof Advised) {
+          ((Advised) bean).addAdvice(0, new ReplicaRoutingInterceptor(connectionFactory.getObject()));
+        }
+        return bean;
+      }
+    };
+  }
+}
+
+@Log4j2
+class ReplicaRoutingConnectionFactory extends AbstractRoutingConnectionFactory {
+
+  enum Target {
+    PRIMARY, REPLICA
+  }
+
+  private static final String TARGET = ReplicaRoutingConnectionFactory.class.getName() + ".target";
+
+  private final Duration readYourWritesWindow;
+  private final AtomicLong lastWrite = new AtomicLong(System.nanoTime() - Long.MAX_VALUE / 2);
+
+  ReplicaRoutingConnectionFactory(ConnectionFactory primary, List<? extends ConnectionFactory> replicas, Duration readYourWritesWindow) {
+    this.readYourWritesWindow = readYourWritesWindow;
+    setTargetConnectionFactories(Map.of(
+        Target.PRIMARY, primary,
+        Target.REPLICA, new LeastPendingConnectionFactory(replicas)));
+    setDefaultTargetConnectionFactory(primary);
+    log.info("routing reads across " + replicas.size() + " replica(s)");
+  }
+
+  // marks the subscriber as a reader, unless a target was chosen further downstream already
+  static Context reads(Context context) {
+    return context.hasKey(TARGET) ? context : context.put(TARGET, Target.REPLICA);
+  }
+
+  // pins the subscriber to the primary, whatever it is marked as upstream
+  static Context primary(Context context) {
+    return context.put(TARGET, Target.PRIMARY);
+  }
+
+  void wrote() {
+    this.lastWrite.set(System.nanoTime());
+  }
+
+  @Override
+  protected Mono<Object> determineCurrentLookupKey() {
+    return Mono
+        .subscriberContext()
+        .map(context -> context.getOrDefault(TARGET, Target.PRIMARY) == Target.REPLICA && !recentlyWritten()
+            ? Target.REPLICA
+            : Target.PRIMARY);
+  }
+
+  private boolean recentlyWritten() {
+    return System.nanoTime() - this.lastWrite.get() < this.readYourWritesWindow.toNanos();
+  }
+}
+
+class LeastPendingConnectionFactory implements ConnectionFactory {
+
+  private final List<? extends ConnectionFactory> targets;
+  private final AtomicInteger[] pending;
+
+  LeastPendingConnectionFactory(List<? extends ConnectionFactory> targets) {
+    this.targets = targets;
+    this.pending = new AtomicInteger[targets.size()];
+    Arrays.setAll(this.pending, i -> new AtomicInteger());
+  }
+
+  @Override
+  public Mono<Connection> create() {
+    return Mono.defer(() -> {
+      var target = leastPending();
+      this.pending[target].incrementAndGet();
+      return Mono
+          .<Connection>from(this.targets.get(target).create())
+          .doFinally(signal -> this.pending[target].decrementAndGet());
+    });
+  }
+
+  @Override
+  public ConnectionFactoryMetadata getMetadata() {
+    return this.targets.get(0).getMetadata();
+  }
+
+  // starts at a random target so that ties don't all land on the first replica
+  private int leastPending() {
+    var start = ThreadLocalRandom.current().nextInt(this.pending.length);
+    var best = start;
+    for (var i = 1; i < this.pending.length; i++) {
+      var candidate = (start + i) % this.pending.length;
+      if (this.pending[candidate].get() < this.pending[best].get()) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+}
+
+class ReplicaAwareTransactionManager extends R2dbcTransactionManager {
+
+  private final ReplicaRoutingConnectionFactory connectionFactory;
+
+  ReplicaAwareTransactionManager(ReplicaRoutingConnectionFactory connectionFactory) {
+    super(connectionFactory);
+    this.connectionFactory = connectionFactory;
+  }
+
+  @Override
+  protected Mono<Void> doBegin(TransactionSynchronizationManager synchronizationManager, Object transaction,
+                               TransactionDefinition definition) {
+    var begin = super.doBegin(synchronizationManager, transaction, definition);
+    return definition.isReadOnly() ? begin.subscriberContext(ReplicaRoutingConnectionFactory::reads) : begin;
+  }
+
+  @Override
+  protected Mono<Void> doCommit(TransactionSynchronizationManager synchronizationManager, GenericReactiveTransaction status) {
+    var commit = super.doCommit(synchronizationManager, status);
+    return status.isReadOnly() ? commit : commit.doOnSuccess(v -> this.connectionFactory.wrote());
+  }
+}
+
+@RequiredArgsConstructor
+class ReplicaRoutingInterceptor implements MethodInterceptor {
+
+  private static final Set<String> READS = Set.of("findAll", "findById", "findAllById", "existsById", "count", "findAllProjected",
+      "scanAll");
+  private static final Set<String> WRITES = Set.of("save", "saveAll", "insertAll", "deleteById", "delete", "deleteAll");
+
+  private final ReplicaRoutingConnectionFactory connectionFactory;
+
+  @Override
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    var method = invocation.getMethod().getName();
+    var result = invocation.proceed();
+    if (READS.contains(method)) {
+      if (result instanceof Flux) {
+        return ((Flux<?>) result).subscriberContext(ReplicaRoutingConnectionFactory::reads);
+      }
+      if (result instanceof Mono) {
+        return ((Mono<?>) result).subscriberContext(ReplicaRoutingConnectionFactory::reads);
+      }
+    }
+    if (WRITES.contains(method)) {
+      if (result instanceof Flux) {
+        return ((Flux<?>) result).doOnComplete(this.connectionFactory::wrote);
+      }
+      if (result instanceof Mono) {
+        return ((Mono<?>) result).doOnSuccess(v -> this.connectionFactory.wrote());
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,348 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.postgresql.PostgresqlConnectionFactoryProvider;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.r2dbc.connectionfactory.init.ConnectionFactoryInitializer;
+import org.springframework.data.r2dbc.connectionfactory.init.ResourceDatabasePopulator;
+import org.springframework.data.r2dbc.connectionfactory.init.ScriptUtils;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Controller;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.ReplayProcessor;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Pushes inserts, updates and deletes of reservations to RSocket clients. Triggers (see
+ * reservation-changes.sql) record every row change in the reservation_change table and number it
+ * as its transaction commits, so the numbers follow the order in which changes became visible.
+ * That numbering takes a lock through the commit, so writes to reservations commit one
+ * transaction at a time.
+ * A NOTIFY then wakes the listener, which reads what was numbered since the last change it saw.
+ * After a reconnect it reads what it missed the same way, so no change is skipped; should the
+ * table have been pruned past that point meanwhile, subscribers get an error instead.
+ *
+ * The feed keeps the most recent changes in memory so that clients can resume after a given
+ * sequence number, and reads older ones back from the table. Resuming from a change that is no
+ * longer stored fails, rather than silently skipping what came in between. Each subscriber gets
+ * its own bounded buffer.
+ */
+@Configuration
+class ReservationChangeFeedConfiguration {
+
+  @Bean
+  ConnectionFactoryInitializer reservationChangesInitializer(ConnectionFactory connectionFactory) {
+    var populator = new ResourceDatabasePopulator(new ClassPathResource("reservation-changes.sql"));
+    populator.setSeparator(ScriptUtils.EOF_STATEMENT_SEPARATOR);
+    var initializer = new ConnectionFactoryInitializer();
+    initializer.setConnectionFactory(connectionFactory);
+    initializer.setDatabasePopulator(populator);
+    return initializer;
+  }
+}
+
+@Log4j2
+@Component
+class ReservationChangeFeed implements DisposableBean {
+
+  private static final String CHANNEL = "reservation_changes";
+  private static final String CHANGES_AFTER =
+      "SELECT sequence, operation, reservation::TEXT FROM reservation_change WHERE sequence > $1 ORDER BY sequence";
+
+  private final Mono<PostgresqlConnection> listenerConnections;
+  private final ObjectMapper objectMapper;
+  private final int historySize;
+  private final int subscriberBufferSize;
+  private final long retention;
+  private final ReplayProcessor<ReservationChange> history;
+  private final DirectProcessor<RuntimeException> losses = DirectProcessor.create();
+  private final DirectProcessor<Long> reconnects = DirectProcessor.create();
+  private final MonoProcessor<Void> ready = MonoProcessor.create();
+  private final AtomicLong latest = new AtomicLong(-1);
+  private final AtomicLong evictedThrough = new AtomicLong(-1);
+  private final AtomicInteger connections = new AtomicInteger();
+  private final long[] retained;
+  private int retainedCount;
+  private int next;
+  private long prunedAt;
+  private Disposable listener;
+
+  @Autowired
+  ReservationChangeFeed(
+      ObjectMapper objectMapper,
+      @Value("${spring.r2dbc.url}") String url,
+      @Value("${spring.r2dbc.username}") String username,
+      @Value("${spring.r2dbc.password}") String password,
+      @Value("${reservations.changes.history-size:1024}") int historySize,
+      @Value("${reservations.changes.subscriber-buffer-size:256}") int subscriberBufferSize,
+      @Value("${reservations.changes.retention:100000}") long retention) {
+    this(objectMapper, Mono.defer(listenerConnectionFactory(url, username, password)::create), historySize,
+        subscriberBufferSize, retention);
+  }
+
+  // each subscription to listenerConnections opens a new connection
+  ReservationChangeFeed(ObjectMapper objectMapper, Mono<PostgresqlConnection> listenerConnections, int historySize,
+                        int subscriberBufferSize, long retention) {
+    this.listenerConnections = listenerConnections;
+    this.objectMapper = objectMapper;
+    this.historySize = historySize;
+    this.subscriberBufferSize = subscriberBufferSize;
+    // the table has to hold at least what's in memory, or resuming could find a hole between the two
+    this.retention = Math.max(retention, historySize);
+    this.history = ReplayProcessor.create(historySize);
+    this.retained = new long[historySize];
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void listen() {
+    this.listener = Flux
+        .usingWhen(this.listenerConnections, this::follow, PostgresqlConnection::close)
+        .concatWith(Flux.defer(() -> Flux.error(new IllegalStateException("the listener connection was closed"))))
+        .doOnError(e -> log.warn("lost the reservation change listener connection", e))
+        .retryBackoff(Long.MAX_VALUE, Duration.ofSeconds(1), Duration.ofSeconds(30))
+        .subscribe(this::publish);
+  }
+
+  // changes with a sequence number greater than after, followed by every new change; null means new changes only
+  Flux<ReservationChange> changes(Long after) {
+    return this.ready
+        .thenMany(Flux.defer(() -> changesAfter(after == null ? this.latest.get() : after)))
+        .mergeWith(this.losses.flatMap(Flux::error))
+        .onBackpressureBuffer(this.subscriberBufferSize,
+            change -> log.warn("subscriber fell more than " + this.subscriberBufferSize + " changes behind at " + change.getSequence()),
+            BufferOverflowStrategy.ERROR);
+  }
+
+  // the sequence number the feed had reached each time its listener reconnected
+  Flux<Long> reconnects() {
+    return this.reconnects;
+  }
+
+  @Override
+  public void destroy() {
+    if (this.listener != null) {
+      this.listener.dispose();
+    }
+    this.history.onComplete();
+  }
+
+  private Flux<ReservationChange> follow(PostgresqlConnection connection) {
+    var reconnected = this.connections.incrementAndGet() > 1;
+    // the first wake up comes after subscribing to the notifications, so nothing falls in between
+    var wakeUps = Flux.merge(connection.getNotifications().map(Notification::getParameter), Mono.just(CHANNEL));
+    return connection
+        .createStatement("LISTEN " + CHANNEL)
+        .execute()
+        .flatMap(PostgresqlResult::getRowsUpdated)
+        .thenMany(Flux.defer(() -> {
+          log.info("listening for reservation changes after " + this.latest.get());
+          if (reconnected) {
+            this.reconnects.onNext(this.latest.get());
+          }
+          return wakeUps;
+        }))
+        .onBackpressureLatest()
+        .concatMap(wakeUp -> catchUp(connection), 1);
+  }
+
+  // what was numbered since the last change published, and pruning every so often
+  private Flux<ReservationChange> catchUp(PostgresqlConnection connection) {
+    var latest = this.latest.get();
+    if (latest < 0) {
+      // starting up, history begins here rather than with everything in the table
+      return newest(connection)
+          .doOnNext(newest -> {
+            this.latest.set(newest);
+            this.evictedThrough.set(newest);
+            this.prunedAt = newest;
+            this.ready.onComplete();
+          })
+          .thenMany(Flux.empty());
+    }
+    return retained(connection, latest)
+        .flatMapMany(retained -> {
+          if (!retained) {
+            return lost(connection, latest);
+          }
+          return Flux.from(query(connection, CHANGES_AFTER, latest));
+        })
+        .concatWith(prune(connection));
+  }
+
+  // the table was pruned past what this had seen: subscribers are told and this starts over from the newest change
+  private Mono<ReservationChange> lost(PostgresqlConnection connection, long latest) {
+    var loss = new IllegalStateException("reservation changes after " + latest + " were pruned before they could be read");
+    log.error(loss.getMessage());
+    return newest(connection)
+        .doOnNext(newest -> {
+          this.retainedCount = 0;
+          this.next = 0;
+          this.latest.set(newest);
+          this.evictedThrough.set(newest);
+          this.losses.onNext(loss);
+        })
+        .then(Mono.empty());
+  }
+
+  private Flux<ReservationChange> prune(PostgresqlConnection connection) {
+    return Flux.defer(() -> {
+      var latest = this.latest.get();
+      if (latest - this.prunedAt < Math.max(1, this.retention / 10)) {
+        return Flux.empty();
+      }
+      this.prunedAt = latest;
+      return connection
+          .createStatement("DELETE FROM reservation_change WHERE sequence <= $1")
+          .bind("$1", latest - this.retention)
+          .execute()
+          .flatMap(PostgresqlResult::getRowsUpdated)
+          .thenMany(Flux.empty());
+    });
+  }
+
+  private Flux<ReservationChange> changesAfter(long after) {
+    if (after >= this.evictedThrough.get()) {
+      return this.history.filter(change -> change.getSequence() > after);
+    }
+    // older than the memory holds, read them from the table a page at a time and look again
+    var last = new AtomicLong(after);
+    return Flux
+        .usingWhen(this.listenerConnections, connection -> retained(connection, after)
+            .flatMapMany(retained -> retained
+                ? query(connection, CHANGES_AFTER + " LIMIT " + this.historySize, after)
+                : Flux.error(new IllegalArgumentException("changes after " + after + " are no longer retained"))),
+            PostgresqlConnection::close)
+        .doOnNext(change -> last.set(change.getSequence()))
+        .concatWith(Flux.defer(() -> changesAfter(last.get())));
+  }
+
+  // whether every change after is still stored: the one numbered after is, and pruning only removes the oldest
+  private Mono<Boolean> retained(PostgresqlConnection connection, long after) {
+    var sql = after == 0
+        ? "SELECT coalesce(min(sequence), 1) <= 1 FROM reservation_change"
+        : "SELECT EXISTS (SELECT 1 FROM reservation_change WHERE sequence = $1)";
+    var statement = connection.createStatement(sql);
+    if (after > 0) {
+      statement.bind("$1", after);
+    }
+    return statement
+        .execute()
+        .flatMap(result -> result.map((row, metadata) -> row.get(0, Boolean.class)))
+        .next();
+  }
+
+  private static Mono<Long> newest(PostgresqlConnection connection) {
+    return connection
+        .createStatement("SELECT coalesce(max(sequence), 0) FROM reservation_change")
+        .execute()
+        .flatMap(result -> result.map((row, metadata) -> row.get(0, Long.class)))
+        .next();
+  }
+
+  private Flux<ReservationChange> query(PostgresqlConnection connection, String sql, long after) {
+    return connection
+        .createStatement(sql)
+        .bind("$1", after)
+        .execute()
+        .flatMap(result -> result.map((row, metadata) -> new ReservationChange(
+            row.get(0, Long.class),
+            ReservationChange.Operation.valueOf(row.get(1, String.class)),
+            read(row.get(2, String.class)))));
+  }
+
+  // changes are read one at a time from the listener connection, so this is never called concurrently
+  private void publish(ReservationChange change) {
+    if (this.retainedCount == this.historySize) {
+      this.evictedThrough.set(this.retained[this.next]);
+    }
+    else {
+      this.retainedCount++;
+    }
+    this.retained[this.next] = change.getSequence();
+    this.next = (this.next + 1) % this.historySize;
+    this.latest.set(change.getSequence());
+    this.history.onNext(change);
+  }
+
+  // LISTEN needs a long-lived connection of its own rather than one borrowed from the pool. This is
+  // deliberately not a bean, so it doesn't replace the auto-configured ConnectionFactory.
+  private static PostgresqlConnectionFactory listenerConnectionFactory(String url, String username, String password) {
+    var options = ConnectionFactoryOptions
+        .parse(url)
+        .mutate()
+        .option(ConnectionFactoryOptions.USER, username)
+        .option(ConnectionFactoryOptions.PASSWORD, password)
+        .build();
+    return new PostgresqlConnectionFactoryProvider().create(options);
+  }
+
+  private Reservation read(String json) {
+    try {
+      return this.objectMapper.readValue(json, Reservation.class);
+    }
+    catch (JsonProcessingException e) {
+      throw new IllegalStateException("could not read reservation " + json, e);
+    }
+  }
+}
+
+@Controller
+@RequiredArgsConstructor
+class ReservationChangesController {
+
+  private final ReservationChangeFeed feed;
+
+  @MessageMapping("reservations.changes")
+  Flux<ReservationChange> changes(ReservationChangesRequest request) {
+    return this.feed.changes(request.getAfter());
+  }
+}
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class ReservationChangesRequest {
+  private Long after;
+}
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class ReservationChange {
+
+  enum Operation {
+    INSERT, UPDATE, DELETE
+  }
+
+  private long sequence;
+  private Operation operation;
+  private Reservation reservation;
+}
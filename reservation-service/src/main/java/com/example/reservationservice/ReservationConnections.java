@@ -0,0 +1,116 @@
+package com.example.reservationservice;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.Repository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Builds the pools of connections to Postgres: with PreparedStatementCachingConnectionFactory
+ * under them when reservations.statements.cache-size is more than 0, and with QueryMetrics over
+ * them when reservations.queries.metrics-enabled is true. With either, the pool to spring.r2dbc.url
+ * is built here rather than by Spring Boot, unless ReplicaRoutingConfiguration builds it along with
+ * those to the replicas.
+ */
+@Configuration
+class ReservationConnectionsConfiguration {
+
+  @Bean
+  ReservationConnections reservationConnections(
+      @Value("${reservations.statements.cache-size:0}") int statementCacheSize,
+      @Value("${reservations.queries.metrics-enabled:false}") boolean metricsEnabled,
+      ObjectProvider<MeterRegistry> meterRegistry) {
+    var metrics = metricsEnabled ? new QueryMetrics(meterRegistry.getObject()) : null;
+    return new ReservationConnections(statementCacheSize, metrics);
+  }
+
+  @Bean
+  @ConditionalOnExpression("'${reservations.replicas.urls:}' == '' and " +
+      "(${reservations.statements.cache-size:0} > 0 or ${reservations.queries.metrics-enabled:false})")
+  ConnectionFactory connectionFactory(
+      ReservationConnections connections,
+      @Value("${spring.r2dbc.url}") String url,
+      @Value("${spring.r2dbc.username}") String username,
+      @Value("${spring.r2dbc.password}") String password,
+      @Value("${spring.r2dbc.pool.initial-size:10}") int initialSize,
+      @Value("${spring.r2dbc.pool.max-size:10}") int maxSize) {
+    return connections.pool(url, username, password, initialSize, maxSize);
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "reservations.queries.metrics-enabled", havingValue = "true")
+  static BeanPostProcessor queryNamingRepositoryPostProcessor() {
+    return new BeanPostProcessor() {
+
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof Repository && bean instanceof Advised) {
+          var advised = (Advised) bean;
+          Arrays
+              .stream(advised.getProxiedInterfaces())
+              .filter(Repository.class::isAssignableFrom)
+              .findFirst()
+              .ifPresent(repository -> advised.addAdvice(0, new QueryNamingInterceptor(repository.getSimpleName())));
+        }
+        return bean;
+      }
+    };
+  }
+}
+
+@Log4j2
+class ReservationConnections implements DisposableBean {
+
+  private final int statementCacheSize;
+  private final QueryMetrics metrics;
+  private final List<ConnectionPool> pools = new CopyOnWriteArrayList<>();
+
+  ReservationConnections(int statementCacheSize, QueryMetrics metrics) {
+    this.statementCacheSize = statementCacheSize;
+    this.metrics = metrics;
+  }
+
+  ConnectionFactory pool(String url, String username, String password, int initialSize, int maxSize) {
+    var options = ConnectionFactoryOptions
+        .parse(url)
+        .mutate()
+        .option(ConnectionFactoryOptions.USER, username)
+        .option(ConnectionFactoryOptions.PASSWORD, password)
+        .build();
+    var connectionFactory = ConnectionFactories.get(options);
+    if (this.statementCacheSize > 0) {
+      connectionFactory = new PreparedStatementCachingConnectionFactory(connectionFactory, this.statementCacheSize);
+      log.info("caching up to " + this.statementCacheSize + " prepared statements per connection to " + url);
+    }
+    var configuration = ConnectionPoolConfiguration
+        .builder(connectionFactory)
+        .initialSize(initialSize)
+        .maxSize(maxSize)
+        .build();
+    var pool = new ConnectionPool(configuration);
+    this.pools.add(pool);
+    return this.metrics == null ? pool : this.metrics.instrument(pool);
+  }
+
+  @Override
+  public void destroy() {
+    this.pools.forEach(ConnectionPool::dispose);
+  }
+}
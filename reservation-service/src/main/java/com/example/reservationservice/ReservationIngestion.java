@@ -0,0 +1,235 @@
+package com.example.reservationservice;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * High-rate ingestion over RSocket. The channel route hands out credit to the producer only as
+ * fast as batched inserts complete, so a fast producer is throttled by the database instead of
+ * piling up reservations in memory. Fire-and-forget has no way to push back, so those
+ * reservations go through one shared, bounded buffer that drops on overflow, and a batch that
+ * can't be inserted is logged and dropped rather than stopping the writer.
+ *
+ * A batch is one multi-row INSERT with a bind parameter per reservation, so batch-size is capped
+ * at the 65535 parameters Postgres allows in a statement.
+ */
+@Log4j2
+@Controller
+class ReservationIngestionController implements DisposableBean {
+
+  // the Bind message counts parameters in an unsigned 16-bit integer
+  static final int MAX_BATCH_SIZE = 65535 / ReservationBatchRepositoryImpl.PARAMETERS_PER_RESERVATION;
+
+  private final ReservationRepository reservationRepository;
+  private final int batchSize;
+  private final Duration batchWindow;
+  private final FluxSink<Reservation> fireAndForget;
+  private final Disposable fireAndForgetWriter;
+
+  ReservationIngestionController(
+      ReservationRepository reservationRepository,
+      @Value("${reservations.ingest.batch-size:500}") int batchSize,
+      @Value("${reservations.ingest.batch-window:50ms}") Duration batchWindow,
+      @Value("${reservations.ingest.fire-and-forget-buffer:10000}") int fireAndForgetBuffer) {
+    this.reservationRepository = reservationRepository;
+    this.batchSize = Math.min(batchSize, MAX_BATCH_SIZE);
+    if (batchSize > MAX_BATCH_SIZE) {
+      log.warn("reservations.ingest.batch-size of " + batchSize + " exceeds what one INSERT can bind, using " + MAX_BATCH_SIZE);
+    }
+    this.batchWindow = batchWindow;
+
+    var processor = UnicastProcessor.<Reservation>create();
+    this.fireAndForget = processor.sink();
+    var buffered = processor
+        .onBackpressureBuffer(fireAndForgetBuffer,
+            dropped -> log.warn("ingestion buffer is full, dropping " + dropped),
+            BufferOverflowStrategy.DROP_LATEST);
+    this.fireAndForgetWriter = Batches
+        .of(buffered, this.batchSize, batchWindow)
+        .concatMap(batch -> insert(batch)
+            .onErrorResume(e -> {
+              log.error("could not insert " + batch.size() + " ingested reservations, dropping them", e);
+              return Mono.empty();
+            }), 1)
+        .subscribe(null, e -> log.error("the ingestion writer stopped", e));
+  }
+
+  @MessageMapping("reservations.ingest")
+  Mono<Void> ingest(Reservation reservation) {
+    this.fireAndForget.next(reservation);
+    return Mono.empty();
+  }
+
+  // emits the number of reservations stored by each batch
+  @MessageMapping("reservations.ingest.channel")
+  Flux<Long> ingestChannel(Flux<Reservation> reservations) {
+    return reservations
+        .limitRate(this.batchSize)
+        .transform(this::insertInBatches);
+  }
+
+  @Override
+  public void destroy() {
+    this.fireAndForget.complete();
+    this.fireAndForgetWriter.dispose();
+  }
+
+  // one batch in flight at a time, so upstream demand only grows as inserts finish
+  private Flux<Long> insertInBatches(Flux<Reservation> reservations) {
+    return Batches
+        .of(reservations, this.batchSize, this.batchWindow)
+        .concatMap(this::insert, 1);
+  }
+
+  private Mono<Long> insert(List<Reservation> batch) {
+    return this.reservationRepository
+        .insertAll(batch)
+        .count();
+  }
+}
+
+/*
+ * Batches of up to size items, each emitted once full or window after its first item arrived,
+ * whichever comes first, but only as downstream asks for them. bufferTimeout fails when a batch
+ * times out while downstream is busy; here a batch that is due waits for the next request, and no
+ * more items are requested from upstream than fit in the batch being filled.
+ */
+class Batches<T> extends BaseSubscriber<T> {
+
+  private final FluxSink<List<T>> sink;
+  private final int size;
+  private final Duration window;
+  private List<T> batch;
+  private boolean due;
+  private boolean done;
+  private Disposable timeout = Disposables.disposed();
+
+  private Batches(FluxSink<List<T>> sink, int size, Duration window) {
+    this.sink = sink;
+    this.size = size;
+    this.window = window;
+    this.batch = new ArrayList<>(size);
+  }
+
+  static <T> Flux<List<T>> of(Flux<T> items, int size, Duration window) {
+    return Flux.create(sink -> {
+      var batches = new Batches<T>(sink, size, window);
+      sink.onRequest(n -> batches.drain());
+      sink.onDispose(batches);
+      items.subscribe(batches);
+    }, FluxSink.OverflowStrategy.ERROR);
+  }
+
+  @Override
+  protected void hookOnSubscribe(Subscription subscription) {
+    request(this.size);
+  }
+
+  @Override
+  protected synchronized void hookOnNext(T item) {
+    this.batch.add(item);
+    if (this.batch.size() == 1) {
+      this.timeout = Schedulers.parallel().schedule(this::expire, this.window.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    if (this.batch.size() == this.size) {
+      this.due = true;
+    }
+    drain();
+  }
+
+  @Override
+  protected synchronized void hookOnComplete() {
+    this.done = true;
+    this.due = true;
+    drain();
+  }
+
+  @Override
+  protected void hookOnError(Throwable error) {
+    this.sink.error(error);
+  }
+
+  @Override
+  protected void hookFinally(SignalType type) {
+    this.timeout.dispose();
+  }
+
+  private synchronized void expire() {
+    this.due = !this.batch.isEmpty();
+    drain();
+  }
+
+  // reentrant: emitting a batch or requesting more can call back in here on the same thread
+  private synchronized void drain() {
+    if (this.due && !this.batch.isEmpty() && this.sink.requestedFromDownstream() > 0) {
+      var full = this.batch;
+      this.batch = new ArrayList<>(this.size);
+      this.due = this.done;
+      this.timeout.dispose();
+      this.sink.next(full);
+      if (!this.done) {
+        request(full.size());
+      }
+    }
+    if (this.done && this.batch.isEmpty()) {
+      this.sink.complete();
+    }
+  }
+}
+
+interface ReservationBatchRepository {
+
+  Flux<Reservation> insertAll(List<Reservation> reservations);
+}
+
+@RequiredArgsConstructor
+class ReservationBatchRepositoryImpl implements ReservationBatchRepository {
+
+  static final int PARAMETERS_PER_RESERVATION = 1;
+
+  private final DatabaseClient databaseClient;
+
+  // a single multi-row INSERT per batch rather than one statement per reservation
+  @Override
+  public Flux<Reservation> insertAll(List<Reservation> reservations) {
+    if (reservations.isEmpty()) {
+      return Flux.empty();
+    }
+    var values = IntStream
+        .rangeClosed(1, reservations.size())
+        .mapToObj(i -> "($" + i + ")")
+        .collect(Collectors.joining(", "));
+    var spec = this.databaseClient.execute("INSERT INTO reservation (name) VALUES " + values + " RETURNING id, name");
+    for (var i = 0; i < reservations.size(); i++) {
+      var name = reservations.get(i).getName();
+      spec = name == null ? spec.bindNull(i, String.class) : spec.bind(i, name);
+    }
+    return spec
+        .as(Reservation.class)
+        .fetch()
+        .all();
+  }
+}
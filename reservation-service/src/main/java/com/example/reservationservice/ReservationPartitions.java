@@ -0,0 +1,104 @@
+package com.example.reservationservice;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.r2dbc.connectionfactory.init.ConnectionFactoryInitializer;
+import org.springframework.data.r2dbc.connectionfactory.init.ResourceDatabasePopulator;
+import org.springframework.data.r2dbc.connectionfactory.init.ScriptUtils;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * Hash partitions the reservation table by id (see reservation-partitions.sql), so that reading
+ * every reservation can be spread over several connections and cores. Postgres routes rows to
+ * their partition itself, so writes, single row reads and the change feed trigger work as before;
+ * only ReservationScanRepository reads the partitions directly, each concurrently on a connection
+ * of its own, and merges them.
+ *
+ * Active when reservations.partitions.count is more than 1. A different count repartitions the
+ * table at startup, copying every row while holding an exclusive lock on it.
+ */
+@Configuration
+@ConditionalOnExpression("${reservations.partitions.count:1} > 1")
+class ReservationPartitionsConfiguration {
+
+  // the change feed trigger and the search indexes go with the old table, so those scripts run again after it
+  @Bean
+  ConnectionFactoryInitializer reservationPartitionsInitializer(
+      ConnectionFactory connectionFactory,
+      @Value("${reservations.partitions.count}") int partitions,
+      @Value("${reservations.search.engine:memory}") String searchEngine) {
+    var populator = new ResourceDatabasePopulator(
+        new ClassPathResource("reservation-partitions.sql"),
+        new ByteArrayResource(("SELECT partition_reservations(" + partitions + ")").getBytes(StandardCharsets.UTF_8)),
+        new ClassPathResource("reservation-changes.sql"));
+    if ("pg_trgm".equals(searchEngine)) {
+      populator.addScript(new ClassPathResource("reservation-search.sql"));
+    }
+    populator.setSeparator(ScriptUtils.EOF_STATEMENT_SEPARATOR);
+    var initializer = new ConnectionFactoryInitializer();
+    initializer.setConnectionFactory(connectionFactory);
+    initializer.setDatabasePopulator(populator);
+    return initializer;
+  }
+}
+
+interface ReservationScanRepository {
+
+  // every reservation, in ascending id order when ordered is true
+  Flux<Reservation> scanAll(boolean ordered);
+}
+
+class ReservationScanRepositoryImpl implements ReservationScanRepository {
+
+  private final DatabaseClient databaseClient;
+  private final int partitions;
+
+  ReservationScanRepositoryImpl(DatabaseClient databaseClient, @Value("${reservations.partitions.count:1}") int partitions) {
+    this.databaseClient = databaseClient;
+    this.partitions = partitions;
+  }
+
+  @Override
+  public Flux<Reservation> scanAll(boolean ordered) {
+    if (this.partitions <= 1) {
+      return scan("reservation", ordered);
+    }
+    var scans = IntStream
+        .range(0, this.partitions)
+        .mapToObj(partition -> scan("reservation_p" + partition, ordered))
+        .collect(Collectors.toList());
+    return merge(scans, ordered);
+  }
+
+  /*
+   * Subscribes to all the scans at once. Each executes on a connection of its own, so they run
+   * side by side as far as the pool allows. Ordered scans are merged by id, which holds a fast
+   * partition back to the pace of the slowest; unordered ones are passed on as rows arrive.
+   */
+  @SuppressWarnings("unchecked")
+  static Flux<Reservation> merge(List<Flux<Reservation>> scans, boolean ordered) {
+    return ordered
+        ? Flux.mergeOrdered(Comparator.comparing(Reservation::getId), scans.toArray(Flux[]::new))
+        : Flux.merge(scans);
+  }
+
+  private Flux<Reservation> scan(String table, boolean ordered) {
+    return this.databaseClient
+        .execute("SELECT id, name FROM " + table + (ordered ? " ORDER BY id" : ""))
+        .as(Reservation.class)
+        .fetch()
+        .all();
+  }
+}
@@ -0,0 +1,437 @@
+package com.example.reservationservice;
+
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.r2dbc.connectionfactory.init.ConnectionFactoryInitializer;
+import org.springframework.data.r2dbc.connectionfactory.init.ResourceDatabasePopulator;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Type-ahead search over reservation names for GET /reservations/search?q=. Matching ignores case.
+ * Results come in rank order: names starting with the query (an exact match first, then
+ * alphabetically), then names containing it, earliest occurrence first, and reservations of the
+ * same name by id. Names containing the query at the same position go by id in Postgres, and in
+ * memory by the name indexed first: the one with the lowest id as of the last load, then the names
+ * first seen since, in the order they were. Queries shorter than three characters only match
+ * prefixes, as there is no trigram to look them up by.
+ *
+ * reservations.search.engine picks where the search runs: memory (the default) keeps a
+ * ReservationNameIndex in this process, pg_trgm queries Postgres through trigram indexes.
+ */
+@Configuration
+class ReservationSearchConfiguration {
+
+  @Bean
+  @ConditionalOnProperty(name = "reservations.search.engine", havingValue = "memory", matchIfMissing = true)
+  InMemoryReservationSearch inMemoryReservationSearch(ReservationRepository reservationRepository, ReservationChangeFeed changeFeed,
+                                                      @Value("${reservations.search.load-timeout:10s}") Duration loadTimeout) {
+    return new InMemoryReservationSearch(reservationRepository, changeFeed, loadTimeout);
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "reservations.search.engine", havingValue = "pg_trgm")
+  PgTrgmReservationSearch pgTrgmReservationSearch(DatabaseClient databaseClient) {
+    return new PgTrgmReservationSearch(databaseClient);
+  }
+
+  @Bean
+  @ConditionalOnProperty(name = "reservations.search.engine", havingValue = "pg_trgm")
+  ConnectionFactoryInitializer reservationSearchInitializer(ConnectionFactory connectionFactory) {
+    var initializer = new ConnectionFactoryInitializer();
+    initializer.setConnectionFactory(connectionFactory);
+    initializer.setDatabasePopulator(new ResourceDatabasePopulator(new ClassPathResource("reservation-search.sql")));
+    return initializer;
+  }
+}
+
+interface ReservationSearch {
+
+  // at most limit reservations whose name matches query, best match first
+  Flux<Reservation> search(String query, int limit);
+}
+
+/*
+ * Loads every reservation into a ReservationNameIndex once the application is ready and then
+ * follows the change feed. The feed is subscribed to before the rows are read, and the changes
+ * that arrive meanwhile are held back and applied after them, so none fall between the two. The
+ * rows are read from the primary, as the feed is, since a replica lagging behind it would miss
+ * changes the feed has already moved past, and in id order, so names are indexed oldest first.
+ * Should the feed fail, say because this fell too far behind, or its listener reconnect, a new
+ * index is built the same way and replaces the current one when it is loaded. Searches wait for
+ * the first load, for up to reservations.search.load-timeout, and fail with 503 after that.
+ */
+@Log4j2
+@RequiredArgsConstructor
+class InMemoryReservationSearch implements ReservationSearch, DisposableBean {
+
+  private final ReservationRepository reservationRepository;
+  private final ReservationChangeFeed changeFeed;
+  private final Duration loadTimeout;
+  private final MonoProcessor<Void> loaded = MonoProcessor.create();
+  private volatile ReservationNameIndex index = new ReservationNameIndex();
+  private Disposable follower;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    this.follower = Flux
+        .defer(() -> {
+          var index = new ReservationNameIndex();
+          var snapshot = this.reservationRepository
+              .scanAll(true)
+              .subscriberContext(ReplicaRoutingConnectionFactory::primary)
+              .doOnNext(index::put)
+              .then(Mono.fromRunnable(() -> {
+                log.info("indexed " + index.size() + " reservation names");
+                this.index = index;
+                this.loaded.onComplete();
+              }))
+              .thenMany(Flux.<ReservationChange>empty());
+          // an unbounded prefetch, so that the changes are queued here rather than overflow the feed's buffer
+          return Flux
+              .mergeSequential(List.of(snapshot, this.changeFeed.changes(null)), 2, Integer.MAX_VALUE)
+              .doOnNext(change -> apply(index, change))
+              .mergeWith(this.changeFeed.reconnects().flatMap(latest -> Mono.error(new IllegalStateException(
+                  "the change feed reconnected after change " + latest))));
+        })
+        .doOnError(e -> log.warn("lost the reservation changes, rebuilding the search index", e))
+        .retryBackoff(Long.MAX_VALUE, Duration.ofSeconds(1), Duration.ofSeconds(30))
+        .subscribe();
+  }
+
+  @Override
+  public Flux<Reservation> search(String query, int limit) {
+    var loading = this.loaded.timeout(this.loadTimeout, Mono.error(() -> new ResponseStatusException(
+        HttpStatus.SERVICE_UNAVAILABLE, "reservation names are not indexed yet")));
+    return loading.thenMany(Flux.defer(() -> Flux.fromIterable(this.index.search(query, limit))));
+  }
+
+  @Override
+  public void destroy() {
+    if (this.follower != null) {
+      this.follower.dispose();
+    }
+  }
+
+  private static void apply(ReservationNameIndex index, ReservationChange change) {
+    if (change.getOperation() == ReservationChange.Operation.DELETE) {
+      index.remove(change.getReservation().getId());
+    }
+    else {
+      index.put(change.getReservation());
+    }
+  }
+}
+
+/*
+ * An index over the distinct lower case reservation names (terms). Prefix lookups walk a sorted
+ * map of the terms. Substring lookups use positional trigram postings: for every trigram, the
+ * terms that have it at position 0, 1, 2 and so on, in separate lists. A query occurring at
+ * position p has its i-th trigram at p + i, so the shortest of those lists is scanned for terms
+ * that really have the query at p, for p = 1, 2, ... until there are enough matches. Ties at the
+ * same position go to the term seen first, which is what lets the scan stop early instead of
+ * ranking every candidate.
+ *
+ * Each term gets the next ordinal when it is first seen, so the lists stay sorted by just
+ * appending to them, and terms are never taken out: a term that no longer names any reservation
+ * stays in the postings, is skipped on lookup, and comes back if the name is used again. Memory
+ * therefore grows with the distinct names ever seen, not with churn.
+ *
+ * One writer (the change feed) and any number of concurrent searches.
+ */
+class ReservationNameIndex {
+
+  // trigrams at this position or later share the last list
+  private static final int POSITIONS = 32;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<Integer, String> names = new HashMap<>();
+  private final Map<Integer, Term> termsById = new HashMap<>();
+  private final TreeMap<String, Term> terms = new TreeMap<>();
+  private final List<Term> termsByOrdinal = new ArrayList<>();
+  private final Map<Long, Postings[]> trigrams = new HashMap<>();
+
+  void put(Reservation reservation) {
+    if (reservation.getId() == null) {
+      return;
+    }
+    this.lock.writeLock().lock();
+    try {
+      removeLocked(reservation.getId());
+      if (reservation.getName() == null) {
+        return;
+      }
+      this.names.put(reservation.getId(), reservation.getName());
+      var term = this.terms.computeIfAbsent(normalize(reservation.getName()), this::newTerm);
+      term.add(reservation.getId());
+      this.termsById.put(reservation.getId(), term);
+    }
+    finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  void remove(Integer id) {
+    this.lock.writeLock().lock();
+    try {
+      removeLocked(id);
+    }
+    finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  int size() {
+    this.lock.readLock().lock();
+    try {
+      return this.names.size();
+    }
+    finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  List<Reservation> search(String query, int limit) {
+    var normalized = normalize(query);
+    var results = new ArrayList<Reservation>(Math.min(limit, 64));
+    if (normalized.isEmpty() || limit <= 0) {
+      return results;
+    }
+    this.lock.readLock().lock();
+    try {
+      // names that start with the query are already in rank order, and an exact match sorts first
+      for (var term : this.terms.tailMap(normalized).values()) {
+        if (!term.text.startsWith(normalized)) {
+          break;
+        }
+        if (term.collect(this.names, results, limit)) {
+          return results;
+        }
+      }
+      if (normalized.length() >= 3) {
+        for (var term : containing(normalized, limit - results.size())) {
+          if (term.collect(this.names, results, limit)) {
+            break;
+          }
+        }
+      }
+      return results;
+    }
+    finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  // terms that contain but don't start with the query, at most limit of them, earliest occurrence first
+  private List<Term> containing(String query, int limit) {
+    var trigrams = new ArrayList<Postings[]>();
+    for (var i = 0; i + 3 <= query.length(); i++) {
+      var postings = this.trigrams.get(trigram(query, i));
+      if (postings == null) {
+        return List.of();
+      }
+      trigrams.add(postings);
+    }
+    var matches = new ArrayList<Term>(limit);
+    for (var position = 1; position < POSITIONS - 1; position++) {
+      var shortest = trigrams.get(0)[position];
+      for (var i = 1; i < trigrams.size(); i++) {
+        var postings = trigrams.get(i)[Math.min(position + i, POSITIONS - 1)];
+        if (postings.size < shortest.size) {
+          shortest = postings;
+        }
+      }
+      for (var i = 0; i < shortest.size; i++) {
+        var term = this.termsByOrdinal.get(shortest.ordinals[i]);
+        // a term is only taken at its first occurrence of the query, names starting with it have been ranked already
+        if (!term.isEmpty() && term.text.startsWith(query, position) && term.text.indexOf(query) == position) {
+          matches.add(term);
+          if (matches.size() == limit) {
+            return matches;
+          }
+        }
+      }
+    }
+    // occurrences this far in share one list, so these are ranked the slow way
+    var far = trigrams.get(0)[POSITIONS - 1];
+    var rest = new ArrayList<Term>();
+    for (var i = 0; i < far.size; i++) {
+      var term = this.termsByOrdinal.get(far.ordinals[i]);
+      if (!term.isEmpty() && term.text.indexOf(query) >= POSITIONS - 1) {
+        rest.add(term);
+      }
+    }
+    rest.sort(Comparator.comparingInt((Term term) -> term.text.indexOf(query)).thenComparingInt(term -> term.ordinal));
+    matches.addAll(rest.subList(0, Math.min(rest.size(), limit - matches.size())));
+    return matches;
+  }
+
+  private void removeLocked(Integer id) {
+    var term = this.termsById.remove(id);
+    if (term != null) {
+      term.remove(id);
+      this.names.remove(id);
+    }
+  }
+
+  private Term newTerm(String text) {
+    var term = new Term(text, this.termsByOrdinal.size());
+    this.termsByOrdinal.add(term);
+    for (var i = 0; i + 3 <= text.length(); i++) {
+      var postings = this.trigrams.computeIfAbsent(trigram(text, i), t -> newPostings());
+      postings[Math.min(i, POSITIONS - 1)].append(term.ordinal);
+    }
+    return term;
+  }
+
+  private static Postings[] newPostings() {
+    var postings = new Postings[POSITIONS];
+    for (var i = 0; i < POSITIONS; i++) {
+      postings[i] = new Postings();
+    }
+    return postings;
+  }
+
+  static String normalize(String name) {
+    return name.strip().toLowerCase(Locale.ROOT);
+  }
+
+  // three UTF-16 chars packed into the low 48 bits
+  private static long trigram(String text, int from) {
+    return ((long) text.charAt(from) << 32) | ((long) text.charAt(from + 1) << 16) | text.charAt(from + 2);
+  }
+
+  private static class Term {
+
+    private final String text;
+    private final int ordinal;
+    // ids of the reservations with this name in ascending order, most names belong to very few
+    private int[] ids = new int[1];
+    private int size;
+
+    Term(String text, int ordinal) {
+      this.text = text;
+      this.ordinal = ordinal;
+    }
+
+    boolean isEmpty() {
+      return this.size == 0;
+    }
+
+    void add(int id) {
+      var at = Arrays.binarySearch(this.ids, 0, this.size, id);
+      if (at >= 0) {
+        return;
+      }
+      at = -at - 1;
+      if (this.size == this.ids.length) {
+        this.ids = Arrays.copyOf(this.ids, this.size * 2);
+      }
+      System.arraycopy(this.ids, at, this.ids, at + 1, this.size - at);
+      this.ids[at] = id;
+      this.size++;
+    }
+
+    void remove(int id) {
+      var at = Arrays.binarySearch(this.ids, 0, this.size, id);
+      if (at >= 0) {
+        System.arraycopy(this.ids, at + 1, this.ids, at, this.size - at - 1);
+        this.size--;
+      }
+    }
+
+    // adds this term's reservations to results, and tells whether that reached the limit
+    boolean collect(Map<Integer, String> names, List<Reservation> results, int limit) {
+      for (var i = 0; i < this.size && results.size() < limit; i++) {
+        results.add(new Reservation(this.ids[i], names.get(this.ids[i])));
+      }
+      return results.size() >= limit;
+    }
+  }
+
+  // term ordinals in ascending order
+  private static class Postings {
+
+    private static final int[] NONE = new int[0];
+
+    private int[] ordinals = NONE;
+    private int size;
+
+    // a term may have the same trigram several times in the shared last position
+    void append(int ordinal) {
+      if (this.size > 0 && this.ordinals[this.size - 1] == ordinal) {
+        return;
+      }
+      if (this.size == this.ordinals.length) {
+        this.ordinals = Arrays.copyOf(this.ordinals, Math.max(4, this.size * 2));
+      }
+      this.ordinals[this.size++] = ordinal;
+    }
+  }
+}
+
+/*
+ * Runs the search in Postgres (see reservation-search.sql for the indexes it relies on), ranked
+ * the same way as the in-memory index but for ties between names, which go by id here.
+ */
+@RequiredArgsConstructor
+class PgTrgmReservationSearch implements ReservationSearch {
+
+  private final DatabaseClient databaseClient;
+
+  @Override
+  public Flux<Reservation> search(String query, int limit) {
+    var normalized = ReservationNameIndex.normalize(query);
+    if (normalized.isEmpty() || limit <= 0) {
+      return Flux.empty();
+    }
+    var pattern = escapeLike(normalized);
+    var contains = normalized.length() >= 3 ? "OR lower(name) LIKE '%' || $1 || '%' " : "";
+    return this.databaseClient
+        .execute("SELECT id, name FROM reservation " +
+            "WHERE lower(name) LIKE $1 || '%' " + contains +
+            "ORDER BY lower(name) LIKE $1 || '%' DESC, strpos(lower(name), $2), " +
+            "CASE WHEN lower(name) LIKE $1 || '%' THEN lower(name) END, id " +
+            "LIMIT $3")
+        .bind(0, pattern)
+        .bind(1, normalized)
+        .bind(2, limit)
+        .as(Reservation.class)
+        .fetch()
+        .all()
+        .subscriberContext(context -> QueryMetrics.named(context, "PgTrgmReservationSearch.search"));
+  }
+
+  private static String escapeLike(String text) {
+    return text
+        .replace("\\", "\\\\")
+        .replace("%", "\\%")
+        .replace("_", "\\_");
+  }
+}
@@ -1,10 +1,12 @@
 package com.example.reservationservice;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
@@ -17,7 +19,10 @@ import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 
+import java.util.Arrays;
+
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
 /*
@@ -27,9 +32,37 @@ import static org.springframework.web.reactive.function.server.ServerResponse.ok
 public class ReservationServiceApplication {
 
   @Bean
-  RouterFunction<ServerResponse> routes(ReservationRepository rr) {
+  RouterFunction<ServerResponse> routes(ReservationRepository rr, ReservationSearch search,
+                                       @Value("${reservations.search.default-limit:10}") int defaultLimit,
+                                       @Value("${reservations.search.max-limit:100}") int maxLimit) {
     return route()
-        .GET("/reservations", serverRequest -> ok().body(rr.findAll(), Reservation.class))
+        .GET("/reservations/search", serverRequest -> {
+          var contentType = ReservationWireFormats.negotiate(serverRequest.headers().accept());
+          var query = serverRequest.queryParam("q").filter(q -> !q.isBlank());
+          var limit = serverRequest.queryParam("limit").map(l -> l.matches("\\d{1,9}") ? Integer.parseInt(l) : -1).orElse(defaultLimit);
+          if (query.isEmpty()) {
+            return badRequest().bodyValue("q is required");
+          }
+          if (limit < 1 || limit > maxLimit) {
+            return badRequest().bodyValue("limit must be between 1 and " + maxLimit);
+          }
+          return ok().contentType(contentType).body(search.search(query.get(), limit), Reservation.class);
+        })
+        .GET("/reservations", serverRequest -> {
+          var contentType = ReservationWireFormats.negotiate(serverRequest.headers().accept());
+          var fields = serverRequest
+              .queryParam("fields")
+              .map(f -> Arrays.asList(f.split(",")));
+          if (fields.isPresent() && !ReservationProjectionRepository.COLUMNS.containsAll(fields.get())) {
+            return badRequest().bodyValue("fields must be among " + ReservationProjectionRepository.COLUMNS);
+          }
+          var ordered = serverRequest.queryParam("ordered").map(Boolean::parseBoolean).orElse(false);
+          if (fields.isPresent() && ordered) {
+            return badRequest().bodyValue("fields can't be combined with ordered");
+          }
+          var reservations = fields.isPresent() ? rr.findAllProjected(fields.get()) : rr.scanAll(ordered);
+          return ok().contentType(contentType).body(reservations, Reservation.class);
+        })
         .build();
   }
 
@@ -62,12 +95,14 @@ class Initializer {
   }
 }
 
-interface ReservationRepository extends ReactiveCrudRepository<Reservation, Integer> {
+interface ReservationRepository extends ReactiveCrudRepository<Reservation, Integer>, ReservationBatchRepository,
+    ReservationProjectionRepository, ReservationScanRepository {
 }
 
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 class Reservation {
 
   @Id
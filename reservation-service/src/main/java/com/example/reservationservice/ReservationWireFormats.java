@@ -0,0 +1,235 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageEncoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Compact alternatives to the JSON array that GET /reservations returns by default. The client
+ * picks one with the Accept header: newline delimited JSON, CBOR, Smile, or a columnar encoding
+ * (see ReservationColumnarEncoder). A fields= parameter narrows the SELECT to the given columns.
+ */
+@Configuration
+class ReservationWireFormats {
+
+  static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+  static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+  static final MediaType COLUMNAR = MediaType.parseMediaType("application/vnd.reservations.columnar");
+
+  // in order of preference when the client accepts several
+  static final List<MediaType> SUPPORTED = List.of(MediaType.APPLICATION_JSON, NDJSON, MediaType.APPLICATION_CBOR, SMILE, COLUMNAR);
+
+  @Bean
+  CodecCustomizer reservationCodecCustomizer(ObjectMapper objectMapper) {
+    return configurer -> {
+      configurer.defaultCodecs().jackson2JsonEncoder(jsonEncoder(objectMapper));
+      configurer.customCodecs().encoder(cborEncoder());
+      configurer.customCodecs().encoder(smileEncoder());
+      configurer.customCodecs().encoder(new ReservationColumnarEncoder(1024));
+    };
+  }
+
+  // functional endpoints don't negotiate the content type from the Accept header themselves
+  static MediaType negotiate(List<MediaType> accept) {
+    var accepted = new ArrayList<>(accept);
+    MediaType.sortBySpecificityAndQuality(accepted);
+    for (var mediaType : accepted) {
+      for (var supported : SUPPORTED) {
+        if (mediaType.isCompatibleWith(supported)) {
+          return supported;
+        }
+      }
+    }
+    return MediaType.APPLICATION_JSON;
+  }
+
+  static Jackson2JsonEncoder jsonEncoder(ObjectMapper objectMapper) {
+    var encoder = new Jackson2JsonEncoder(objectMapper, MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), NDJSON);
+    encoder.setStreamingMediaTypes(List.of(MediaType.APPLICATION_STREAM_JSON, NDJSON));
+    return encoder;
+  }
+
+  static Jackson2CborEncoder cborEncoder() {
+    return new ListCborEncoder();
+  }
+
+  static Jackson2SmileEncoder smileEncoder() {
+    return new Jackson2SmileEncoder(Jackson2ObjectMapperBuilder.smile().build(), SMILE);
+  }
+
+  // Jackson2CborEncoder can only encode single values, so a stream is sent as one CBOR array
+  static class ListCborEncoder extends Jackson2CborEncoder {
+
+    ListCborEncoder() {
+      super(Jackson2ObjectMapperBuilder.cbor().build(), MediaType.APPLICATION_CBOR);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                   MimeType mimeType, Map<String, Object> hints) {
+      if (inputStream instanceof Mono) {
+        return Mono
+            .from(inputStream)
+            .map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints))
+            .flux();
+      }
+      var listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+      return Flux
+          .from(inputStream)
+          .collectList()
+          .map(list -> encodeValue(list, bufferFactory, listType, mimeType, hints))
+          .flux();
+    }
+  }
+}
+
+/*
+ * Writes reservations in chunks of up to chunkSize rows. Each chunk is laid out column by column:
+ *
+ *   varint   row count
+ *   byte     columns present (1 = id, 2 = name)
+ *   id       row count zig-zag varints, each the difference to the previous id in the chunk
+ *   name     varint dictionary size, then per distinct name a varint byte length and its UTF-8
+ *            bytes, followed by one varint per row: 0 for null, otherwise dictionary index + 1
+ *
+ * Chunks are flushed as they are produced, so a large result streams instead of being buffered.
+ */
+class ReservationColumnarEncoder extends AbstractEncoder<Reservation> implements HttpMessageEncoder<Reservation> {
+
+  static final int ID_COLUMN = 1;
+  static final int NAME_COLUMN = 2;
+
+  private final int chunkSize;
+
+  ReservationColumnarEncoder(int chunkSize) {
+    super(ReservationWireFormats.COLUMNAR);
+    this.chunkSize = chunkSize;
+  }
+
+  @Override
+  public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+    return Reservation.class.isAssignableFrom(elementType.toClass()) && super.canEncode(elementType, mimeType);
+  }
+
+  @Override
+  public List<MediaType> getStreamingMediaTypes() {
+    return List.of(ReservationWireFormats.COLUMNAR);
+  }
+
+  @Override
+  public Flux<DataBuffer> encode(Publisher<? extends Reservation> inputStream, DataBufferFactory bufferFactory,
+                                 ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+    return Flux
+        .from(inputStream)
+        .buffer(this.chunkSize)
+        .map(chunk -> encodeChunk(chunk, bufferFactory));
+  }
+
+  @Override
+  public DataBuffer encodeValue(Reservation value, DataBufferFactory bufferFactory, ResolvableType valueType,
+                                MimeType mimeType, Map<String, Object> hints) {
+    return encodeChunk(List.of(value), bufferFactory);
+  }
+
+  DataBuffer encodeChunk(List<? extends Reservation> chunk, DataBufferFactory bufferFactory) {
+    var buffer = bufferFactory.allocateBuffer(16 + chunk.size() * 4);
+    var hasIds = chunk.stream().allMatch(r -> r.getId() != null);
+    var hasNames = chunk.stream().anyMatch(r -> r.getName() != null);
+
+    writeVarint(buffer, chunk.size());
+    buffer.write((byte) ((hasIds ? ID_COLUMN : 0) | (hasNames ? NAME_COLUMN : 0)));
+
+    if (hasIds) {
+      var previous = 0L;
+      for (var reservation : chunk) {
+        long id = reservation.getId();
+        var delta = id - previous;
+        writeVarint(buffer, (delta << 1) ^ (delta >> 63));
+        previous = id;
+      }
+    }
+
+    if (hasNames) {
+      var dictionary = new LinkedHashMap<String, Integer>();
+      for (var reservation : chunk) {
+        if (reservation.getName() != null) {
+          dictionary.putIfAbsent(reservation.getName(), dictionary.size());
+        }
+      }
+      writeVarint(buffer, dictionary.size());
+      for (var name : dictionary.keySet()) {
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        writeVarint(buffer, bytes.length);
+        buffer.write(bytes);
+      }
+      for (var reservation : chunk) {
+        writeVarint(buffer, reservation.getName() == null ? 0 : dictionary.get(reservation.getName()) + 1);
+      }
+    }
+    return buffer;
+  }
+
+  private static void writeVarint(DataBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.write((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.write((byte) value);
+  }
+}
+
+interface ReservationProjectionRepository {
+
+  Set<String> COLUMNS = Set.of("id", "name");
+
+  // only the given columns are selected, the others stay null
+  Flux<Reservation> findAllProjected(Collection<String> columns);
+}
+
+@RequiredArgsConstructor
+class ReservationProjectionRepositoryImpl implements ReservationProjectionRepository {
+
+  private final DatabaseClient databaseClient;
+
+  @Override
+  public Flux<Reservation> findAllProjected(Collection<String> columns) {
+    if (!COLUMNS.containsAll(columns)) {
+      return Flux.error(new IllegalArgumentException("unknown columns in " + columns + ", expected some of " + COLUMNS));
+    }
+    var id = columns.contains("id");
+    var name = columns.contains("name");
+    return this.databaseClient
+        .select()
+        .from("reservation")
+        .project(columns.toArray(String[]::new))
+        .map(row -> new Reservation(
+            id ? row.get("id", Integer.class) : null,
+            name ? row.get("name", String.class) : null))
+        .all();
+  }
+}
@@ -0,0 +1,332 @@
+package com.example.reservationservice;
+
+import io.r2dbc.spi.Batch;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.IsolationLevel;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.ValidationDepth;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.log4j.Log4j2;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+ * Keeps the statements run on a connection prepared on it, at most cache-size of them, the least
+ * recently used going first. Sits between the pool and the driver, so the cache lives and dies
+ * with the physical connection.
+ *
+ * The driver already prepares statements with parameters ($1, ...) under names of its own, and
+ * keeps every one for as long as the connection lives. Statements without parameters, such as
+ * findAll or the partition scans, it sends as simple queries that Postgres parses and plans on
+ * every run. Those are PREPAREd here on first use, run with EXECUTE from then on and DEALLOCATEd
+ * when evicted. The driver can't be told to drop one of its own, so when one of those is evicted,
+ * the connection is retired instead: it fails validation at its next acquire and the pool replaces
+ * it.
+ *
+ * Multi-row INSERTs are the exception. Batched ingestion makes one per batch size, and counting
+ * them would have the pool replacing connections all through an ingest. They are left out of the
+ * cache, so the driver keeps at most one statement per batch size on top of cache-size, up to
+ * reservations.ingest.batch-size of them.
+ */
+class PreparedStatementCachingConnectionFactory implements ConnectionFactory {
+
+  private final ConnectionFactory delegate;
+  private final int cacheSize;
+
+  PreparedStatementCachingConnectionFactory(ConnectionFactory delegate, int cacheSize) {
+    this.delegate = delegate;
+    this.cacheSize = cacheSize;
+  }
+
+  @Override
+  public Mono<Connection> create() {
+    return Mono
+        .from(this.delegate.create())
+        .map(connection -> new PreparedStatementCachingConnection(connection, this.cacheSize));
+  }
+
+  @Override
+  public ConnectionFactoryMetadata getMetadata() {
+    return this.delegate.getMetadata();
+  }
+}
+
+@Log4j2
+class PreparedStatementCachingConnection implements Connection, Wrapped<Connection> {
+
+  // what PREPARE accepts, in one statement; anything else goes to the driver as it is
+  private static final Pattern PREPARABLE = Pattern.compile("^\\s*(?i:select|insert|update|delete|with|values)\\b[^;]*$");
+  // VALUES followed by a second row
+  private static final Pattern MULTI_ROW_INSERT = Pattern.compile("^\\s*(?i:insert)\\b.*\\b(?i:values)\\s*\\([^)]*\\)\\s*,\\s*\\(.*",
+      Pattern.DOTALL);
+
+  private final Connection delegate;
+  private final Map<String, CachedStatement> statements;
+  private final List<String> deallocations = new ArrayList<>();
+  private int names;
+  private volatile boolean retired;
+
+  PreparedStatementCachingConnection(Connection delegate, int cacheSize) {
+    this.delegate = delegate;
+    this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+        if (size() <= cacheSize) {
+          return false;
+        }
+        evicted(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  @Override
+  public Statement createStatement(String sql) {
+    if (sql.contains("$1")) {
+      if (!MULTI_ROW_INSERT.matcher(sql).matches()) {
+        synchronized (this) {
+          this.statements.putIfAbsent(sql, CachedStatement.DRIVER);
+        }
+      }
+      return this.delegate.createStatement(sql);
+    }
+    if (!PREPARABLE.matcher(sql).matches()) {
+      return this.delegate.createStatement(sql);
+    }
+    return new ExecuteStatement(sql);
+  }
+
+  @Override
+  public Publisher<Boolean> validate(ValidationDepth depth) {
+    return this.retired ? Mono.just(false) : this.delegate.validate(depth);
+  }
+
+  @Override
+  public Connection unwrap() {
+    return this.delegate;
+  }
+
+  // runs a statement without parameters as EXECUTE, PREPAREing it first if it isn't already
+  private Flux<Result> execute(String sql) {
+    return Flux.defer(() -> {
+      CachedStatement statement;
+      List<String> deallocations;
+      synchronized (this) {
+        statement = this.statements.get(sql);
+        if (statement == null) {
+          statement = new CachedStatement("cached_statement_" + this.names++, sql, this.delegate);
+          this.statements.put(sql, statement);
+        }
+        deallocations = List.copyOf(this.deallocations);
+        this.deallocations.clear();
+      }
+      var cached = statement;
+      return deallocate(deallocations)
+          .then(cached.prepare().doOnError(e -> forget(sql, cached)))
+          .thenMany(Flux.<Result>from(this.delegate.createStatement("EXECUTE " + cached.name).execute()));
+    });
+  }
+
+  private void evicted(CachedStatement statement) {
+    if (statement == CachedStatement.DRIVER) {
+      if (!this.retired) {
+        log.debug("retiring " + this.delegate + ", it holds more than the statements cached per connection");
+      }
+      this.retired = true;
+    }
+    else if (statement.isPrepared()) {
+      this.deallocations.add(statement.name);
+    }
+  }
+
+  private synchronized void forget(String sql, CachedStatement statement) {
+    this.statements.remove(sql, statement);
+  }
+
+  // run ahead of the next EXECUTE, while the connection is in use; those that fail are tried again with the one after
+  private Mono<Void> deallocate(List<String> names) {
+    return Flux
+        .fromIterable(names)
+        .concatMap(name -> Flux
+            .from(this.delegate.createStatement("DEALLOCATE " + name).execute())
+            .flatMap(Result::getRowsUpdated)
+            .then())
+        .then()
+        .doOnError(e -> {
+          synchronized (this) {
+            this.deallocations.addAll(names);
+          }
+        });
+  }
+
+  @Override
+  public Publisher<Void> beginTransaction() {
+    return this.delegate.beginTransaction();
+  }
+
+  @Override
+  public Publisher<Void> close() {
+    return this.delegate.close();
+  }
+
+  @Override
+  public Publisher<Void> commitTransaction() {
+    return this.delegate.commitTransaction();
+  }
+
+  @Override
+  public Batch createBatch() {
+    return this.delegate.createBatch();
+  }
+
+  @Override
+  public Publisher<Void> createSavepoint(String name) {
+    return this.delegate.createSavepoint(name);
+  }
+
+  @Override
+  public boolean isAutoCommit() {
+    return this.delegate.isAutoCommit();
+  }
+
+  @Override
+  public ConnectionMetadata getMetadata() {
+    return this.delegate.getMetadata();
+  }
+
+  @Override
+  public IsolationLevel getTransactionIsolationLevel() {
+    return this.delegate.getTransactionIsolationLevel();
+  }
+
+  @Override
+  public Publisher<Void> releaseSavepoint(String name) {
+    return this.delegate.releaseSavepoint(name);
+  }
+
+  @Override
+  public Publisher<Void> rollbackTransaction() {
+    return this.delegate.rollbackTransaction();
+  }
+
+  @Override
+  public Publisher<Void> rollbackTransactionToSavepoint(String name) {
+    return this.delegate.rollbackTransactionToSavepoint(name);
+  }
+
+  @Override
+  public Publisher<Void> setAutoCommit(boolean autoCommit) {
+    return this.delegate.setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public Publisher<Void> setTransactionIsolationLevel(IsolationLevel isolationLevel) {
+    return this.delegate.setTransactionIsolationLevel(isolationLevel);
+  }
+
+  /*
+   * A statement prepared under name on this connection, once prepare has completed. DRIVER stands
+   * for those the driver prepares itself.
+   */
+  static class CachedStatement {
+
+    static final CachedStatement DRIVER = new CachedStatement(null, Mono.empty());
+
+    private final String name;
+    private final Mono<Void> prepare;
+    private volatile boolean prepared;
+
+    CachedStatement(String name, String sql, Connection connection) {
+      this.name = name;
+      this.prepare = Mono
+          .defer(() -> Flux
+              .from(connection.createStatement("PREPARE " + name + " AS " + sql).execute())
+              .flatMap(Result::getRowsUpdated)
+              .then())
+          .doOnSuccess(v -> this.prepared = true)
+          .cache();
+    }
+
+    private CachedStatement(String name, Mono<Void> prepare) {
+      this.name = name;
+      this.prepare = prepare;
+    }
+
+    // completes once prepared, the first subscriber prepares it
+    Mono<Void> prepare() {
+      return this.prepare;
+    }
+
+    boolean isPrepared() {
+      return this.prepared;
+    }
+  }
+
+  /*
+   * A statement without parameters; with generated values asked for it goes to the driver as it is.
+   */
+  private class ExecuteStatement implements Statement {
+
+    private final String sql;
+    private String[] generatedColumns;
+
+    ExecuteStatement(String sql) {
+      this.sql = sql;
+    }
+
+    @Override
+    public Statement add() {
+      throw new UnsupportedOperationException("add is not supported for the statement '" + this.sql + "', it has no parameters");
+    }
+
+    @Override
+    public Statement bind(int index, Object value) {
+      throw unsupportedBinding();
+    }
+
+    @Override
+    public Statement bind(String name, Object value) {
+      throw unsupportedBinding();
+    }
+
+    @Override
+    public Statement bindNull(int index, Class<?> type) {
+      throw unsupportedBinding();
+    }
+
+    @Override
+    public Statement bindNull(String name, Class<?> type) {
+      throw unsupportedBinding();
+    }
+
+    @Override
+    public Statement returnGeneratedValues(String... columns) {
+      this.generatedColumns = columns;
+      return this;
+    }
+
+    @Override
+    public Publisher<? extends Result> execute() {
+      if (this.generatedColumns != null) {
+        return delegate.createStatement(this.sql).returnGeneratedValues(this.generatedColumns).execute();
+      }
+      return PreparedStatementCachingConnection.this.execute(this.sql);
+    }
+
+    private UnsupportedOperationException unsupportedBinding() {
+      return new UnsupportedOperationException("binding parameters is not supported for the statement '" + this.sql + "', it has none");
+    }
+  }
+}
@@ -0,0 +1,72 @@
+CREATE TABLE IF NOT EXISTS reservation
+(
+    id   SERIAL PRIMARY KEY,
+    name VARCHAR(255)
+);
+
+CREATE SEQUENCE IF NOT EXISTS reservation_change_sequence;
+
+-- every change of a reservation, numbered once the transaction that made it commits
+CREATE TABLE IF NOT EXISTS reservation_change
+(
+    id          BIGSERIAL PRIMARY KEY,
+    sequence    BIGINT UNIQUE,
+    operation   VARCHAR(6) NOT NULL,
+    reservation JSON       NOT NULL
+);
+
+DROP TRIGGER IF EXISTS reservation_changes ON reservation;
+DROP FUNCTION IF EXISTS notify_reservation_change();
+
+CREATE OR REPLACE FUNCTION record_reservation_change() RETURNS TRIGGER AS
+$$
+DECLARE
+    changed reservation%ROWTYPE;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        changed := OLD;
+    ELSE
+        changed := NEW;
+    END IF;
+    INSERT INTO reservation_change (operation, reservation) VALUES (TG_OP, row_to_json(changed));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER reservation_changes
+    AFTER INSERT OR UPDATE OR DELETE
+    ON reservation
+    FOR EACH ROW
+EXECUTE PROCEDURE record_reservation_change();
+
+-- Runs as the transaction commits. The lock is held until the commit is visible, so a transaction
+-- committing later draws higher numbers, and a reader that has seen number n will never find a
+-- change numbered below n that it hasn't seen. The notification only wakes the listeners up.
+--
+-- The price is that transactions writing reservations commit one at a time: each holds the lock
+-- from numbering its first change through its commit record's flush to disk, so they can't share
+-- a flush, and they commit at most about once per WAL flush (a few hundred to a few thousand per
+-- second on typical disks), however many connections write. Numbering every row of a transaction
+-- also happens under the lock. Changing many rows per transaction, as reservations.ingest does,
+-- makes the most of that rate; synchronous_commit = off shortens the time the lock is held.
+CREATE OR REPLACE FUNCTION number_reservation_change() RETURNS TRIGGER AS
+$$
+DECLARE
+    numbered BIGINT;
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('reservation_change_sequence'));
+    numbered := nextval('reservation_change_sequence');
+    UPDATE reservation_change SET sequence = numbered WHERE id = NEW.id;
+    PERFORM pg_notify('reservation_changes', numbered::TEXT);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS reservation_change_numbering ON reservation_change;
+
+CREATE CONSTRAINT TRIGGER reservation_change_numbering
+    AFTER INSERT
+    ON reservation_change
+    DEFERRABLE INITIALLY DEFERRED
+    FOR EACH ROW
+EXECUTE PROCEDURE number_reservation_change();
@@ -0,0 +1,50 @@
+-- Rebuilds the reservation table as one hash partitioned by id into the given number of partitions,
+-- reservation_p0 to reservation_p<partitions - 1>, unless it is partitioned that way already. Rows
+-- are copied and ids keep coming from the same sequence. Indexes and triggers of the old table are
+-- dropped with it, so the scripts that create them have to run again afterwards.
+CREATE OR REPLACE FUNCTION partition_reservations(partitions INTEGER) RETURNS VOID AS
+$$
+DECLARE
+    existing INTEGER;
+    previous TEXT;
+BEGIN
+    CREATE TABLE IF NOT EXISTS reservation
+    (
+        id   SERIAL PRIMARY KEY,
+        name VARCHAR(255)
+    );
+    SELECT count(*)
+    INTO existing
+    FROM pg_inherits
+             JOIN pg_partitioned_table ON partrelid = inhparent
+    WHERE inhparent = 'reservation'::REGCLASS;
+    IF existing = partitions THEN
+        RETURN;
+    END IF;
+
+    LOCK TABLE reservation IN ACCESS EXCLUSIVE MODE;
+    -- the partitions of a previous count would take the new partitions' names
+    FOR previous IN SELECT inhrelid::REGCLASS::TEXT FROM pg_inherits WHERE inhparent = 'reservation'::REGCLASS
+        LOOP
+            EXECUTE format('ALTER TABLE %I RENAME TO %I', previous, previous || '_previous');
+        END LOOP;
+    ALTER TABLE reservation RENAME TO reservation_previous;
+    ALTER SEQUENCE reservation_id_seq OWNED BY NONE;
+
+    CREATE TABLE reservation
+    (
+        id   INTEGER NOT NULL DEFAULT nextval('reservation_id_seq'),
+        name VARCHAR(255),
+        PRIMARY KEY (id)
+    ) PARTITION BY HASH (id);
+    FOR i IN 0..partitions - 1
+        LOOP
+            EXECUTE format('CREATE TABLE reservation_p%s PARTITION OF reservation FOR VALUES WITH (MODULUS %s, REMAINDER %s)',
+                           i, partitions, i);
+        END LOOP;
+
+    INSERT INTO reservation (id, name) SELECT id, name FROM reservation_previous;
+    ALTER SEQUENCE reservation_id_seq OWNED BY reservation.id;
+    DROP TABLE reservation_previous CASCADE;
+END;
+$$ LANGUAGE plpgsql;
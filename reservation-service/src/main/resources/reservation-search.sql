@@ -0,0 +1,7 @@
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- names containing the query: lower(name) LIKE '%query%'
+CREATE INDEX IF NOT EXISTS reservation_name_trgm ON reservation USING gin (lower(name) gin_trgm_ops);
+
+-- names starting with the query: lower(name) LIKE 'query%', whatever the database collation
+CREATE INDEX IF NOT EXISTS reservation_name_prefix ON reservation (lower(name) text_pattern_ops);
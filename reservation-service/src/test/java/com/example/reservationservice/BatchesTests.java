@@ -0,0 +1,63 @@
+package com.example.reservationservice;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchesTests {
+
+	@Test
+	void emitsFullBatchesAndTheRestOnCompletion() {
+		StepVerifier
+				.create(Batches.of(Flux.range(1, 7), 3, Duration.ofSeconds(10)))
+				.expectNext(List.of(1, 2, 3), List.of(4, 5, 6), List.of(7))
+				.verifyComplete();
+	}
+
+	@Test
+	void emitsPartialBatchesOnceTheWindowIsUp() {
+		StepVerifier
+				.create(Batches.of(Flux.just(1, 2).concatWith(Flux.never()), 3, Duration.ofMillis(50)))
+				.expectNext(List.of(1, 2))
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void batchesThatAreDueWaitForASlowConsumerInsteadOfFailing() {
+		var items = Flux
+				.interval(Duration.ofMillis(1))
+				.take(200)
+				.onBackpressureBuffer();
+
+		var batches = Batches
+				.of(items, 10, Duration.ofMillis(2))
+				.concatMap(batch -> Mono.delay(Duration.ofMillis(20)).thenReturn(batch), 1)
+				.collectList()
+				.block(Duration.ofSeconds(30));
+
+		assertThat(batches).flatExtracting(batch -> batch).hasSize(200);
+		assertThat(batches).allSatisfy(batch -> assertThat(batch).hasSizeBetween(1, 10));
+	}
+
+	@Test
+	void requestsNoMoreThanFitsInTheBatchBeingFilled() {
+		var requested = new AtomicLong();
+
+		StepVerifier
+				.create(Batches.of(Flux.range(1, 100).doOnRequest(requested::addAndGet), 10, Duration.ofSeconds(10)), 0)
+				.then(() -> assertThat(requested).hasValue(10))
+				.thenRequest(1)
+				.expectNext(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10))
+				.then(() -> assertThat(requested).hasValue(20))
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+	}
+}
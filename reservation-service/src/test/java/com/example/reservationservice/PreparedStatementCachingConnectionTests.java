@@ -0,0 +1,121 @@
+package com.example.reservationservice;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import io.r2dbc.spi.ValidationDepth;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Uses a stand-in connection that records the statements it runs, so no database is needed.
+ */
+class PreparedStatementCachingConnectionTests {
+
+	private final List<String> executed = new ArrayList<>();
+	private final Connection connection = standIn(this.executed);
+
+	@Test
+	void statementsWithoutParametersArePreparedOnceAndExecutedFromThenOn() {
+		var caching = new PreparedStatementCachingConnection(this.connection, 2);
+
+		run(caching, "SELECT id, name FROM reservation");
+		run(caching, "SELECT id, name FROM reservation");
+
+		assertThat(this.executed).containsExactly(
+				"PREPARE cached_statement_0 AS SELECT id, name FROM reservation",
+				"EXECUTE cached_statement_0",
+				"EXECUTE cached_statement_0");
+	}
+
+	@Test
+	void leastRecentlyUsedStatementIsDeallocatedWhenAnotherTakesItsPlace() {
+		var caching = new PreparedStatementCachingConnection(this.connection, 2);
+
+		run(caching, "SELECT id, name FROM reservation_p0");
+		run(caching, "SELECT id, name FROM reservation_p1");
+		run(caching, "SELECT id, name FROM reservation_p0");
+		run(caching, "SELECT id, name FROM reservation_p2");
+		run(caching, "SELECT id, name FROM reservation_p0");
+
+		assertThat(this.executed).containsExactly(
+				"PREPARE cached_statement_0 AS SELECT id, name FROM reservation_p0",
+				"EXECUTE cached_statement_0",
+				"PREPARE cached_statement_1 AS SELECT id, name FROM reservation_p1",
+				"EXECUTE cached_statement_1",
+				"EXECUTE cached_statement_0",
+				"DEALLOCATE cached_statement_1",
+				"PREPARE cached_statement_2 AS SELECT id, name FROM reservation_p2",
+				"EXECUTE cached_statement_2",
+				"EXECUTE cached_statement_0");
+	}
+
+	@Test
+	void statementsWithParametersAndScriptsGoToTheDriverAsTheyAre() {
+		var caching = new PreparedStatementCachingConnection(this.connection, 2);
+
+		run(caching, "SELECT id, name FROM reservation WHERE id = $1");
+		run(caching, "CREATE TABLE t (id int); DROP TABLE t");
+		run(caching, "LISTEN reservation_changes");
+
+		assertThat(this.executed).containsExactly(
+				"SELECT id, name FROM reservation WHERE id = $1",
+				"CREATE TABLE t (id int); DROP TABLE t",
+				"LISTEN reservation_changes");
+	}
+
+	@Test
+	void connectionIsRetiredOnceOneOfTheDriversStatementsIsEvicted() {
+		var caching = new PreparedStatementCachingConnection(this.connection, 2);
+
+		run(caching, "INSERT INTO reservation (name) VALUES ($1)");
+		run(caching, "SELECT id, name FROM reservation WHERE id = $1");
+		assertThat(Mono.from(caching.validate(ValidationDepth.LOCAL)).block()).isTrue();
+
+		run(caching, "SELECT id, name FROM reservation");
+		assertThat(Mono.from(caching.validate(ValidationDepth.LOCAL)).block()).isFalse();
+	}
+
+	@Test
+	void multiRowInsertsOfEverySizeLeaveTheConnectionInService() {
+		var caching = new PreparedStatementCachingConnection(this.connection, 2);
+
+		var rows = new StringBuilder("($1)");
+		for (var size = 2; size <= 10; size++) {
+			rows.append(", ($").append(size).append(")");
+			run(caching, "INSERT INTO reservation (name) VALUES " + rows + " RETURNING id, name");
+		}
+		run(caching, "SELECT id, name FROM reservation");
+
+		assertThat(Mono.from(caching.validate(ValidationDepth.LOCAL)).block()).isTrue();
+		assertThat(this.executed).endsWith("PREPARE cached_statement_0 AS SELECT id, name FROM reservation", "EXECUTE cached_statement_0");
+	}
+
+	private static void run(Connection connection, String sql) {
+		Flux.from(connection.createStatement(sql).execute()).flatMap(Result::getRowsUpdated).blockLast();
+	}
+
+	static Connection standIn(List<String> executed) {
+		var connection = Mockito.mock(Connection.class);
+		Mockito.when(connection.validate(Mockito.any())).thenAnswer(invocation -> Mono.just(true));
+		Mockito.when(connection.createStatement(Mockito.anyString())).thenAnswer(invocation -> {
+			String sql = invocation.getArgument(0);
+			var result = Mockito.mock(Result.class);
+			Mockito.when(result.getRowsUpdated()).thenAnswer(i -> Mono.just(0));
+			var statement = Mockito.mock(Statement.class);
+			Mockito.when(statement.execute()).thenAnswer(i -> Flux.defer(() -> {
+				executed.add(sql);
+				return Flux.just(result);
+			}));
+			return statement;
+		});
+		return connection;
+	}
+}
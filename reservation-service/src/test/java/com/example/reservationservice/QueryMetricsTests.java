@@ -0,0 +1,108 @@
+package com.example.reservationservice;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Uses a stand-in connection factory that takes 200ms to hand out a connection whose statements
+ * return three rows after another 100ms, so no database is needed.
+ */
+class QueryMetricsTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final ConnectionFactory connectionFactory = new QueryMetrics(this.registry).instrument(new SlowConnectionFactory());
+
+	@Test
+	void queryTimeRowsAndAcquireTimeAreRecordedApartPerQuery() {
+		var rows = query("SELECT id, name FROM reservation")
+				.subscriberContext(context -> QueryMetrics.named(context, "ReservationRepository.findAll"))
+				.collectList()
+				.block();
+
+		assertThat(rows).hasSize(3);
+		var queries = this.registry.get("reservations.db.query").tags("query", "ReservationRepository.findAll", "outcome", "success").timer();
+		assertThat(queries.count()).isEqualTo(1);
+		assertThat(queries.totalTime(TimeUnit.MILLISECONDS)).isBetween(100.0, 300.0);
+		assertThat(this.registry.get("reservations.db.query.rows").tag("query", "ReservationRepository.findAll").counter().count()).isEqualTo(3);
+		var acquires = this.registry.get("reservations.db.connection.acquire").tag("query", "ReservationRepository.findAll").timer();
+		assertThat(acquires.count()).isEqualTo(1);
+		assertThat(acquires.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(200.0);
+	}
+
+	@Test
+	void queryNamedDownstreamKeepsItsName() {
+		query("SELECT id, name FROM reservation")
+				.subscriberContext(context -> QueryMetrics.named(context, "ReservationRepository.scanAll"))
+				.subscriberContext(context -> QueryMetrics.named(context, "ReservationRepository.findAll"))
+				.take(1)
+				.blockLast();
+		query("SELECT 1").blockLast();
+
+		assertThat(this.registry.get("reservations.db.query").tags("query", "ReservationRepository.findAll", "outcome", "cancelled").timer().count())
+				.isEqualTo(1);
+		assertThat(this.registry.get("reservations.db.query").tags("query", QueryMetrics.UNNAMED, "outcome", "success").timer().count())
+				.isEqualTo(1);
+	}
+
+	private Flux<Object> query(String sql) {
+		return Mono
+				.from(this.connectionFactory.create())
+				.flatMapMany(connection -> Flux
+						.from(connection.createStatement(sql).execute())
+						.concatMap(result -> result.map((row, metadata) -> row.get("id"))));
+	}
+
+	static class SlowConnectionFactory implements ConnectionFactory {
+
+		@Override
+		public Mono<Connection> create() {
+			var connection = Mockito.mock(Connection.class);
+			Mockito.when(connection.createStatement(Mockito.anyString())).thenAnswer(invocation -> {
+				var statement = Mockito.mock(Statement.class);
+				Mockito.when(statement.execute()).thenAnswer(i -> Flux.just(new SlowResult()));
+				return statement;
+			});
+			return Mono.delay(Duration.ofMillis(200)).thenReturn(connection);
+		}
+
+		@Override
+		public ConnectionFactoryMetadata getMetadata() {
+			return () -> "stand-in";
+		}
+	}
+
+	static class SlowResult implements Result {
+
+		@Override
+		public Publisher<Integer> getRowsUpdated() {
+			return Mono.just(0);
+		}
+
+		@Override
+		public <T> Publisher<T> map(BiFunction<Row, RowMetadata, ? extends T> mappingFunction) {
+			var row = Mockito.mock(Row.class);
+			Mockito.when(row.get("id")).thenReturn(1);
+			return Flux
+					.range(0, 3)
+					.delaySubscription(Duration.ofMillis(100))
+					.map(i -> mappingFunction.apply(row, Mockito.mock(RowMetadata.class)));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.example.reservationservice;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Uses stand-in connection factories, so no database is needed.
+ */
+class ReplicaRoutingConnectionFactoryTests {
+
+	private final StandInConnectionFactory primary = new StandInConnectionFactory();
+	private final StandInConnectionFactory replica1 = new StandInConnectionFactory();
+	private final StandInConnectionFactory replica2 = new StandInConnectionFactory();
+
+	@Test
+	void readsGoToReplicasAndEverythingElseToThePrimary() {
+		var routing = routing(Duration.ZERO);
+
+		assertThat(routing.create().block()).isSameAs(this.primary.connection);
+		var read = routing.create().subscriberContext(ReplicaRoutingConnectionFactory::reads).block();
+		assertThat(read).isIn(this.replica1.connection, this.replica2.connection);
+	}
+
+	@Test
+	void readsStickToThePrimaryRightAfterAWrite() {
+		var routing = routing(Duration.ofMinutes(1));
+		routing.wrote();
+
+		var read = routing.create().subscriberContext(ReplicaRoutingConnectionFactory::reads).block();
+		assertThat(read).isSameAs(this.primary.connection);
+	}
+
+	@Test
+	void readsPinnedToThePrimaryStayThere() {
+		var routing = routing(Duration.ZERO);
+
+		var read = routing
+				.create()
+				.subscriberContext(ReplicaRoutingConnectionFactory::reads)
+				.subscriberContext(ReplicaRoutingConnectionFactory::primary)
+				.block();
+		assertThat(read).isSameAs(this.primary.connection);
+	}
+
+	@Test
+	void replicaWithFewestPendingAcquiresWins() {
+		var routing = routing(Duration.ZERO);
+		this.replica1.hang = true;
+		// ties are broken randomly, so keep going until one acquire is stuck on the first replica
+		for (var i = 0; i < 64; i++) {
+			routing.create().subscriberContext(ReplicaRoutingConnectionFactory::reads).subscribe();
+		}
+
+		for (var i = 0; i < 10; i++) {
+			var read = routing.create().subscriberContext(ReplicaRoutingConnectionFactory::reads).block();
+			assertThat(read).isSameAs(this.replica2.connection);
+		}
+	}
+
+	private ReplicaRoutingConnectionFactory routing(Duration readYourWritesWindow) {
+		var routing = new ReplicaRoutingConnectionFactory(this.primary, List.of(this.replica1, this.replica2), readYourWritesWindow);
+		routing.afterPropertiesSet();
+		return routing;
+	}
+
+	static class StandInConnectionFactory implements ConnectionFactory {
+
+		final Connection connection = Mockito.mock(Connection.class);
+		boolean hang;
+
+		@Override
+		public Mono<Connection> create() {
+			return this.hang ? MonoProcessor.create() : Mono.just(this.connection);
+		}
+
+		@Override
+		public ConnectionFactoryMetadata getMetadata() {
+			return () -> "stand-in";
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.postgresql.api.PostgresqlStatement;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Uses a stand-in listener connection over an in-memory reservation_change table, so no database
+ * is needed. commit adds changes to the table as the numbering trigger would and notifies once.
+ */
+class ReservationChangeFeedTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final TreeMap<Long, String> table = new TreeMap<>();
+	private final DirectProcessor<Notification> notifications = DirectProcessor.create();
+	private ReservationChangeFeed feed;
+
+	@AfterEach
+	void tearDown() {
+		this.feed.destroy();
+	}
+
+	@Test
+	void catchesUpWithEveryChangeNumberedSinceTheLastWakeUp() {
+		this.feed = listening(4, 256, 100);
+		var changes = new ArrayList<Long>();
+		this.feed.changes(null).subscribe(change -> changes.add(change.getSequence()));
+
+		commit(3);
+		commit(1);
+
+		assertThat(changes).containsExactly(1L, 2L, 3L, 4L);
+	}
+
+	@Test
+	void resumesFromTheTableWhatTheMemoryNoLongerHolds() {
+		this.feed = listening(4, 256, 100);
+		commit(10);
+
+		var resumed = this.feed.changes(2L).take(8).map(ReservationChange::getSequence).collectList().block(Duration.ofSeconds(5));
+		assertThat(resumed).containsExactly(3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+
+		var live = this.feed.changes(8L).take(3).map(ReservationChange::getSequence).collectList();
+		var next = live.toFuture();
+		commit(1);
+		assertThat(next.join()).containsExactly(9L, 10L, 11L);
+	}
+
+	@Test
+	void resumingFromAPrunedChangeFails() {
+		this.feed = listening(4, 256, 4);
+		commit(10);
+
+		var error = new AtomicReference<Throwable>();
+		this.feed.changes(2L).subscribe(null, error::set);
+
+		assertThat(this.table.firstKey()).isGreaterThan(3L);
+		assertThat(error.get()).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("no longer retained");
+	}
+
+	@Test
+	void subscriberFallingBehindItsBufferFailsAloneWithAnOverflow() {
+		this.feed = listening(4, 8, 100);
+		var stalled = new StalledSubscriber();
+		this.feed.changes(null).subscribe(stalled);
+		var keepingUp = new ArrayList<Long>();
+		this.feed.changes(null).subscribe(change -> keepingUp.add(change.getSequence()));
+
+		commit(8);
+		assertThat(stalled.error).isNull();
+
+		commit(1);
+		assertThat(keepingUp).hasSize(9);
+
+		// the buffered changes come first, then the overflow
+		stalled.request(Long.MAX_VALUE);
+		assertThat(stalled.received).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L);
+		assertThat(stalled.error).matches(Exceptions::isOverflow);
+	}
+
+	private ReservationChangeFeed listening(int historySize, int subscriberBufferSize, long retention) {
+		var feed = new ReservationChangeFeed(this.objectMapper, Mono.fromSupplier(this::connection), historySize,
+				subscriberBufferSize, retention);
+		feed.listen();
+		return feed;
+	}
+
+	// the changes of one transaction, numbered after the newest in the table, and their notification
+	private void commit(int count) {
+		var next = this.table.isEmpty() ? 1 : this.table.lastKey() + 1;
+		for (var i = 0; i < count; i++) {
+			this.table.put(next + i, "{\"id\":" + (next + i) + ",\"name\":\"reservation " + (next + i) + "\"}");
+		}
+		var notification = Mockito.mock(Notification.class);
+		Mockito.when(notification.getParameter()).thenReturn(String.valueOf(next + count - 1));
+		this.notifications.onNext(notification);
+	}
+
+	private PostgresqlConnection connection() {
+		var connection = Mockito.mock(PostgresqlConnection.class);
+		Mockito.when(connection.getNotifications()).thenReturn(this.notifications);
+		Mockito.when(connection.close()).thenReturn(Mono.empty());
+		Mockito.when(connection.createStatement(Mockito.anyString())).thenAnswer(invocation -> {
+			String sql = invocation.getArgument(0);
+			var parameter = new AtomicReference<Object>();
+			var statement = Mockito.mock(PostgresqlStatement.class);
+			Mockito.when(statement.bind(Mockito.anyString(), Mockito.any())).thenAnswer(i -> {
+				parameter.set(i.getArgument(1));
+				return statement;
+			});
+			Mockito.when(statement.execute()).thenAnswer(i -> Flux.defer(() -> Flux.just(run(sql, (Long) parameter.get()))));
+			return statement;
+		});
+		return connection;
+	}
+
+	// what the feed's statements would find in reservation_change
+	private PostgresqlResult run(String sql, Long parameter) {
+		var rows = new ArrayList<Object[]>();
+		var updated = 0;
+		if (sql.contains("max(sequence)")) {
+			rows.add(new Object[] {this.table.isEmpty() ? 0L : this.table.lastKey()});
+		}
+		else if (sql.contains("min(sequence)")) {
+			rows.add(new Object[] {this.table.isEmpty() || this.table.firstKey() <= 1});
+		}
+		else if (sql.contains("EXISTS")) {
+			rows.add(new Object[] {this.table.containsKey(parameter)});
+		}
+		else if (sql.startsWith("SELECT sequence")) {
+			var limit = sql.contains(" LIMIT ") ? Long.parseLong(sql.substring(sql.lastIndexOf(' ') + 1)) : Long.MAX_VALUE;
+			rows.addAll(this.table
+					.tailMap(parameter, false)
+					.entrySet()
+					.stream()
+					.limit(limit)
+					.map(change -> new Object[] {change.getKey(), "INSERT", change.getValue()})
+					.collect(Collectors.toList()));
+		}
+		else if (sql.startsWith("DELETE")) {
+			var pruned = this.table.headMap(parameter, true);
+			updated = pruned.size();
+			pruned.clear();
+		}
+		return result(rows, updated);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static PostgresqlResult result(List<Object[]> rows, int updated) {
+		var result = Mockito.mock(PostgresqlResult.class);
+		Mockito.when(result.getRowsUpdated()).thenReturn(Mono.just(updated));
+		Mockito.when(result.map(Mockito.any(BiFunction.class))).thenAnswer(invocation -> {
+			BiFunction<Row, RowMetadata, ?> mapper = invocation.getArgument(0);
+			return Flux.fromIterable(rows).map(values -> mapper.apply(row(values), null));
+		});
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Row row(Object[] values) {
+		var row = Mockito.mock(Row.class);
+		Mockito.when(row.get(Mockito.anyInt(), Mockito.any(Class.class)))
+				.thenAnswer(invocation -> values[invocation.<Integer>getArgument(0)]);
+		return row;
+	}
+
+	// asks for nothing until told to, so every change goes to its buffer
+	static class StalledSubscriber extends BaseSubscriber<ReservationChange> {
+
+		final List<Long> received = new ArrayList<>();
+		volatile Throwable error;
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+		}
+
+		@Override
+		protected void hookOnNext(ReservationChange change) {
+			this.received.add(change.getSequence());
+		}
+
+		@Override
+		protected void hookOnError(Throwable throwable) {
+			this.error = throwable;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.reservationservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReservationNameIndexTests {
+
+	private final ReservationNameIndex index = new ReservationNameIndex();
+
+	@Test
+	void ranksPrefixesBeforeSubstringsAndEarlierOccurrencesFirst() {
+		put(1, "Olga");
+		put(2, "Madhura");
+		put(3, "Mario");
+		put(4, "Dr. Mario");
+		put(5, "mar");
+		put(6, "Omar");
+		put(7, "Marianne Mar");
+
+		assertThat(names("MAR", 10)).containsExactly("mar", "Marianne Mar", "Mario", "Omar", "Dr. Mario");
+		assertThat(names("mar", 3)).containsExactly("mar", "Marianne Mar", "Mario");
+	}
+
+	@Test
+	void shortQueriesOnlyMatchPrefixes() {
+		put(1, "Josh");
+		put(2, "Jürgen");
+		put(3, "Stéphane Josh");
+
+		assertThat(names("j", 10)).containsExactly("Josh", "Jürgen");
+		assertThat(names("sh", 10)).isEmpty();
+	}
+
+	@Test
+	void followsUpdatesAndDeletes() {
+		put(1, "Violetta");
+		put(2, "Violetta");
+		put(3, "Viktor");
+
+		put(1, "Madhura");
+		this.index.remove(3);
+
+		assertThat(this.index.search("vi", 10)).containsExactly(new Reservation(2, "Violetta"));
+		assertThat(this.index.search("dhu", 10)).containsExactly(new Reservation(1, "Madhura"));
+		assertThat(this.index.size()).isEqualTo(2);
+
+		put(4, "Viktor");
+		assertThat(names("vik", 10)).containsExactly("Viktor");
+	}
+
+	private void put(int id, String name) {
+		this.index.put(new Reservation(id, name));
+	}
+
+	private List<String> names(String query, int limit) {
+		return this.index
+				.search(query, limit)
+				.stream()
+				.map(Reservation::getName)
+				.collect(Collectors.toList());
+	}
+}
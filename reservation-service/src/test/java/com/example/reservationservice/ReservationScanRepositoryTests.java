@@ -0,0 +1,60 @@
+package com.example.reservationservice;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Stands in plain Fluxes for the partition scans, so no database is needed.
+ */
+class ReservationScanRepositoryTests {
+
+	@Test
+	void orderedScansAreMergedById() {
+		var scans = List.of(partition(3, 6, 9), partition(1, 4), partition(2, 5, 7, 8));
+
+		StepVerifier
+				.create(ReservationScanRepositoryImpl.merge(scans, true).map(Reservation::getId))
+				.expectNext(1, 2, 3, 4, 5, 6, 7, 8, 9)
+				.verifyComplete();
+	}
+
+	@Test
+	void unorderedScansPassOnEveryRow() {
+		var scans = List.of(partition(3, 6, 9), partition(1, 4), partition(2, 5, 7, 8));
+
+		StepVerifier
+				.create(ReservationScanRepositoryImpl.merge(scans, false).map(Reservation::getId))
+				.recordWith(ArrayList::new)
+				.expectNextCount(9)
+				.consumeRecordedWith(ids -> assertThat(ids).containsExactlyInAnyOrder(1, 2, 3, 4, 5, 6, 7, 8, 9))
+				.verifyComplete();
+	}
+
+	@Test
+	void allPartitionsAreScannedAtOnce() {
+		for (var ordered : new boolean[]{true, false}) {
+			var subscribed = new AtomicInteger();
+			var scans = List.of(
+					Flux.<Reservation>never().doOnSubscribe(s -> subscribed.incrementAndGet()),
+					Flux.<Reservation>never().doOnSubscribe(s -> subscribed.incrementAndGet()),
+					Flux.<Reservation>never().doOnSubscribe(s -> subscribed.incrementAndGet()));
+
+			var merged = ReservationScanRepositoryImpl.merge(scans, ordered).subscribe();
+			assertThat(subscribed).hasValue(3);
+			merged.dispose();
+		}
+	}
+
+	private static Flux<Reservation> partition(Integer... ids) {
+		return Flux
+				.just(ids)
+				.map(id -> new Reservation(id, "reservation " + id));
+	}
+}
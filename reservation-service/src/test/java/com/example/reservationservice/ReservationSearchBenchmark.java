@@ -0,0 +1,74 @@
+package com.example.reservationservice;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Build time, heap and lookup latency of ReservationNameIndex for a few million generated names.
+ * Run the main method with the heap it needs (-Xmx2g for the default); it needs no database.
+ * Arguments: [rows] [limit].
+ */
+class ReservationSearchBenchmark {
+
+	private static final List<String> FIRST = List.of("Josh", "Mario", "Olga", "Violetta", "Stéphane", "Madhura",
+			"Jürgen", "Dave", "Phil", "Andy", "Brian", "Sébastien", "Rossen", "Oliver", "Mark", "Spencer", "Ryan", "Jay");
+	private static final List<String> SYLLABLES = List.of("ba", "ker", "son", "ma", "ri", "lon", "ge", "stein", "o",
+			"wicz", "fer", "nan", "dez", "ha", "ru", "ki", "sch", "mid", "tt", "li");
+	private static final int ITERATIONS = 20_000;
+
+	public static void main(String[] args) {
+		var rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		var limit = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		var random = new Random(42);
+		var index = new ReservationNameIndex();
+		var heapBefore = usedHeap();
+		var start = System.nanoTime();
+		for (var id = 1; id <= rows; id++) {
+			index.put(new Reservation(id, name(random)));
+		}
+		System.out.printf("indexed %d rows in %d ms, about %d MB of heap%n", rows, (System.nanoTime() - start) / 1_000_000,
+				(usedHeap() - heapBefore) >> 20);
+
+		System.out.printf("%-12s %10s %10s %10s %10s%n", "query", "results", "p50 us", "p99 us", "max us");
+		for (var query : List.of("j", "ma", "josh", "mario ba", "son", "kerson", "wiczfer", "stein", "ttli", "zzz")) {
+			report(index, query, limit);
+		}
+	}
+
+	private static void report(ReservationNameIndex index, String query, int limit) {
+		for (var i = 0; i < ITERATIONS / 10; i++) {
+			index.search(query, limit);
+		}
+		var nanos = new long[ITERATIONS];
+		var results = 0;
+		for (var i = 0; i < ITERATIONS; i++) {
+			var start = System.nanoTime();
+			results = index.search(query, limit).size();
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		System.out.printf("%-12s %10d %10.1f %10.1f %10.1f%n", query, results, nanos[ITERATIONS / 2] / 1000.0,
+				nanos[ITERATIONS * 99 / 100] / 1000.0, nanos[ITERATIONS - 1] / 1000.0);
+	}
+
+	// a first name and a surname of two to four syllables, which gives a few hundred thousand distinct names
+	private static String name(Random random) {
+		var name = new StringBuilder(FIRST.get(random.nextInt(FIRST.size()))).append(' ');
+		var syllables = 2 + random.nextInt(3);
+		for (var i = 0; i < syllables; i++) {
+			var syllable = SYLLABLES.get(random.nextInt(SYLLABLES.size()));
+			name.append(i == 0 ? Character.toUpperCase(syllable.charAt(0)) + syllable.substring(1) : syllable);
+		}
+		return name.toString();
+	}
+
+	private static long usedHeap() {
+		for (var i = 0; i < 3; i++) {
+			System.gc();
+		}
+		var runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,89 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import reactor.core.publisher.Flux;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * Bytes on the wire and encode CPU time of GET /reservations for each supported format, with and
+ * without a fields=id projection. Run the main method; it needs no database.
+ */
+class ReservationWireFormatBenchmark {
+
+	private static final int ROWS = 100_000;
+	private static final int WARMUP = 10;
+	private static final int ITERATIONS = 20;
+
+	public static void main(String[] args) {
+		// codecs log every value at debug level, which would dominate the measurement
+		LoggingSystem
+				.get(ReservationWireFormatBenchmark.class.getClassLoader())
+				.setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.INFO);
+
+		var objectMapper = new ObjectMapper();
+		var encoders = new LinkedHashMap<MediaType, Encoder<?>>();
+		encoders.put(MediaType.APPLICATION_JSON, new Jackson2JsonEncoder(objectMapper));
+		encoders.put(ReservationWireFormats.NDJSON, ReservationWireFormats.jsonEncoder(objectMapper));
+		encoders.put(MediaType.APPLICATION_CBOR, ReservationWireFormats.cborEncoder());
+		encoders.put(ReservationWireFormats.SMILE, ReservationWireFormats.smileEncoder());
+		encoders.put(ReservationWireFormats.COLUMNAR, new ReservationColumnarEncoder(1024));
+
+		var names = List.of("Josh", "Mario", "Olga", "Violetta", "Dr. Syer", "Stéphane", "Madhura", "Jürgen");
+		var full = IntStream
+				.range(0, ROWS)
+				.mapToObj(i -> new Reservation(i + 1, names.get(i % names.size())))
+				.collect(Collectors.toList());
+		var idsOnly = full
+				.stream()
+				.map(r -> new Reservation(r.getId(), null))
+				.collect(Collectors.toList());
+
+		System.out.printf("%-40s %-10s %12s %10s %12s%n", "format", "fields", "bytes", "bytes/row", "cpu ms/run");
+		encoders.forEach((mediaType, encoder) -> {
+			report(mediaType, "id,name", encoder, full);
+			report(mediaType, "id", encoder, idsOnly);
+		});
+	}
+
+	private static void report(MediaType mediaType, String fields, Encoder<?> encoder, List<Reservation> reservations) {
+		for (var i = 0; i < WARMUP; i++) {
+			encode(mediaType, encoder, reservations);
+		}
+		var threads = ManagementFactory.getThreadMXBean();
+		var bytes = 0L;
+		var start = threads.getCurrentThreadCpuTime();
+		for (var i = 0; i < ITERATIONS; i++) {
+			bytes = encode(mediaType, encoder, reservations);
+		}
+		var cpuMillis = (threads.getCurrentThreadCpuTime() - start) / 1_000_000.0 / ITERATIONS;
+		System.out.printf("%-40s %-10s %12d %10.2f %12.2f%n", mediaType, fields, bytes, (double) bytes / reservations.size(), cpuMillis);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long encode(MediaType mediaType, Encoder<?> encoder, List<Reservation> reservations) {
+		return ((Encoder<Reservation>) encoder)
+				.encode(Flux.fromIterable(reservations), new DefaultDataBufferFactory(), ResolvableType.forClass(Reservation.class),
+						mediaType, Collections.emptyMap())
+				.map(buffer -> {
+					var count = (long) buffer.readableByteCount();
+					DataBufferUtils.release(buffer);
+					return count;
+				})
+				.reduce(0L, Long::sum)
+				.block();
+	}
+}
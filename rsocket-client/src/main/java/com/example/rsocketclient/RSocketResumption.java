@@ -0,0 +1,128 @@
+package com.example.rsocketclient;
+
+import io.rsocket.exceptions.MissingLeaseException;
+import io.rsocket.lease.Leases;
+import io.rsocket.resume.ExponentialBackoffResumeStrategy;
+import io.rsocket.resume.InMemoryResumableFramesStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Configuration
+class RSocketResumptionConfiguration {
+
+  @Bean
+  ResumableConnections resumableConnections(
+      @Value("${rsocket.resume.enabled:true}") boolean resume,
+      @Value("${rsocket.resume.store-size:1MB}") DataSize storeSize,
+      @Value("${rsocket.resume.session-duration:2m}") Duration sessionDuration,
+      @Value("${rsocket.resume.max-backoff:5s}") Duration maxBackoff,
+      @Value("${rsocket.lease.enabled:false}") boolean lease) {
+    return new ResumableConnections(resume, (int) storeSize.toBytes(), sessionDuration, maxBackoff, lease);
+  }
+}
+
+/*
+ * Connections to greeting-service that survive a dropped TCP connection: the client reconnects
+ * with backoff and resumes its session, so the greetings streams continue where they stopped
+ * instead of starting over. With rsocket.lease.enabled, which has to match greeting-service's, they
+ * also honor the server's leases, which means a request is refused right here with a
+ * MissingLeaseException while the server is shedding load; withLease retries those until the
+ * server grants a lease again.
+ *
+ * shared makes one connection for every subscriber. A connect that fails is retried with backoff,
+ * and if it still fails the error goes to the subscribers waiting on it but isn't kept: the next
+ * subscriber connects again. A connection that closes for good, such as when its session expired,
+ * is replaced the same way.
+ */
+@Log4j2
+class ResumableConnections {
+
+  private static final int CONNECT_ATTEMPTS = 5;
+
+  private final boolean resume;
+  private final int storeSize;
+  private final Duration sessionDuration;
+  private final Duration maxBackoff;
+  private final boolean lease;
+
+  ResumableConnections(boolean resume, int storeSize, Duration sessionDuration, Duration maxBackoff, boolean lease) {
+    this.resume = resume;
+    this.storeSize = storeSize;
+    this.sessionDuration = sessionDuration;
+    this.maxBackoff = maxBackoff;
+    this.lease = lease;
+  }
+
+  void configure(RSocketRequester.Builder builder) {
+    builder.rsocketFactory(factory -> {
+      if (this.resume) {
+        factory
+            .resume()
+            .resumeStore(token -> new InMemoryResumableFramesStore("client", this.storeSize))
+            .resumeSessionDuration(this.sessionDuration)
+            .resumeStrategy(() -> new ExponentialBackoffResumeStrategy(Duration.ofMillis(100), this.maxBackoff, 2));
+      }
+      if (this.lease) {
+        factory.lease(() -> Leases.create().receiver(leases -> leases.subscribe(lease -> log.debug("received " + lease))));
+      }
+    });
+  }
+
+  Mono<RSocketRequester> shared(Mono<RSocketRequester> connect) {
+    var current = new AtomicReference<MonoProcessor<RSocketRequester>>();
+    var attempts = connect.retryBackoff(CONNECT_ATTEMPTS - 1, Duration.ofMillis(100), this.maxBackoff);
+    return Mono.defer(() -> share(current, attempts));
+  }
+
+  // the connection being made or made, or a new attempt when there is none
+  private static Mono<RSocketRequester> share(AtomicReference<MonoProcessor<RSocketRequester>> current,
+                                              Mono<RSocketRequester> connect) {
+    var connection = current.get();
+    if (connection != null) {
+      return connection;
+    }
+    var attempt = MonoProcessor.<RSocketRequester>create();
+    if (!current.compareAndSet(null, attempt)) {
+      return Mono.defer(() -> share(current, connect));
+    }
+    connect.subscribe(
+        requester -> {
+          requester
+              .rsocket()
+              .onClose()
+              .doFinally(signal -> current.compareAndSet(attempt, null))
+              .subscribe(null, error -> log.debug("connection closed", error));
+          attempt.onNext(requester);
+        },
+        error -> {
+          current.compareAndSet(attempt, null);
+          attempt.onError(error);
+        });
+    return attempt;
+  }
+
+  <T> Flux<T> withLease(Flux<T> requests) {
+    return requests.retryWhen(errors -> errors.concatMap(this::awaitLease));
+  }
+
+  <T> Mono<T> withLease(Mono<T> request) {
+    return request.retryWhen(errors -> errors.concatMap(this::awaitLease));
+  }
+
+  // leases are handed out once a period; waiting a fraction of that catches the next one
+  private Mono<Long> awaitLease(Throwable error) {
+    return this.lease && error instanceof MissingLeaseException
+        ? Mono.delay(Duration.ofMillis(250))
+        : Mono.error(error);
+  }
+}
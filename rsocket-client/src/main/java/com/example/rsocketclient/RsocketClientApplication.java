@@ -15,6 +15,7 @@ import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.security.rsocket.metadata.BasicAuthenticationEncoder;
 import org.springframework.security.rsocket.metadata.UsernamePasswordMetadata;
+import reactor.core.publisher.Mono;
 
 import static org.springframework.security.rsocket.metadata.UsernamePasswordMetadata.BASIC_AUTHENTICATION_MIME_TYPE;
 
@@ -31,35 +32,42 @@ public class RsocketClientApplication {
     return strategies -> strategies.encoder(new BasicAuthenticationEncoder());
   }
 
+  // connects when first subscribed to, rather than blocking startup until greeting-service answers
   @Bean
-  RSocketRequester rSocketRequester(RSocketRequester.Builder builder ) {
-    return builder
-        .connectTcp("localhost", 8888)
-        .block();
+  Mono<RSocketRequester> rSocketRequester(RSocketRequester.Builder builder, PayloadCompression compression,
+                                          ResumableConnections connections) {
+    return connections.shared(builder
+        .apply(compression::configure)
+        .apply(connections::configure)
+        .connectTcp("localhost", 8888));
   }
 
   @Bean
-  ApplicationListener<ApplicationReadyEvent> secureClient(RSocketRequester localhost) {
+  ApplicationListener<ApplicationReadyEvent> secureClient(Mono<RSocketRequester> localhost, ResumableConnections connections) {
     return event -> {
       var credentials = new UsernamePasswordMetadata("user", "password");
       localhost
-          .route("greeting")
-          .metadata(credentials, BASIC_AUTHENTICATION_MIME_TYPE)
-          .data(new GreetingRequest("Rob"))
-          .retrieveMono(GreetingResponse.class)
+          .flatMap(requester -> connections.withLease(requester
+              .route("greeting")
+              .metadata(credentials, BASIC_AUTHENTICATION_MIME_TYPE)
+              .data(new GreetingRequest("Rob"))
+              .retrieveMono(GreetingResponse.class)))
           .subscribe(gr -> log.info("secure response: " + gr));
     };
   }
 
   @Bean
-  ApplicationListener<ApplicationReadyEvent> client(RSocketRequester.Builder builder) {
+  ApplicationListener<ApplicationReadyEvent> client(RSocketRequester.Builder builder, PayloadCompression compression,
+                                                    ResumableConnections connections) {
     return event ->
         builder
+            .apply(compression::configure)
+            .apply(connections::configure)
             .connectTcp("localhost", 8888)
-            .block()
-            .route("greetings")
-            .data(new GreetingRequest("Livelessons"))
-            .retrieveFlux(GreetingResponse.class)
+            .flatMapMany(requester -> connections.withLease(requester
+                .route("greetings")
+                .data(new GreetingRequest("Livelessons"))
+                .retrieveFlux(GreetingResponse.class)))
             .subscribe(gr -> log.info("rsocket client: " + gr.getMessage()));
   }
 
@@ -0,0 +1,64 @@
+package com.example.rsocketclient;
+
+import io.rsocket.AbstractRSocket;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Mono;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+ * shared against a connect that counts its attempts and fails the first failures of them.
+ */
+class ResumableConnectionsTests {
+
+  private final ResumableConnections connections = new ResumableConnections(false, 0, Duration.ZERO, Duration.ofMillis(200), false);
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  @Test
+  void sharesOneConnectionUntilItCloses() {
+    var requester = this.connections.shared(connect(0));
+
+    var first = requester.block(Duration.ofSeconds(5));
+    assertThat(requester.block(Duration.ofSeconds(5))).isSameAs(first);
+    assertThat(this.attempts).hasValue(1);
+
+    first.rsocket().dispose();
+
+    assertThat(requester.block(Duration.ofSeconds(5))).isNotSameAs(first);
+    assertThat(this.attempts).hasValue(2);
+  }
+
+  @Test
+  void retriesAFailedConnectWithBackoff() {
+    var requester = this.connections.shared(connect(2));
+
+    assertThat(requester.block(Duration.ofSeconds(5))).isNotNull();
+    assertThat(this.attempts).hasValue(3);
+  }
+
+  @Test
+  void connectsAgainForTheNextSubscriberOnceEveryAttemptFailed() {
+    var requester = this.connections.shared(connect(5));
+
+    assertThatThrownBy(() -> requester.block(Duration.ofSeconds(5))).hasCauseInstanceOf(ConnectException.class);
+    assertThat(this.attempts).hasValue(5);
+
+    assertThat(requester.block(Duration.ofSeconds(5))).isNotNull();
+    assertThat(this.attempts).hasValue(6);
+  }
+
+  private Mono<RSocketRequester> connect(int failures) {
+    return Mono.defer(() -> this.attempts.incrementAndGet() <= failures
+        ? Mono.error(new ConnectException("connection refused"))
+        : Mono.just(RSocketRequester.wrap(new AbstractRSocket() {
+        }, MimeTypeUtils.APPLICATION_JSON, MimeTypeUtils.APPLICATION_JSON, RSocketStrategies.create())));
+  }
+}
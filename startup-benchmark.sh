@@ -0,0 +1,62 @@
+#!/usr/bin/env bash
+#
+# Time to ready (until Boot logs "Started ...") for each service, started three ways: the
+# executable jar as built by default, the plain jar from the appcds profile with a class data
+# sharing archive trained on a previous start, and the same with lazy bean initialization. Build
+# the modules first:
+#
+#   mvn -Pappcds,component-index -Dmaven.test.skip=true package
+#
+# Training the archive needs JDK 13 or later. Services that use Postgres, MongoDB, Redis or each
+# other need those running. Environment: RUNS (default 5), SERVICES (module directories) and
+# JAVA_OPTS (added to every start).
+#
+set -euo pipefail
+cd "$(dirname "$0")"
+
+runs=${RUNS:-5}
+services=${SERVICES:-"eureka-service greeting-service gateway reservation-service reactive-streams-redux/tweet-service rsocket-client"}
+
+# starts java with the given arguments, prints the milliseconds until it is ready, then stops it
+ready() {
+  local log
+  log=$(mktemp)
+  local start
+  start=$(date +%s%N)
+  # shellcheck disable=SC2086
+  java ${JAVA_OPTS:-} "$@" > "$log" 2>&1 &
+  local pid=$!
+  until grep -q "Started .* in " "$log"; do
+    if ! kill -0 "$pid" 2> /dev/null; then
+      echo "java $* did not start, see $log" >&2
+      return 1
+    fi
+    sleep 0.01
+  done
+  local end
+  end=$(date +%s%N)
+  # a clean exit is what writes an -XX:ArchiveClassesAtExit archive
+  kill -TERM "$pid"
+  wait "$pid" || true
+  rm "$log"
+  echo $(((end - start) / 1000000))
+}
+
+median() {
+  for _ in $(seq "$runs"); do
+    ready "$@"
+  done | sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+printf "%-40s %10s %10s %12s\n" "service" "jar ms" "appcds ms" "+ lazy ms"
+for service in $services; do
+  name=$(basename "$service")
+  jar=$service/target/$name-0.0.1-SNAPSHOT.jar
+  archive=$service/target/app.jsa
+  rm -f "$archive"
+  ready -XX:ArchiveClassesAtExit="$archive" -jar "$jar" > /dev/null
+  printf "%-40s %10s %10s %12s\n" "$name" \
+    "$(median -jar "$service/target/$name-0.0.1-SNAPSHOT-exec.jar")" \
+    "$(median -XX:SharedArchiveFile="$archive" -jar "$jar")" \
+    "$(median -XX:SharedArchiveFile="$archive" -Dspring.main.lazy-initialization=true -jar "$jar")"
+done